@@ -0,0 +1,102 @@
+package org.pxu.tools.ssh.benchmarks;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.apache.sshd.common.NamedFactory;
+import org.apache.sshd.common.OptionalFeature;
+import org.apache.sshd.common.cipher.BuiltinCiphers;
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.common.kex.BuiltinDHFactories;
+import org.apache.sshd.common.mac.BuiltinMacs;
+import org.apache.sshd.common.signature.BuiltinSignatures;
+import org.apache.sshd.server.ServerBuilder;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+
+/**
+ * SSH server on a free local port that accepts any user with the password
+ * {@link #PASSWORD}, runs
+ * {@link FakeShell} for shell channels and {@link FakeCommand} for exec
+ * channels, and serves SFTP from a temp folder.
+ *
+ * All algorithms MINA SSHD has are enabled, including the old ones that
+ * JSch 0.1.53 and j2ssh need.
+ */
+public class EmbeddedSshServer implements Closeable {
+
+	public static final String USER = "admin";
+	public static final String PASSWORD = "admin";
+
+	private final SshServer sshd;
+	private final Path root;
+
+	public EmbeddedSshServer() throws IOException {
+		root = Files.createTempDirectory("sshd-root");
+		sshd = SshServer.setUpDefaultServer();
+		sshd.setHost("127.0.0.1");
+		sshd.setPort(0);
+		SimpleGeneratorHostKeyProvider keys = new SimpleGeneratorHostKeyProvider();
+		keys.setAlgorithm("RSA");
+		keys.setKeySize(2048);
+		sshd.setKeyPairProvider(keys);
+		sshd.setKeyExchangeFactories(NamedFactory.setUpTransformedFactories(
+				true, BuiltinDHFactories.VALUES, ServerBuilder.DH2KEX));
+		sshd.setCipherFactories(supported(BuiltinCiphers.VALUES));
+		sshd.setMacFactories(supported(BuiltinMacs.VALUES));
+		sshd.setSignatureFactories(supported(BuiltinSignatures.VALUES));
+		sshd.setPasswordAuthenticator((user, password, session) -> PASSWORD
+				.equals(password));
+		sshd.setShellFactory(channel -> new FakeShell());
+		sshd.setCommandFactory((channel, command) -> new FakeCommand(command));
+		sshd.setSubsystemFactories(Collections
+				.singletonList(new SftpSubsystemFactory()));
+		sshd.setFileSystemFactory(new VirtualFileSystemFactory(root));
+		sshd.start();
+	}
+
+	/**
+	 * @return "127.0.0.1:port", to be given to UnixShell as host
+	 */
+	public String getHost() {
+		return "127.0.0.1:" + sshd.getPort();
+	}
+
+	/**
+	 * @return Folder served as "/" over SFTP
+	 */
+	public Path getRoot() {
+		return root;
+	}
+
+	public void close() throws IOException {
+		sshd.stop(true);
+		try (Stream<Path> files = Files.walk(root)) {
+			files.sorted(Comparator.reverseOrder()).map(Path::toFile)
+					.forEach(File::delete);
+		}
+	}
+
+	/**
+	 * @return Those of factories the JVM can run, e.g. without ciphers its
+	 *         security providers lack
+	 */
+	private static <T, F extends NamedFactory<T> & OptionalFeature> List<NamedFactory<T>> supported(
+			Collection<F> factories) {
+		List<NamedFactory<T>> result = new ArrayList<NamedFactory<T>>();
+		for (F f : factories)
+			if (f.isSupported())
+				result.add(f);
+		return result;
+	}
+}
@@ -0,0 +1,93 @@
+package org.pxu.tools.ssh.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.channel.ChannelSession;
+import org.apache.sshd.server.command.Command;
+
+/**
+ * Scripted stand-in for a command run on an exec channel:
+ *
+ * <pre>
+ * fail N   "fail N: failed" on stderr, exit code N
+ * pause N  nothing for N milliseconds, then like other
+ * umlauts  "gr&uuml;&szlig;e" on stdout and stderr, exit code 0
+ * other    "other: ok" on stdout, exit code 0
+ * </pre>
+ *
+ * Output is written in UTF-8.
+ */
+public class FakeCommand implements Command, Runnable {
+
+	public static final String UMLAUTS = "gr\u00fc\u00dfe\n";
+
+	private final String command;
+	private OutputStream out, err;
+	private ExitCallback exit;
+	private Thread thread;
+
+	public FakeCommand(String command) {
+		this.command = command.trim();
+	}
+
+	public void setInputStream(InputStream in) {
+	}
+
+	public void setOutputStream(OutputStream out) {
+		this.out = out;
+	}
+
+	public void setErrorStream(OutputStream err) {
+		this.err = err;
+	}
+
+	public void setExitCallback(ExitCallback exit) {
+		this.exit = exit;
+	}
+
+	public void start(ChannelSession channel, Environment env) {
+		thread = new Thread(this, "FakeCommand");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void destroy(ChannelSession channel) {
+		if (thread != null)
+			thread.interrupt();
+	}
+
+	public void run() {
+		try {
+			if (command.startsWith("fail ")) {
+				write(err, command + ": failed\n");
+				exit.onExit(Integer.parseInt(command.substring(5).trim()));
+				return;
+			}
+			if (command.equals("umlauts")) {
+				write(out, UMLAUTS);
+				write(err, UMLAUTS);
+				exit.onExit(0);
+				return;
+			}
+			if (command.startsWith("pause "))
+				Thread.sleep(Long.parseLong(command.substring(6).trim()));
+			write(out, command + ": ok\n");
+			exit.onExit(0);
+		} catch (InterruptedException e) {
+			exit.onExit(1, "Interrupted");
+		} catch (IOException e) {
+			exit.onExit(1, e.getMessage());
+		}
+	}
+
+	private static void write(OutputStream stream, String text)
+			throws IOException {
+		stream.write(text.getBytes(StandardCharsets.UTF_8));
+		stream.flush();
+	}
+}
@@ -0,0 +1,123 @@
+package org.pxu.tools.ssh.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.channel.ChannelSession;
+import org.apache.sshd.server.command.Command;
+
+/**
+ * Scripted stand-in for an interactive shell. Prints a banner and the prompt
+ * <code>admin:</code>, echoes every typed line like a terminal and answers:
+ *
+ * <pre>
+ * out N    N lines of 80 chars
+ * pause N  nothing for N milliseconds, then like other
+ * exit     closes the channel
+ * other    one line, "other: ok"
+ * </pre>
+ */
+public class FakeShell implements Command, Runnable {
+
+	public static final String PROMPT = "admin:";
+
+	private static final byte[] LINE = (repeat('x', 78) + "\r\n")
+			.getBytes(StandardCharsets.US_ASCII);
+
+	private InputStream in;
+	private OutputStream out;
+	private ExitCallback exit;
+	private Thread thread;
+
+	public void setInputStream(InputStream in) {
+		this.in = in;
+	}
+
+	public void setOutputStream(OutputStream out) {
+		this.out = out;
+	}
+
+	public void setErrorStream(OutputStream err) {
+	}
+
+	public void setExitCallback(ExitCallback exit) {
+		this.exit = exit;
+	}
+
+	public void start(ChannelSession channel, Environment env) {
+		thread = new Thread(this, "FakeShell");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void destroy(ChannelSession channel) {
+		if (thread != null)
+			thread.interrupt();
+	}
+
+	public void run() {
+		try {
+			write("Last login: Thu Jan  1 00:00:00 1970 from 127.0.0.1\r\n"
+					+ PROMPT);
+			StringBuilder line = new StringBuilder();
+			int c;
+			boolean lastWasCr = false;
+			while ((c = in.read()) != -1) {
+				if (c == '\n' && lastWasCr) {
+					lastWasCr = false;
+					continue;
+				}
+				lastWasCr = c == '\r';
+				if (c != '\r' && c != '\n') {
+					line.append((char) c);
+					continue;
+				}
+				String command = line.toString().trim();
+				line.setLength(0);
+				write(command + "\r\n"); // terminal echo
+				if (command.equals("exit"))
+					break;
+				answer(command);
+				write(PROMPT);
+			}
+			exit.onExit(0);
+		} catch (IOException e) {
+			exit.onExit(1, e.getMessage());
+		}
+	}
+
+	private void answer(String command) throws IOException {
+		if (command.startsWith("out ")) {
+			int lines = Integer.parseInt(command.substring(4).trim());
+			for (int i = 0; i < lines; i++)
+				out.write(LINE);
+		} else if (command.startsWith("pause ")) {
+			try {
+				Thread.sleep(Long.parseLong(command.substring(6).trim()));
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted pausing");
+			}
+			out.write((command + ": ok\r\n")
+					.getBytes(StandardCharsets.US_ASCII));
+		} else if (!command.isEmpty())
+			out.write((command + ": ok\r\n")
+					.getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+	}
+
+	private void write(String text) throws IOException {
+		out.write(text.getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+	}
+
+	private static String repeat(char c, int n) {
+		StringBuilder sb = new StringBuilder(n);
+		for (int i = 0; i < n; i++)
+			sb.append(c);
+		return sb.toString();
+	}
+}
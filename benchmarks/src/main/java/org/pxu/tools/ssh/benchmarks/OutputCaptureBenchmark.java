@@ -0,0 +1,55 @@
+package org.pxu.tools.ssh.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pxu.tools.ssh.CommandOutput;
+
+/**
+ * Capturing 8 MB of command output in 2 KB chunks, kept in memory or spilled
+ * to a temp file past the memory limit.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OutputCaptureBenchmark {
+
+	private static final int CHUNK = 2048;
+	private static final int TOTAL = 8 * 1024 * 1024;
+
+	/** Chars kept in memory, the rest goes to disk */
+	@Param({ "16777216", "1048576" })
+	public int memoryLimit;
+
+	private char[] chunk;
+
+	@Setup
+	public void setUp() {
+		chunk = PatternScanBenchmark.randomOutput(CHUNK);
+	}
+
+	@Benchmark
+	public long capture() throws Exception {
+		CommandOutput output = new CommandOutput(memoryLimit);
+		try {
+			for (int n = 0; n < TOTAL; n += CHUNK)
+				output.append(chunk, 0, CHUNK);
+			return output.length();
+		} finally {
+			output.close();
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package org.pxu.tools.ssh.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pxu.tools.ssh.MultiPatternMatcher;
+
+/**
+ * Scanning 1 MB of output in 2 KB chunks, as the analyzer reads it, for
+ * expectations that never match, half plain strings and half regular
+ * expressions.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PatternScanBenchmark {
+
+	private static final int CHUNK = 2048;
+
+	@Param({ "1", "10", "100" })
+	public int expectations;
+
+	private MultiPatternMatcher<Integer> matcher;
+	private char[] output;
+
+	@Setup
+	public void setUp() {
+		MultiPatternMatcher.Builder<Integer> builder = MultiPatternMatcher
+				.builder();
+		for (int i = 0; i < expectations; i++) {
+			if (i % 2 == 0)
+				builder.add(i, "Question " + i + " (y/n)?", false);
+			else
+				builder.add(i, "^prompt" + i + "[#>$] ", true);
+		}
+		matcher = builder.build();
+		output = randomOutput(1024 * 1024);
+	}
+
+	static char[] randomOutput(int length) {
+		Random random = new Random(1);
+		char[] out = new char[length];
+		for (int i = 0; i < length; i++)
+			out[i] = (i % 80 == 79) ? '\n'
+					: (char) ('a' + random.nextInt(26));
+		return out;
+	}
+
+	@Benchmark
+	public Integer scan() {
+		MultiPatternMatcher<Integer>.Scanner scanner = matcher
+				.newScanner(CHUNK);
+		Integer found = null;
+		for (int off = 0; off < output.length && found == null; off += CHUNK)
+			found = scanner.feed(output, off,
+					Math.min(CHUNK, output.length - off));
+		return found;
+	}
+}
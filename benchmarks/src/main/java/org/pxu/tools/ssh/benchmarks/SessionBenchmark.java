@@ -0,0 +1,86 @@
+package org.pxu.tools.ssh.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pxu.tools.ssh.UnixShell;
+import org.pxu.tools.ssh.UnixShell.AnalyzerMode;
+import org.pxu.tools.ssh.UnixShell.SSHLibraryProvider;
+
+/**
+ * The whole conversation with a host through each SSH library: a fresh
+ * login, one command and logout, and commands on a shell that stays logged
+ * in. Shells are event driven; polling would measure its one second sleep.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SessionBenchmark {
+
+	@Param({ "JSCH", "SSHTOOLS", "APACHE" })
+	public SSHLibraryProvider provider;
+
+	/** Lines of 80 chars printed by the command */
+	@Param({ "1", "1000" })
+	public int lines;
+
+	private EmbeddedSshServer server;
+	private UnixShell loggedIn;
+
+	@Setup(Level.Trial)
+	public void start() throws Exception {
+		UnixShell.printEnable(false);
+		server = new EmbeddedSshServer();
+		loggedIn = newShell();
+		loggedIn.login();
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() throws Exception {
+		loggedIn.logout();
+		server.close();
+	}
+
+	private UnixShell newShell() {
+		UnixShell shell = new UnixShell(server.getHost(),
+				EmbeddedSshServer.USER, EmbeddedSshServer.PASSWORD);
+		shell.initSSHProvider(provider);
+		shell.setAnalyzerMode(AnalyzerMode.EVENT_DRIVEN);
+		shell.setCommandPrompt(FakeShell.PROMPT);
+		shell.setDefaultTimeout(30);
+		return shell;
+	}
+
+	@Benchmark
+	public String loginExecLogout() throws Exception {
+		UnixShell shell = newShell();
+		try {
+			shell.login();
+			shell.exec("out " + lines, 30);
+			return shell.getLastCommandOutput();
+		} finally {
+			shell.logout();
+		}
+	}
+
+	@Benchmark
+	public String exec() throws Exception {
+		loggedIn.exec("out " + lines, 30);
+		return loggedIn.getLastCommandOutput();
+	}
+}
@@ -0,0 +1,78 @@
+package org.pxu.tools.ssh.benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pxu.tools.ssh.FileTransfer;
+import org.pxu.tools.ssh.UnixShell;
+
+/**
+ * Upload and download of one file through {@link FileTransfer}. Divide the
+ * size by the score for the throughput; downloads use ranged parallel reads
+ * once the file is larger than a chunk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SftpBenchmark {
+
+	@Param({ "1", "32" })
+	public int megabytes;
+
+	private EmbeddedSshServer server;
+	private FileTransfer transfer;
+	private Path local, downloaded;
+
+	@Setup(Level.Trial)
+	public void start() throws Exception {
+		UnixShell.printEnable(false);
+		server = new EmbeddedSshServer();
+		byte[] data = new byte[megabytes * 1024 * 1024];
+		new Random(42).nextBytes(data);
+		local = Files.createTempFile("sftp-bench", ".bin");
+		Files.write(local, data);
+		Files.write(server.getRoot().resolve("source.bin"), data);
+		downloaded = Files.createTempFile("sftp-bench", ".out");
+
+		UnixShell shell = new UnixShell(server.getHost(),
+				EmbeddedSshServer.USER, EmbeddedSshServer.PASSWORD);
+		transfer = shell.openFileTransfer();
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() throws Exception {
+		transfer.close();
+		server.close();
+		Files.deleteIfExists(local);
+		Files.deleteIfExists(downloaded);
+	}
+
+	@Benchmark
+	public void upload() throws Exception {
+		transfer.upload(local, "/target.bin", null);
+	}
+
+	@Benchmark
+	public void download() throws Exception {
+		Files.deleteIfExists(downloaded); // else resumed as complete
+		transfer.download("/source.bin", downloaded, null);
+	}
+}
@@ -0,0 +1,84 @@
+package org.pxu.tools.ssh.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+import org.pxu.tools.ssh.UnixShell;
+import org.pxu.tools.ssh.UnixShell.SSHLibraryProvider;
+import org.pxu.tools.ssh.sink.OutputSinks;
+
+import junit.framework.TestCase;
+
+public class ApacheSSHProviderTest extends TestCase {
+
+	private EmbeddedSshServer server;
+	private ThreadPoolExecutor executor;
+	private final List<UnixShell> shells = new ArrayList<UnixShell>();
+
+	@Override
+	protected void setUp() throws Exception {
+		UnixShell.printEnable(false);
+		server = new EmbeddedSshServer();
+		executor = (ThreadPoolExecutor) Executors.newCachedThreadPool();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (UnixShell shell : shells)
+			shell.logout();
+		executor.shutdownNow();
+		server.close();
+	}
+
+	private UnixShell login() throws Exception {
+		UnixShell shell = new UnixShell(server.getHost(),
+				EmbeddedSshServer.USER, EmbeddedSshServer.PASSWORD);
+		shell.setOutputSink(OutputSinks.none());
+		shell.setExecutor(executor);
+		shell.initSSHProvider(SSHLibraryProvider.APACHE);
+		shells.add(shell);
+		shell.login();
+		return shell;
+	}
+
+	@Test
+	public void testWaitingShellsHoldNoThread() throws Exception {
+		List<CompletableFuture<String>> running = new ArrayList<CompletableFuture<String>>();
+		for (int i = 0; i < 10; i++)
+			running.add(login().execAsync("pause 1000", 10));
+		Thread.sleep(300);
+		assertEquals(0, executor.getActiveCount());
+		for (int i = 0; i < running.size(); i++) {
+			assertEquals("admin:", running.get(i).get(10, TimeUnit.SECONDS));
+			assertTrue(shells.get(i).getLastCommandOutput().contains(
+					"pause 1000: ok"));
+		}
+	}
+
+	@Test
+	public void testOutputBeyondTheBufferIsRead() throws Exception {
+		UnixShell shell = login();
+		shell.setOutputMemoryLimit(64 * 1024);
+		assertEquals("admin:", shell.exec("out 20000", 30));
+		try (Stream<CharSequence> lines = shell.getLastCommandLines()) {
+			assertEquals(20000, lines.filter(l -> l.length() == 78).count());
+		}
+		assertEquals("admin:", shell.exec("uptime", 10));
+		assertTrue(shell.getLastCommandOutput().contains("uptime: ok"));
+	}
+
+	@Test
+	public void testStreamedCommandsStillReadOnDemand() throws Exception {
+		UnixShell shell = login();
+		try (Stream<CharSequence> lines = shell.execLines("out 100", 10)) {
+			assertEquals(100, lines.count());
+		}
+		assertEquals("admin:", shell.exec("uptime", 10));
+	}
+}
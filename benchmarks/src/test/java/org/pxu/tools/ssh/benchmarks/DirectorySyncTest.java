@@ -0,0 +1,153 @@
+package org.pxu.tools.ssh.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import org.junit.Test;
+import org.pxu.tools.ssh.UnixShell;
+import org.pxu.tools.ssh.sync.DirectorySync;
+import org.pxu.tools.ssh.sync.SyncResult;
+
+import junit.framework.TestCase;
+
+public class DirectorySyncTest extends TestCase {
+
+	private EmbeddedSshServer server;
+	private Path local, remote;
+	private DirectorySync sync;
+
+	@Override
+	protected void setUp() throws Exception {
+		UnixShell.printEnable(false);
+		server = new EmbeddedSshServer();
+		remote = Files.createDirectory(server.getRoot().resolve("app"));
+		local = Files.createTempDirectory("sync");
+		// only sftp is used, no login needed
+		sync = new DirectorySync(new UnixShell(server.getHost(),
+				EmbeddedSshServer.USER, EmbeddedSshServer.PASSWORD));
+		sync.setDeleteExtras(true);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		server.close();
+		delete(local);
+	}
+
+	private static void delete(Path dir) throws IOException {
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path f, BasicFileAttributes attrs)
+					throws IOException {
+				Files.delete(f);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path d, IOException e)
+					throws IOException {
+				Files.delete(d);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private static void write(Path file, String content) throws IOException {
+		Files.createDirectories(file.getParent());
+		Files.write(file, content.getBytes("UTF-8"));
+	}
+
+	private static String read(Path file) throws IOException {
+		return new String(Files.readAllBytes(file), "UTF-8");
+	}
+
+	@Test
+	public void testExtrasAreDeleted() throws Exception {
+		write(local.resolve("conf/app.properties"), "a=1");
+		write(remote.resolve("conf/old.properties"), "a=0");
+		write(remote.resolve("logs/app.log"), "started");
+
+		SyncResult result = sync.sync(local, "/app");
+		assertEquals(Arrays.asList("conf/app.properties"),
+				result.getUploaded());
+		assertEquals(new TreeSet<String>(Arrays.asList("conf/old.properties",
+				"logs/app.log", "logs/")),
+				new TreeSet<String>(result.getDeleted()));
+		assertEquals("logs/", result.getDeleted().get(2)); // emptied first
+		assertTrue(result.getSkipped().isEmpty());
+		assertEquals("a=1", read(remote.resolve("conf/app.properties")));
+		assertFalse(Files.exists(remote.resolve("logs")));
+	}
+
+	@Test
+	public void testMissingRootIsCreated() throws Exception {
+		write(local.resolve("conf/app.properties"), "a=1");
+
+		SyncResult result = sync.sync(local, "/app/new");
+		assertEquals(Arrays.asList("conf/app.properties"),
+				result.getUploaded());
+		assertEquals("a=1", read(remote.resolve("new/conf/app.properties")));
+	}
+
+	@Test
+	public void testUnreadableDirectoryFailsWithItsOwnError()
+			throws Exception {
+		write(local.resolve("app.jar"), "jar");
+		Path secret = Files.createDirectory(remote.resolve("secret"));
+		Files.setPosixFilePermissions(secret, PosixFilePermissions
+				.fromString("---------"));
+		try {
+			if (Files.isReadable(secret))
+				return; // run as root, nothing is denied
+			sync.sync(local, "/app");
+			fail("Listed " + secret);
+		} catch (IOException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage()
+					.startsWith("List /app/secret failed"));
+		} finally {
+			Files.setPosixFilePermissions(secret, PosixFilePermissions
+					.fromString("rwx------"));
+		}
+	}
+
+	@Test
+	public void testSymlinksAreNotDeleted() throws Exception {
+		write(local.resolve("app.jar"), "jar");
+		write(server.getRoot().resolve("data/db.dat"), "db");
+		Files.createSymbolicLink(remote.resolve("current"),
+				remote.resolve("app.jar"));
+		Files.createSymbolicLink(remote.resolve("data"),
+				server.getRoot().resolve("data"));
+
+		SyncResult result = sync.sync(local, "/app");
+		assertEquals(Arrays.asList("app.jar"), result.getUploaded());
+		assertTrue(result.getDeleted().isEmpty());
+		assertEquals(Arrays.asList("current", "data"), result.getSkipped());
+		assertTrue(Files.isSymbolicLink(remote.resolve("current")));
+		assertTrue(Files.isSymbolicLink(remote.resolve("data")));
+		assertEquals("db", read(server.getRoot().resolve("data/db.dat")));
+	}
+
+	@Test
+	public void testOtherTypesAreSkipped() throws Exception {
+		write(local.resolve("run"), "local file");
+		write(remote.resolve("run/app.pid"), "42"); // a directory remotely
+		write(local.resolve("cache/index"), "local dir");
+		write(remote.resolve("cache"), "remote file");
+		write(local.resolve("app.jar"), "jar");
+
+		SyncResult result = sync.sync(local, "/app");
+		assertEquals(Arrays.asList("app.jar"), result.getUploaded());
+		assertTrue(result.getDeleted().isEmpty());
+		assertEquals(Arrays.asList("cache", "run/"), result.getSkipped());
+		assertEquals("42", read(remote.resolve("run/app.pid")));
+		assertEquals("remote file", read(remote.resolve("cache")));
+	}
+}
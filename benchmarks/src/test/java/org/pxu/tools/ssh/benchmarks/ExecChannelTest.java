@@ -0,0 +1,79 @@
+package org.pxu.tools.ssh.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+import org.pxu.tools.ssh.ExecResult;
+import org.pxu.tools.ssh.UnixShell;
+import org.pxu.tools.ssh.UnixShell.SSHLibraryProvider;
+import org.pxu.tools.ssh.sink.OutputSinks;
+
+import junit.framework.TestCase;
+
+public class ExecChannelTest extends TestCase {
+
+	private EmbeddedSshServer server;
+
+	@Override
+	protected void setUp() throws Exception {
+		UnixShell.printEnable(false);
+		server = new EmbeddedSshServer();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		server.close();
+	}
+
+	private void assertExec(SSHLibraryProvider provider) throws Exception {
+		UnixShell shell = new UnixShell(server.getHost(),
+				EmbeddedSshServer.USER, EmbeddedSshServer.PASSWORD);
+		shell.setOutputSink(OutputSinks.none());
+		shell.setCharset(StandardCharsets.ISO_8859_1);
+		shell.initSSHProvider(provider);
+		shell.login();
+		try {
+			ExecResult ok = shell.runCommand("uptime", 10);
+			assertEquals("uptime: ok\n", ok.getStdout());
+			assertEquals("", ok.getStderr());
+			assertEquals(0, ok.getExitCode());
+
+			ExecResult failed = shell.runCommand("fail 3", 10);
+			assertEquals("", failed.getStdout());
+			assertEquals("fail 3: failed\n", failed.getStderr());
+			assertEquals(3, failed.getExitCode());
+
+			try {
+				shell.runCommand("pause 5000", 1);
+				fail("No timeout");
+			} catch (TimeoutException expected) {
+			}
+			// decoded as the shell's charset, not the platform's
+			String latin1 = new String(FakeCommand.UMLAUTS
+					.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+			ExecResult umlauts = shell.runCommand("umlauts", 10);
+			assertEquals(latin1, umlauts.getStdout());
+			assertEquals(latin1, umlauts.getStderr());
+
+			assertEquals("admin:", shell.exec("uptime", 10)); // shell unharmed
+		} finally {
+			shell.logout();
+		}
+	}
+
+	@Test
+	public void testSSHTools() throws Exception {
+		assertExec(SSHLibraryProvider.SSHTOOLS);
+	}
+
+	@Test
+	public void testJSch() throws Exception {
+		assertExec(SSHLibraryProvider.JSCH);
+	}
+
+	@Test
+	public void testApache() throws Exception {
+		assertExec(SSHLibraryProvider.APACHE);
+	}
+}
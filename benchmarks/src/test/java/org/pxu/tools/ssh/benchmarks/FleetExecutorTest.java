@@ -0,0 +1,151 @@
+package org.pxu.tools.ssh.benchmarks;
+
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+import org.pxu.tools.ssh.ReachabilityProbe;
+import org.pxu.tools.ssh.UnixShell;
+import org.pxu.tools.ssh.UnixShell.SSHLibraryProvider;
+import org.pxu.tools.ssh.fleet.FleetExecutor;
+import org.pxu.tools.ssh.fleet.FleetResult;
+import org.pxu.tools.ssh.fleet.HostResult;
+import org.pxu.tools.ssh.fleet.HostResult.Status;
+import org.pxu.tools.ssh.fleet.HostTask;
+import org.pxu.tools.ssh.pool.UnixShellPool;
+import org.pxu.tools.ssh.sink.OutputSinks;
+
+import junit.framework.TestCase;
+
+public class FleetExecutorTest extends TestCase {
+
+	private static final UnixShellPool.Initializer QUIET = new UnixShellPool.Initializer() {
+		public void beforeLogin(UnixShell shell) {
+			shell.setOutputSink(OutputSinks.none());
+		}
+	};
+
+	private EmbeddedSshServer[] servers;
+	private List<String> hosts;
+	private FleetExecutor fleet;
+
+	@Override
+	protected void setUp() throws Exception {
+		UnixShell.printEnable(false);
+		servers = new EmbeddedSshServer[3];
+		String[] names = new String[servers.length];
+		for (int i = 0; i < servers.length; i++) {
+			servers[i] = new EmbeddedSshServer();
+			names[i] = servers[i].getHost();
+		}
+		hosts = Arrays.asList(names);
+		fleet = new FleetExecutor(EmbeddedSshServer.USER,
+				EmbeddedSshServer.PASSWORD);
+		fleet.setInitializer(QUIET);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (EmbeddedSshServer server : servers)
+			server.close();
+	}
+
+	private static HostResult<String> resultOf(FleetResult<String> result,
+			String host) {
+		for (HostResult<String> r : result.getResults())
+			if (r.getHost().equals(host))
+				return r;
+		throw new AssertionError("No result for " + host);
+	}
+
+	@Test
+	public void testCommandRunsOnEveryHost() throws Exception {
+		fleet.setParallelism(hosts.size());
+		FleetResult<String> result = fleet.exec(hosts, "uptime");
+		assertEquals(hosts.size(), result.getSuccessCount());
+		for (String host : hosts)
+			assertTrue(resultOf(result, host).getValue().contains("uptime: ok"));
+	}
+
+	@Test
+	public void testFailureIsPerHost() throws Exception {
+		final String broken = hosts.get(1);
+		FleetResult<String> result = fleet.run(hosts, new HostTask<String>() {
+			public String run(UnixShell shell) throws Exception {
+				if (shell.getHost().equals(broken))
+					throw new IllegalStateException("broken");
+				return shell.exec("uptime", 10);
+			}
+		}, null);
+		assertEquals(hosts.size() - 1, result.getSuccessCount());
+		assertEquals(1, result.getFailureCount());
+		assertEquals("broken", resultOf(result, broken).getError()
+				.getMessage());
+	}
+
+	@Test
+	public void testTimedOutShellIsNotReturnedToThePool() throws Exception {
+		String host = hosts.get(0);
+		UnixShellPool pool = new UnixShellPool();
+		pool.setInitializer(QUIET);
+		try {
+			// logged in already, so the second is spent in the task
+			pool.release(pool.borrow(host, EmbeddedSshServer.USER,
+					EmbeddedSshServer.PASSWORD, SSHLibraryProvider.JSCH));
+			fleet.setPool(pool);
+			fleet.setHostTimeout(1);
+			final AtomicBoolean ran = new AtomicBoolean();
+			FleetResult<String> result = fleet.run(Arrays.asList(host),
+					new HostTask<String>() {
+						public String run(UnixShell shell) {
+							ran.set(true);
+							// ends normally after the watchdog fired
+							long end = System.currentTimeMillis() + 2000;
+							while (System.currentTimeMillis() < end) {
+								try {
+									Thread.sleep(50);
+								} catch (InterruptedException ignore) {
+								}
+							}
+							return "late";
+						}
+					}, null);
+			assertEquals(1, result.getTimeoutCount());
+			assertTrue(ran.get());
+
+			// the worker gives the shell back once the task returns
+			long deadline = System.currentTimeMillis() + 5000;
+			while (pool.getTotalCount(host, EmbeddedSshServer.USER,
+					SSHLibraryProvider.JSCH) > 0
+					&& System.currentTimeMillis() < deadline)
+				Thread.sleep(50);
+			assertEquals(0, pool.getIdleCount(host, EmbeddedSshServer.USER,
+					SSHLibraryProvider.JSCH));
+			assertEquals(0, pool.getTotalCount(host, EmbeddedSshServer.USER,
+					SSHLibraryProvider.JSCH));
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testUnreachableHostsAreNotLoggedInto() throws Exception {
+		ServerSocket socket = new ServerSocket(0);
+		String dead = "127.0.0.1:" + socket.getLocalPort();
+		socket.close(); // nothing listens there now
+
+		ReachabilityProbe probe = new ReachabilityProbe();
+		probe.setConnectTimeout(500);
+		fleet.setProbe(probe);
+		FleetResult<String> result = fleet.exec(Arrays.asList(hosts.get(0),
+				dead), "uptime");
+		assertEquals(1, result.getSuccessCount());
+		HostResult<String> skipped = resultOf(result, dead);
+		assertEquals(Status.FAILURE, skipped.getStatus());
+		assertTrue(skipped.getError() instanceof ConnectException);
+		assertTrue(skipped.getError().getMessage().contains("does not answer"));
+	}
+}
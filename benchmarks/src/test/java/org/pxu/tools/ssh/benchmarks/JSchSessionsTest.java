@@ -0,0 +1,86 @@
+package org.pxu.tools.ssh.benchmarks;
+
+import org.junit.Test;
+import org.pxu.tools.ssh.UnixShell;
+import org.pxu.tools.ssh.UnixShell.SSHLibraryProvider;
+import org.pxu.tools.ssh.providers.JSchSessions;
+import org.pxu.tools.ssh.sink.OutputSinks;
+
+import junit.framework.TestCase;
+
+public class JSchSessionsTest extends TestCase {
+
+	private EmbeddedSshServer server;
+	private String host;
+
+	@Override
+	protected void setUp() throws Exception {
+		UnixShell.printEnable(false);
+		server = new EmbeddedSshServer();
+		host = server.getHost();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		JSchSessions.setMaxChannelsPerSession(10);
+		server.close();
+	}
+
+	private UnixShell login() throws Exception {
+		UnixShell shell = new UnixShell(host, EmbeddedSshServer.USER,
+				EmbeddedSshServer.PASSWORD);
+		shell.setOutputSink(OutputSinks.none());
+		shell.initSSHProvider(SSHLibraryProvider.JSCH);
+		shell.login();
+		return shell;
+	}
+
+	private int sessions() {
+		return JSchSessions.getSessionCount(host, EmbeddedSshServer.USER);
+	}
+
+	@Test
+	public void testShellsToOneHostShareASession() throws Exception {
+		UnixShell a = login(), b = login();
+		try {
+			assertEquals(1, sessions());
+			assertEquals("admin:", a.exec("uptime", 10));
+			assertEquals("admin:", b.exec("uptime", 10));
+		} finally {
+			a.logout();
+			b.logout();
+		}
+		assertEquals(0, sessions()); // gone with its last channel
+	}
+
+	@Test
+	public void testLeasesOfOneHostGetTheSameSession() throws Exception {
+		JSchSessions.Lease a = JSchSessions.acquire(host,
+				EmbeddedSshServer.USER, EmbeddedSshServer.PASSWORD);
+		JSchSessions.Lease b = JSchSessions.acquire(host,
+				EmbeddedSshServer.USER, EmbeddedSshServer.PASSWORD);
+		try {
+			assertSame(a.getSession(), b.getSession());
+		} finally {
+			a.close();
+			b.close();
+		}
+	}
+
+	@Test
+	public void testFullSessionGetsAnotherOneConnected() throws Exception {
+		JSchSessions.setMaxChannelsPerSession(1);
+		UnixShell a = login(), b = login();
+		try {
+			assertEquals(2, sessions());
+			assertEquals("admin:", a.exec("uptime", 10));
+			assertEquals("admin:", b.exec("uptime", 10));
+			a.logout();
+			assertEquals(1, sessions());
+		} finally {
+			a.logout();
+			b.logout();
+		}
+		assertEquals(0, sessions());
+	}
+}
@@ -0,0 +1,128 @@
+package org.pxu.tools.ssh.benchmarks;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.pxu.tools.ssh.TransferListener;
+import org.pxu.tools.ssh.UnixShell;
+import org.pxu.tools.ssh.providers.JSchFileTransfer;
+
+import junit.framework.TestCase;
+
+public class ParallelDownloadTest extends TestCase {
+
+	private static final int CHUNK = 16 * 1024;
+
+	private EmbeddedSshServer server;
+	private JSchFileTransfer transfer;
+	private byte[] data;
+	private Path local;
+
+	@Override
+	protected void setUp() throws Exception {
+		UnixShell.printEnable(false);
+		server = new EmbeddedSshServer();
+		data = new byte[10 * CHUNK + 123];
+		new Random(42).nextBytes(data);
+		Files.write(server.getRoot().resolve("core.bin"), data);
+		local = Files.createTempFile("download", ".bin");
+		Files.delete(local);
+		transfer = new JSchFileTransfer(server.getHost(),
+				EmbeddedSshServer.USER, EmbeddedSshServer.PASSWORD);
+		transfer.setChunkSize(CHUNK);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		transfer.close();
+		server.close();
+		Files.deleteIfExists(local);
+		Files.deleteIfExists(parts());
+	}
+
+	private Path parts() {
+		return local.resolveSibling(local.getFileName() + ".parts");
+	}
+
+	@Test
+	public void testDownloadIsComplete() throws Exception {
+		transfer.setParallelism(4);
+		transfer.download("/core.bin", local, null);
+		assertTrue(Arrays.equals(data, Files.readAllBytes(local)));
+		assertFalse(Files.exists(parts()));
+	}
+
+	/**
+	 * Kills a download after its first two ranges
+	 */
+	private void kill() throws Exception {
+		transfer.setParallelism(1); // ranges in order
+		try {
+			transfer.download("/core.bin", local, new TransferListener() {
+				public void progress(String remotePath, long bytes,
+						long totalBytes, double bytesPerSecond) {
+					if (bytes > 2 * CHUNK + CHUNK / 2)
+						throw new IllegalStateException("killed");
+					try {
+						Thread.sleep(250); // every read is reported
+					} catch (InterruptedException ignore) {
+					}
+				}
+			});
+			fail("Not killed");
+		} catch (IllegalStateException expected) {
+		}
+		assertTrue(Files.exists(parts()));
+	}
+
+	/**
+	 * @return Bytes done at the first progress report
+	 */
+	private long resume() throws Exception {
+		final long[] first = { -1 };
+		transfer.setParallelism(3);
+		transfer.download("/core.bin", local, new TransferListener() {
+			public void progress(String remotePath, long bytes,
+					long totalBytes, double bytesPerSecond) {
+				if (first[0] == -1)
+					first[0] = bytes;
+			}
+		});
+		assertTrue(Arrays.equals(data, Files.readAllBytes(local)));
+		assertFalse(Files.exists(parts()));
+		return first[0];
+	}
+
+	@Test
+	public void testKilledDownloadResumesWithTheMissingRanges()
+			throws Exception {
+		kill();
+		long first = resume();
+		// the two finished ranges were not fetched again
+		assertTrue("first report " + first, first > 2 * CHUNK);
+	}
+
+	@Test
+	public void testDownloadStartsOverWithoutThePartialFile()
+			throws Exception {
+		kill();
+		Files.delete(local);
+		long first = resume();
+		assertTrue("first report " + first, first <= CHUNK);
+	}
+
+	@Test
+	public void testDownloadStartsOverWithATruncatedPartialFile()
+			throws Exception {
+		kill();
+		FileChannel.open(local, StandardOpenOption.WRITE).truncate(CHUNK)
+				.close();
+		long first = resume();
+		assertTrue("first report " + first, first <= CHUNK);
+	}
+}
@@ -0,0 +1,86 @@
+package org.pxu.tools.ssh.benchmarks;
+
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+import org.pxu.tools.ssh.UnixShell;
+import org.pxu.tools.ssh.UnixShell.SSHLibraryProvider;
+import org.pxu.tools.ssh.pool.UnixShellPool;
+import org.pxu.tools.ssh.sink.OutputSinks;
+
+import junit.framework.TestCase;
+
+public class UnixShellPoolTest extends TestCase {
+
+	private static final SSHLibraryProvider JSCH = SSHLibraryProvider.JSCH;
+
+	private EmbeddedSshServer server;
+	private UnixShellPool pool;
+	private String host;
+
+	@Override
+	protected void setUp() throws Exception {
+		UnixShell.printEnable(false);
+		server = new EmbeddedSshServer();
+		host = server.getHost();
+		pool = new UnixShellPool();
+		pool.setInitializer(new UnixShellPool.Initializer() {
+			public void beforeLogin(UnixShell shell) {
+				shell.setOutputSink(OutputSinks.none());
+			}
+		});
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		pool.close();
+		server.close();
+	}
+
+	private UnixShell borrow(String password) throws Exception {
+		return pool.borrow(host, EmbeddedSshServer.USER, password, JSCH);
+	}
+
+	@Test
+	public void testReleasedShellIsReused() throws Exception {
+		UnixShell shell = borrow(EmbeddedSshServer.PASSWORD);
+		assertEquals("admin:", shell.exec("uptime", 10));
+		pool.release(shell);
+		assertEquals(1, pool.getIdleCount(host, EmbeddedSshServer.USER, JSCH));
+
+		assertSame(shell, borrow(EmbeddedSshServer.PASSWORD));
+		assertEquals(0, pool.getIdleCount(host, EmbeddedSshServer.USER, JSCH));
+		assertEquals(1, pool.getTotalCount(host, EmbeddedSshServer.USER, JSCH));
+		pool.invalidate(shell);
+		assertEquals(0, pool.getTotalCount(host, EmbeddedSshServer.USER, JSCH));
+	}
+
+	@Test
+	public void testWrongPasswordIsNotGivenAPooledShell() throws Exception {
+		pool.release(borrow(EmbeddedSshServer.PASSWORD));
+		try {
+			UnixShell stolen = borrow("wrong");
+			fail("Got " + stolen + " with a wrong password");
+		} catch (Exception expected) {
+			// logs in for itself and fails
+		}
+		assertEquals(1, pool.getIdleCount(host, EmbeddedSshServer.USER, JSCH));
+		assertEquals(1, pool.getTotalCount(host, EmbeddedSshServer.USER, JSCH));
+	}
+
+	@Test
+	public void testBorrowWaitsAtMaxPerKey() throws Exception {
+		pool.setMaxPerKey(1);
+		pool.setBorrowTimeout(300);
+		UnixShell shell = borrow(EmbeddedSshServer.PASSWORD);
+		long start = System.currentTimeMillis();
+		try {
+			borrow(EmbeddedSshServer.PASSWORD);
+			fail();
+		} catch (TimeoutException expected) {
+			assertTrue(System.currentTimeMillis() - start >= 250);
+		}
+		pool.release(shell);
+		assertSame(shell, borrow(EmbeddedSshServer.PASSWORD));
+	}
+}
@@ -0,0 +1,225 @@
+package org.pxu.tools.ssh;
+
+import java.io.BufferedWriter;
+import java.io.CharArrayReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import org.pxu.tools.ssh.parse.Lines;
+
+/**
+ * Output captured for one command.
+ *
+ * Up to a configurable number of chars is kept on the heap. Anything beyond
+ * goes to a temp file, so a <code>find /</code> costs disk instead of memory.
+ * Read the result through {@link #openReader()}; {@link #toString()} copies
+ * everything into one String and should be kept for small outputs.
+ *
+ * A capture belongs to its shell and is released when the next command runs
+ * or the shell logs out. Reading it after that throws
+ * IllegalStateException.
+ */
+public class CommandOutput implements Closeable {
+
+	private static final Charset SPILL_CHARSET = Charset.forName("UTF-8");
+
+	private final int memoryLimit;
+	private char[] memory = new char[256];
+	private int memoryLength;
+
+	private File spillFile;
+	private Writer spill;
+
+	private long length; // chars appended
+	private boolean closed;
+	private int start; // chars hidden from readers, e.g. the command echo
+
+	/**
+	 * @param memoryLimit
+	 *            - Number of chars kept on the heap before spilling to disk
+	 */
+	public CommandOutput(int memoryLimit) {
+		this.memoryLimit = memoryLimit;
+	}
+
+	/**
+	 * Appends server output
+	 *
+	 * @throws IOException
+	 *             if the temp file cannot be written
+	 */
+	public synchronized void append(char[] chunk, int offset, int count)
+			throws IOException {
+		checkOpen();
+		int inMemory = Math.min(count, memoryLimit - memoryLength);
+		if (inMemory > 0) {
+			if (memoryLength + inMemory > memory.length)
+				memory = Arrays.copyOf(memory, (int) Math.min(memoryLimit,
+						Math.max(memory.length * 2L, memoryLength + inMemory)));
+			System.arraycopy(chunk, offset, memory, memoryLength, inMemory);
+			memoryLength += inMemory;
+		}
+		if (inMemory < count) {
+			if (spill == null) {
+				spillFile = File.createTempFile("shell-output", ".txt");
+				spill = new BufferedWriter(new OutputStreamWriter(
+						new FileOutputStream(spillFile), SPILL_CHARSET));
+			}
+			int skip = Math.max(inMemory, 0);
+			spill.write(chunk, offset + skip, count - skip);
+		}
+		length += count;
+	}
+
+	/**
+	 * Hides the first chars from readers
+	 */
+	synchronized void skip(int chars) {
+		this.start = Math.min(chars, memoryLength);
+	}
+
+	/**
+	 * @return True if the output starts with prefix
+	 */
+	synchronized boolean startsWith(String prefix) {
+		if (prefix.length() > memoryLength)
+			return false;
+		for (int i = 0; i < prefix.length(); i++)
+			if (memory[i] != prefix.charAt(i))
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return Number of chars of output
+	 */
+	public synchronized long length() {
+		return length - start;
+	}
+
+	/**
+	 * @return True if part of the output was written to disk
+	 */
+	public synchronized boolean isSpilled() {
+		return spillFile != null;
+	}
+
+	/**
+	 * Opens a reader over the output. The reader sees what has been captured
+	 * so far.
+	 *
+	 * @return A new reader, to be closed by the caller
+	 * @throws IOException
+	 * @throws IllegalStateException
+	 *             if the output was closed
+	 */
+	public synchronized Reader openReader() throws IOException {
+		checkOpen();
+		Reader head = new CharArrayReader(memory, start, memoryLength - start);
+		if (spill == null)
+			return head;
+		spill.flush();
+		final Reader tail = new InputStreamReader(new FileInputStream(
+				spillFile), SPILL_CHARSET);
+		return new SequenceReader(head, tail);
+	}
+
+	/**
+	 * Reads the output line by line as the stream is consumed, without
+	 * copying it into one String. The text after the last line break,
+	 * normally the prompt, is left out. Close the stream when done.
+	 *
+	 * @see org.pxu.tools.ssh.parse.RecordParser
+	 */
+	public Stream<CharSequence> lines() throws IOException {
+		return Lines.of(openReader(), true);
+	}
+
+	/**
+	 * Copies the whole output into one String.
+	 */
+	@Override
+	public String toString() {
+		try {
+			Reader reader = openReader();
+			try {
+				StringBuilder sb = new StringBuilder((int) Math.min(length(),
+						Integer.MAX_VALUE));
+				char[] buf = new char[8192];
+				int n;
+				while ((n = reader.read(buf)) != -1)
+					sb.append(buf, 0, n);
+				return sb.toString();
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Captured output lost: "
+					+ e.getMessage(), e);
+		}
+	}
+
+	private void checkOpen() {
+		if (closed)
+			throw new IllegalStateException(
+					"Output was released by a later command or logout");
+	}
+
+	/**
+	 * Deletes the temp file, if any
+	 */
+	public synchronized void close() {
+		closed = true;
+		if (spill != null) {
+			try {
+				spill.close();
+			} catch (IOException ignore) {
+			}
+			spill = null;
+		}
+		if (spillFile != null) {
+			spillFile.delete();
+			spillFile = null;
+		}
+	}
+
+	/**
+	 * Reads one reader after the other
+	 */
+	private static class SequenceReader extends Reader {
+		private final Reader first, second;
+		private boolean firstDone;
+
+		SequenceReader(Reader first, Reader second) {
+			this.first = first;
+			this.second = second;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			if (!firstDone) {
+				int n = first.read(cbuf, off, len);
+				if (n != -1)
+					return n;
+				firstDone = true;
+			}
+			return second.read(cbuf, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			first.close();
+			second.close();
+		}
+	}
+}
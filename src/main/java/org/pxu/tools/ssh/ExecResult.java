@@ -0,0 +1,58 @@
+package org.pxu.tools.ssh;
+
+/**
+ * Outcome of a command run on an exec channel: what it printed on stdout and
+ * stderr, and the exit code reported by the server.
+ */
+public class ExecResult {
+
+	private final String command;
+	private final String stdout, stderr;
+	private final int exitCode;
+
+	/**
+	 * @param command
+	 *            - The command line that was run
+	 * @param stdout
+	 *            - Standard output
+	 * @param stderr
+	 *            - Standard error
+	 * @param exitCode
+	 *            - Exit status, -1 if the server sent none (e.g. killed by a
+	 *            signal)
+	 */
+	public ExecResult(String command, String stdout, String stderr, int exitCode) {
+		this.command = command;
+		this.stdout = stdout;
+		this.stderr = stderr;
+		this.exitCode = exitCode;
+	}
+
+	public String getCommand() {
+		return command;
+	}
+
+	public String getStdout() {
+		return stdout;
+	}
+
+	public String getStderr() {
+		return stderr;
+	}
+
+	public int getExitCode() {
+		return exitCode;
+	}
+
+	/**
+	 * @return True if the command exited with status 0
+	 */
+	public boolean isSuccess() {
+		return exitCode == 0;
+	}
+
+	@Override
+	public String toString() {
+		return "'" + command + "' exited with " + exitCode;
+	}
+}
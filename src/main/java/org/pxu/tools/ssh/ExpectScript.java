@@ -0,0 +1,314 @@
+package org.pxu.tools.ssh;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An expect conversation defined once and compiled into a state machine.
+ *
+ * Each state waits for any of its expectations. The one found first sends
+ * its input and moves to its next state, or ends the conversation. The
+ * command prompt ends it in every state. The patterns of a state are
+ * compiled into one {@link MultiPatternMatcher} once, when the script is
+ * built or, if it takes the prompt of the shell, on the first run with that
+ * prompt. A script is immutable and can be run by any number of shells at
+ * the same time.
+ *
+ * <pre>
+ * ExpectScript passwd = ExpectScript.builder()
+ * 		.expect(&quot;Current password:&quot;, oldPassword)
+ * 		.expect(&quot;New password:&quot;, newPassword, &quot;retype&quot;)
+ * 		.state(&quot;retype&quot;)
+ * 		.expect(&quot;Retype new password:&quot;, newPassword)
+ * 		.expectEnd(&quot;BAD PASSWORD&quot;, false)
+ * 		.build();
+ * for (UnixShell shell : shells)
+ * 	shell.exec(&quot;passwd&quot;, passwd);
+ * </pre>
+ *
+ * Unlike inputs recorded with {@link UnixShell#recordInput}, an expectation
+ * is not used up when it fires: staying in a state answers a prompt as often
+ * as it comes, e.g. a pager's --More--. {@link Builder#maxSteps(int)} stops
+ * a conversation that goes round in circles.
+ */
+public final class ExpectScript {
+
+	private final State[] states; // states[0] is the initial state
+	private final int timeout;
+	private final String prompt; // null for the prompt of the shell
+	private final int maxSteps;
+
+	private ExpectScript(Builder b, State[] states) {
+		this.states = states;
+		this.timeout = b.timeout;
+		this.prompt = b.prompt;
+		this.maxSteps = b.maxSteps;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	State initialState() {
+		return states[0];
+	}
+
+	State state(int index) {
+		return states[index];
+	}
+
+	/**
+	 * @return Seconds to wait for the reply to the command
+	 */
+	int getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * @return Prompt regular expression ending the conversation, the shell
+	 *         prompt if null
+	 */
+	String getPrompt() {
+		return prompt;
+	}
+
+	int getMaxSteps() {
+		return maxSteps;
+	}
+
+	/**
+	 * One expectation and what to do when it is found
+	 */
+	static final class Transition {
+		final String expect;
+		final boolean regExp;
+		final String send; // null ends the conversation
+		final int timeout;
+		final int next; // index of the next state
+
+		Transition(String expect, boolean regExp, String send, int timeout,
+				int next) {
+			this.expect = expect;
+			this.regExp = regExp;
+			this.send = send;
+			this.timeout = timeout;
+			this.next = next;
+		}
+
+		boolean isEnd() {
+			return send == null;
+		}
+
+		@Override
+		public String toString() {
+			return expect;
+		}
+	}
+
+	/**
+	 * Expectations waited for together, compiled with each prompt they are
+	 * run with
+	 */
+	static final class State {
+		final String name;
+		private final List<Transition> transitions;
+		private final Map<String, MultiPatternMatcher<Transition>> byPrompt = new ConcurrentHashMap<String, MultiPatternMatcher<Transition>>();
+
+		State(String name, List<Transition> transitions) {
+			this.name = name;
+			this.transitions = Collections
+					.unmodifiableList(new ArrayList<Transition>(transitions));
+		}
+
+		/**
+		 * @param prompt
+		 *            - Regular expression ending the conversation
+		 * @return The matcher of this state plus prompt, compiled once per
+		 *         prompt
+		 */
+		MultiPatternMatcher<Transition> matcher(String prompt) {
+			MultiPatternMatcher<Transition> m = byPrompt.get(prompt);
+			if (m == null) {
+				m = compile(prompt);
+				MultiPatternMatcher<Transition> raced = byPrompt.putIfAbsent(
+						prompt, m);
+				if (raced != null)
+					m = raced;
+			}
+			return m;
+		}
+
+		private MultiPatternMatcher<Transition> compile(String prompt) {
+			MultiPatternMatcher.Builder<Transition> b = MultiPatternMatcher
+					.builder();
+			for (Transition t : transitions)
+				b.add(t, t.expect, t.regExp);
+			// added last, loses ties
+			b.add(new Transition(prompt, true, null, 0, -1), prompt, true);
+			return b.build();
+		}
+
+		List<Transition> getTransitions() {
+			return transitions;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * Collects the states of a script. Not thread safe.
+	 */
+	public static final class Builder {
+		private int timeout = 30;
+		private String prompt;
+		private int maxSteps = 1000;
+
+		private final Map<String, List<Step>> states = new LinkedHashMap<String, List<Step>>();
+		private List<Step> current;
+
+		private Builder() {
+			state("start");
+		}
+
+		/**
+		 * Seconds to wait for each reply unless an expectation says otherwise.
+		 * Default 30.
+		 */
+		public Builder timeout(int seconds) {
+			this.timeout = seconds;
+			return this;
+		}
+
+		/**
+		 * Regular expression of the prompt ending the conversation. Default
+		 * is the prompt of the shell running the script.
+		 */
+		public Builder prompt(String regex) {
+			this.prompt = regex;
+			return this;
+		}
+
+		/**
+		 * Replies sent to expectations, the command not counted, before the
+		 * conversation fails when one more is asked for. Default 1000.
+		 */
+		public Builder maxSteps(int steps) {
+			this.maxSteps = steps;
+			return this;
+		}
+
+		/**
+		 * Starts a state. Expectations added next belong to it. Until the
+		 * first call they belong to the initial state, "start".
+		 */
+		public Builder state(String name) {
+			current = states.get(name);
+			if (current == null)
+				states.put(name, current = new ArrayList<Step>());
+			return this;
+		}
+
+		/**
+		 * Sends input when expect is found and stays in the state
+		 */
+		public Builder expect(String expect, String send) {
+			return expect(expect, false, send, null, null);
+		}
+
+		/**
+		 * Sends input when expect is found and moves to nextState
+		 */
+		public Builder expect(String expect, String send, String nextState) {
+			return expect(expect, false, send, null, nextState);
+		}
+
+		/**
+		 * @param expect
+		 *            - The string that is expected in the server output
+		 * @param isRegExp
+		 *            - If true expect is a regular expression (multiline)
+		 * @param send
+		 *            - Input sent when expect is found
+		 * @param timeout
+		 *            - Seconds to wait for the reply to send, null for the
+		 *            script timeout
+		 * @param nextState
+		 *            - State to move to, null to stay
+		 */
+		public Builder expect(String expect, boolean isRegExp, String send,
+				Integer timeout, String nextState) {
+			if (send == null)
+				throw new IllegalArgumentException(
+						"send must not be null, use expectEnd");
+			current.add(new Step(expect, isRegExp, send, timeout, nextState));
+			return this;
+		}
+
+		/**
+		 * Ends the conversation when expect is found, like the prompt
+		 */
+		public Builder expectEnd(String expect, boolean isRegExp) {
+			current.add(new Step(expect, isRegExp, null, null, null));
+			return this;
+		}
+
+		/**
+		 * Compiles the script
+		 *
+		 * @throws IllegalArgumentException
+		 *             if an expectation moves to a state that was never
+		 *             started
+		 * @throws java.util.regex.PatternSyntaxException
+		 *             if a regular expression is invalid
+		 */
+		public ExpectScript build() {
+			Map<String, Integer> index = new HashMap<String, Integer>();
+			for (String name : states.keySet())
+				index.put(name, index.size());
+
+			State[] compiled = new State[states.size()];
+			int i = 0;
+			for (Map.Entry<String, List<Step>> e : states.entrySet()) {
+				List<Transition> transitions = new ArrayList<Transition>();
+				for (Step t : e.getValue()) {
+					Integer next = (t.nextState == null) ? Integer.valueOf(i)
+							: index.get(t.nextState);
+					if (next == null)
+						throw new IllegalArgumentException("No state "
+								+ t.nextState + " for expect " + t.expect);
+					transitions.add(new Transition(t.expect, t.regExp, t.send,
+							(t.timeout == null) ? timeout : t.timeout, next));
+				}
+				compiled[i++] = new State(e.getKey(), transitions);
+			}
+			ExpectScript script = new ExpectScript(this, compiled);
+			if (prompt != null) // compile now, not on the first run
+				for (State s : compiled)
+					s.matcher(prompt);
+			return script;
+		}
+
+		private static final class Step {
+			final String expect, send, nextState;
+			final boolean regExp;
+			final Integer timeout;
+
+			Step(String expect, boolean regExp, String send, Integer timeout,
+					String nextState) {
+				this.expect = expect;
+				this.regExp = regExp;
+				this.send = send;
+				this.timeout = timeout;
+				this.nextState = nextState;
+			}
+		}
+	}
+}
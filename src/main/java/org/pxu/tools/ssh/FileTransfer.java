@@ -0,0 +1,138 @@
+package org.pxu.tools.ssh;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Copies files to and from a host. Content is streamed, never loaded whole onto the
+ * heap. Close the transfer to release its channel.
+ * 
+ * @see UnixShell#openFileTransfer()
+ */
+public interface FileTransfer extends Closeable {
+
+	/**
+	 * Writes a stream to a remote file, replacing it if it exists. The stream
+	 * is read to its end but not closed.
+	 * 
+	 * @param in
+	 *            - Content to upload
+	 * @param size
+	 *            - Number of bytes in the stream for progress, -1 if not known
+	 * @param remotePath
+	 *            - Remote file
+	 * @param listener
+	 *            - Told about progress, may be null
+	 * @throws IOException
+	 *             if the transfer failed
+	 */
+	void upload(InputStream in, long size, String remotePath,
+			TransferListener listener) throws IOException;
+
+	/**
+	 * Uploads a local file
+	 */
+	default void upload(Path local, String remotePath, TransferListener listener)
+			throws IOException {
+		InputStream in = Files.newInputStream(local);
+		try {
+			upload(in, Files.size(local), remotePath, listener);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Uploads from the current position of a channel to its end. The channel
+	 * is left open.
+	 */
+	default void upload(FileChannel channel, String remotePath,
+			TransferListener listener) throws IOException {
+		upload(Channels.newInputStream(channel), channel.size()
+				- channel.position(), remotePath, listener);
+	}
+
+	/**
+	 * Uploads several local files into one remote folder, keeping their names
+	 * 
+	 * @param files
+	 *            - Local files
+	 * @param remoteFolder
+	 *            - Existing remote folder
+	 * @param listener
+	 *            - Told about progress of each file, may be null
+	 */
+	default void upload(Collection<Path> files, String remoteFolder,
+			TransferListener listener) throws IOException {
+		for (Path file : files)
+			upload(file, remoteFolder + "/" + file.getFileName(), listener);
+	}
+
+	/**
+	 * Copies a remote file to a local one, replacing it. If an earlier
+	 * download of the same remote file to the same place was interrupted, only
+	 * the missing parts are fetched.
+	 * 
+	 * @param remotePath
+	 *            - Remote file
+	 * @param local
+	 *            - Local file
+	 * @param listener
+	 *            - Told about progress, may be null
+	 * @throws IOException
+	 *             if the transfer failed; it can be resumed by calling again
+	 */
+	void download(String remotePath, Path local, TransferListener listener)
+			throws IOException;
+
+	/**
+	 * Lists a remote directory, without "." and ".."
+	 * 
+	 * @throws IOException
+	 *             if the directory cannot be read, e.g. does not exist
+	 */
+	List<RemoteFile> list(String remoteDir) throws IOException;
+
+	/**
+	 * @return False if nothing exists at remotePath
+	 * @throws IOException
+	 *             if it cannot be told, e.g. permission denied
+	 */
+	boolean exists(String remotePath) throws IOException;
+
+	/**
+	 * Creates a remote directory; its parent must exist
+	 */
+	void mkdir(String remoteDir) throws IOException;
+
+	/**
+	 * Deletes a remote file
+	 */
+	void delete(String remotePath) throws IOException;
+
+	/**
+	 * Deletes an empty remote directory
+	 */
+	void rmdir(String remoteDir) throws IOException;
+
+	/**
+	 * Sets the modification time of a remote file
+	 * 
+	 * @param seconds
+	 *            - Seconds since the epoch
+	 */
+	void setModifiedTime(String remotePath, long seconds) throws IOException;
+
+	/**
+	 * Releases the channel. The SSH session stays up while other channels use
+	 * it.
+	 */
+	void close();
+}
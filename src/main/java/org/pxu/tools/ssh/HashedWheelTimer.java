@@ -0,0 +1,226 @@
+package org.pxu.tools.ssh;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Deadlines of all shells on one thread.
+ *
+ * Timeouts are hashed by their deadline into the buckets of a wheel that
+ * advances one bucket per tick, so scheduling and cancelling take constant
+ * time however many commands are in flight, and a timeout that is cancelled
+ * before it fires, the usual case, costs no more than a queue entry. A
+ * timeout fires within one tick after its deadline. Tasks run on the timer
+ * thread and must return at once.
+ *
+ * <pre>
+ * Timeout t = HashedWheelTimer.shared().schedule(task, 30, TimeUnit.SECONDS);
+ * ...
+ * t.cancel();
+ * </pre>
+ */
+public final class HashedWheelTimer {
+
+	/**
+	 * A scheduled task
+	 */
+	public interface Timeout {
+		/**
+		 * @return False if the task already ran or was cancelled
+		 */
+		boolean cancel();
+
+		boolean isExpired();
+	}
+
+	private static final int MAX_ADDS_PER_TICK = 100000;
+
+	private static HashedWheelTimer shared;
+
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final String name;
+
+	private final Queue<Entry> added = new ConcurrentLinkedQueue<Entry>();
+	private final Queue<Entry> cancelled = new ConcurrentLinkedQueue<Entry>();
+
+	private long startNanos;
+	private Thread worker; // guarded by this
+
+	/**
+	 * @param tick
+	 *            - Time the wheel takes to move by one bucket, the precision
+	 *            of the timer
+	 * @param wheelSize
+	 *            - Number of buckets, rounded up to a power of two
+	 */
+	HashedWheelTimer(long tick, TimeUnit unit, int wheelSize, String name) {
+		this.tickNanos = unit.toNanos(tick);
+		int size = Integer.highestOneBit(Math.max(wheelSize, 1) - 1) << 1;
+		this.wheel = new Bucket[Math.max(size, 1)];
+		for (int i = 0; i < wheel.length; i++)
+			wheel[i] = new Bucket();
+		this.mask = wheel.length - 1;
+		this.name = name;
+	}
+
+	/**
+	 * @return The timer of all command deadlines; 20 ms ticks and a 1024
+	 *         bucket wheel, about 20 seconds per turn
+	 */
+	public static synchronized HashedWheelTimer shared() {
+		if (shared == null)
+			shared = new HashedWheelTimer(20, TimeUnit.MILLISECONDS, 1024,
+					"HashedWheelTimer");
+		return shared;
+	}
+
+	/**
+	 * Runs task once delay has passed
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		start();
+		Entry e = new Entry(task, System.nanoTime() + unit.toNanos(delay)
+				- startNanos);
+		added.add(e);
+		return e;
+	}
+
+	private synchronized void start() {
+		if (worker != null)
+			return;
+		startNanos = System.nanoTime();
+		worker = new Thread(new Runnable() {
+			public void run() {
+				turn();
+			}
+		}, name);
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	private void turn() {
+		long tick = 0;
+		while (true) {
+			long deadline = (tick + 1) * tickNanos;
+			long sleep = deadline - (System.nanoTime() - startNanos);
+			if (sleep > 0)
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleep);
+					continue; // check the time again after waking up
+				} catch (InterruptedException ignore) {
+					continue;
+				}
+			removeCancelled();
+			transferAdded(tick);
+			wheel[(int) (tick & mask)].expire(deadline);
+			tick++;
+		}
+	}
+
+	private void removeCancelled() {
+		Entry e;
+		while ((e = cancelled.poll()) != null)
+			if (e.bucket != null)
+				e.bucket.remove(e);
+	}
+
+	private void transferAdded(long tick) {
+		for (int i = 0; i < MAX_ADDS_PER_TICK; i++) {
+			Entry e = added.poll();
+			if (e == null)
+				return;
+			if (e.state.get() != Entry.PENDING)
+				continue; // cancelled before it was placed
+			long due = e.deadline / tickNanos; // tick the deadline falls in
+			e.rounds = (due - tick) / wheel.length;
+			wheel[(int) (Math.max(due, tick) & mask)].add(e); // late: now
+		}
+	}
+
+	/**
+	 * Entries hashed to one slot of the wheel, touched by the timer thread
+	 * only
+	 */
+	private static final class Bucket {
+		private Entry head, tail;
+
+		void add(Entry e) {
+			e.bucket = this;
+			if (head == null)
+				head = tail = e;
+			else {
+				tail.next = e;
+				e.prev = tail;
+				tail = e;
+			}
+		}
+
+		void expire(long deadline) {
+			Entry e = head;
+			while (e != null) {
+				Entry next = e.next;
+				if (e.rounds <= 0 && e.deadline <= deadline) {
+					remove(e);
+					e.expire();
+				} else if (e.rounds > 0)
+					e.rounds--;
+				e = next;
+			}
+		}
+
+		void remove(Entry e) {
+			if (e.prev != null)
+				e.prev.next = e.next;
+			else
+				head = e.next;
+			if (e.next != null)
+				e.next.prev = e.prev;
+			else
+				tail = e.prev;
+			e.prev = e.next = null;
+			e.bucket = null;
+		}
+	}
+
+	private final class Entry implements Timeout {
+		static final int PENDING = 0, CANCELLED = 1, EXPIRED = 2;
+
+		final Runnable task;
+		final long deadline; // nanos after the start of the timer
+		final AtomicInteger state = new AtomicInteger(PENDING);
+
+		long rounds; // turns of the wheel left before the deadline
+		Entry prev, next;
+		Bucket bucket;
+
+		Entry(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		public boolean cancel() {
+			if (!state.compareAndSet(PENDING, CANCELLED))
+				return false;
+			cancelled.add(this);
+			return true;
+		}
+
+		public boolean isExpired() {
+			return state.get() == EXPIRED;
+		}
+
+		void expire() {
+			if (!state.compareAndSet(PENDING, EXPIRED))
+				return;
+			try {
+				task.run();
+			} catch (Throwable t) {
+				t.printStackTrace();
+			}
+		}
+	}
+}
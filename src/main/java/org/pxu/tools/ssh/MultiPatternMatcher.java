@@ -0,0 +1,278 @@
+package org.pxu.tools.ssh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.pxu.tools.ssh.PatternAutomaton.TooManyStates;
+import org.pxu.tools.ssh.PatternAutomaton.UnsupportedSyntax;
+
+/**
+ * Matches a set of expectations against shell output in a single pass.
+ *
+ * Plain strings and regular expressions are compiled together into one
+ * deterministic automaton (see {@link PatternAutomaton}). Every char of output
+ * is looked at once whatever the number of expectations, and the automaton
+ * state is carried from chunk to chunk so a match split across two reads is
+ * still found. Regular expressions using features outside the supported
+ * subset are scanned with java.util.regex over a sliding window instead.
+ *
+ * A compiled matcher is immutable and can be shared. The per-stream state
+ * lives in a {@link Scanner}.
+ *
+ * @param <K>
+ *            Key reported when an expectation fires
+ */
+public final class MultiPatternMatcher<K> {
+
+	private static final int MAX_STATES = 10000;
+
+	private final List<K> keys;
+
+	private final PatternAutomaton automaton;
+
+	private final Pattern[] fallback; // outside the automaton's subset
+	private final int[] fallbackKeys;
+
+	private MultiPatternMatcher(Builder<K> b) {
+		this.keys = new ArrayList<K>(b.keys);
+
+		List<PatternAutomaton.Node> nodes = new ArrayList<PatternAutomaton.Node>();
+		List<Integer> tags = new ArrayList<Integer>();
+		List<Integer> regexes = new ArrayList<Integer>();
+		for (int i = 0; i < b.expects.size(); i++) {
+			if (!b.regExp.get(i)) {
+				nodes.add(PatternAutomaton.literal(b.expects.get(i)));
+				tags.add(i);
+				continue;
+			}
+			try {
+				nodes.add(PatternAutomaton.parse(b.expects.get(i)));
+				tags.add(i);
+			} catch (UnsupportedSyntax e) {
+				regexes.add(i);
+			}
+		}
+
+		PatternAutomaton dfa;
+		try {
+			dfa = new PatternAutomaton(nodes, tags, MAX_STATES);
+		} catch (TooManyStates e) {
+			// Keep the plain strings in the automaton, scan the rest one by one
+			nodes.clear();
+			tags.clear();
+			regexes.clear();
+			for (int i = 0; i < b.expects.size(); i++) {
+				if (b.regExp.get(i))
+					regexes.add(i);
+				else {
+					nodes.add(PatternAutomaton.literal(b.expects.get(i)));
+					tags.add(i);
+				}
+			}
+			try {
+				dfa = new PatternAutomaton(nodes, tags, Integer.MAX_VALUE);
+			} catch (TooManyStates notPossible) {
+				throw new IllegalStateException(notPossible);
+			}
+		}
+		this.automaton = dfa;
+
+		fallback = new Pattern[regexes.size()];
+		fallbackKeys = new int[regexes.size()];
+		for (int i = 0; i < fallback.length; i++) {
+			fallbackKeys[i] = regexes.get(i);
+			fallback[i] = Pattern.compile(b.expects.get(regexes.get(i)),
+					Pattern.MULTILINE);
+		}
+	}
+
+	/**
+	 * @return Number of registered expectations
+	 */
+	public int size() {
+		return keys.size();
+	}
+
+	/**
+	 * @return Number of regular expressions that could not be compiled into
+	 *         the automaton and are scanned separately
+	 */
+	public int fallbackCount() {
+		return fallback.length;
+	}
+
+	/**
+	 * Creates the per-stream state
+	 *
+	 * @param windowSize
+	 *            - Number of recent chars kept for the regular expressions
+	 *            that are scanned separately
+	 * @return A fresh scanner positioned at the start of a stream
+	 */
+	public Scanner newScanner(int windowSize) {
+		return new Scanner(windowSize);
+	}
+
+	public static <K> Builder<K> builder() {
+		return new Builder<K>();
+	}
+
+	/**
+	 * Collects expectations before compiling them
+	 */
+	public static final class Builder<K> {
+		private final List<K> keys = new ArrayList<K>();
+		private final List<String> expects = new ArrayList<String>();
+		private final List<Boolean> regExp = new ArrayList<Boolean>();
+
+		private Builder() {
+		}
+
+		/**
+		 * @param key
+		 *            - Reported when this expectation fires. When several
+		 *            fire on the same char, the one added first wins.
+		 * @param expect
+		 *            - The string to look for
+		 * @param isRegExp
+		 *            - If true expect is a regular expression (multiline)
+		 * @return this builder
+		 */
+		public Builder<K> add(K key, String expect, boolean isRegExp) {
+			if (isRegExp)
+				Pattern.compile(expect); // fail early on bad syntax
+			keys.add(key);
+			expects.add(expect);
+			regExp.add(isRegExp);
+			return this;
+		}
+
+		public MultiPatternMatcher<K> build() {
+			return new MultiPatternMatcher<K>(this);
+		}
+	}
+
+	/**
+	 * Scans one output stream. Not thread safe.
+	 */
+	public final class Scanner {
+		private int state = automaton.initialState;
+		private final Window window;
+		private final Matcher[] matchers;
+
+		private Scanner(int windowSize) {
+			this.window = (fallback.length > 0) ? new Window(windowSize) : null;
+			this.matchers = new Matcher[fallback.length];
+			for (int i = 0; i < fallback.length; i++)
+				matchers[i] = fallback[i].matcher("");
+		}
+
+		/**
+		 * Feeds the next piece of output.
+		 *
+		 * @return Key of the expectation that fired, or null
+		 */
+		public K feed(char[] chunk, int offset, int length) {
+			final PatternAutomaton a = automaton;
+			final int[] transitions = a.transitions;
+			final int[] asciiClass = a.asciiClass;
+			final int alphabet = a.alphabet;
+
+			int s = state;
+			if (a.acceptNow[s] != -1)
+				return keys.get(a.acceptNow[s]);
+
+			int end = offset + length;
+			for (int i = offset; i < end; i++) {
+				char c = chunk[i];
+				int k = (c < PatternAutomaton.ASCII) ? asciiClass[c] : a
+						.classOf(c);
+				int next = transitions[s * alphabet + k];
+				if (next < 0) { // completed just before this char
+					state = s;
+					return keys.get(a.acceptBefore[s * alphabet + k]);
+				}
+				s = next;
+				int tag = a.acceptNow[s];
+				if (tag != -1) {
+					state = s;
+					return keys.get(tag);
+				}
+			}
+			state = s;
+			if (a.acceptAtEnd[s] != -1) // "$" at end of output
+				return keys.get(a.acceptAtEnd[s]);
+
+			if (window == null)
+				return null;
+
+			window.append(chunk, offset, length);
+			for (int i = 0; i < matchers.length; i++) {
+				matchers[i].reset(window);
+				if (matchers[i].find())
+					return keys.get(fallbackKeys[i]);
+			}
+			return null;
+		}
+
+		public K feed(CharSequence chunk) {
+			char[] chars = chunk.toString().toCharArray();
+			return feed(chars, 0, chars.length);
+		}
+	}
+
+	/**
+	 * The most recent chars of output in a ring, so that sliding the window
+	 * neither shifts nor allocates
+	 */
+	private static final class Window implements CharSequence {
+		private final char[] ring;
+		private int start, length;
+
+		Window(int size) {
+			ring = new char[size];
+		}
+
+		void append(char[] chunk, int offset, int count) {
+			int size = ring.length;
+			if (count >= size) { // only the tail of the chunk fits
+				System.arraycopy(chunk, offset + count - size, ring, 0, size);
+				start = 0;
+				length = size;
+				return;
+			}
+			int end = (start + length) % size;
+			int first = Math.min(count, size - end);
+			System.arraycopy(chunk, offset, ring, end, first);
+			System.arraycopy(chunk, offset + first, ring, 0, count - first);
+			length += count;
+			if (length > size) {
+				start = (start + length - size) % size;
+				length = size;
+			}
+		}
+
+		public int length() {
+			return length;
+		}
+
+		public char charAt(int index) {
+			int i = start + index;
+			return ring[(i < ring.length) ? i : i - ring.length];
+		}
+
+		public CharSequence subSequence(int from, int to) {
+			StringBuilder sb = new StringBuilder(to - from);
+			for (int i = from; i < to; i++)
+				sb.append(charAt(i));
+			return sb;
+		}
+
+		@Override
+		public String toString() {
+			return subSequence(0, length).toString();
+		}
+	}
+}
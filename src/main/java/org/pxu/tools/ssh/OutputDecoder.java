@@ -0,0 +1,91 @@
+package org.pxu.tools.ssh;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Decodes the server byte stream into chars with buffers allocated once.
+ *
+ * A multi-byte char split between two reads stays in the byte buffer until
+ * the rest arrives. Malformed input is replaced, not thrown. Not thread safe.
+ */
+final class OutputDecoder implements Closeable {
+
+	private final InputStream in;
+	private final CharsetDecoder decoder;
+	private final ByteBuffer bytes; // filled by the stream, read by the decoder
+	private final CharBuffer chars; // decoded, not yet handed out
+	private boolean eof;
+
+	OutputDecoder(InputStream in, Charset charset, int bufferSize) {
+		this.in = in;
+		this.decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.bytes = ByteBuffer.allocate(bufferSize);
+		this.chars = CharBuffer.allocate(bufferSize);
+		chars.flip(); // empty
+	}
+
+	/**
+	 * Reads decoded chars, blocking until there is at least one
+	 *
+	 * @return Number of chars read, -1 at end of stream
+	 */
+	int read(char[] dst, int offset, int length) throws IOException {
+		while (!chars.hasRemaining()) {
+			if (eof)
+				return -1;
+			fill(bytes.remaining());
+		}
+		int n = Math.min(length, chars.remaining());
+		chars.get(dst, offset, n);
+		return n;
+	}
+
+	/**
+	 * @return True if {@link #read(char[], int, int)} returns without
+	 *         waiting for the server
+	 */
+	boolean ready() throws IOException {
+		while (!chars.hasRemaining() && !eof) {
+			int available = in.available();
+			if (available <= 0)
+				return false;
+			fill(Math.min(available, bytes.remaining()));
+		}
+		return chars.hasRemaining() || eof;
+	}
+
+	/**
+	 * Reads up to max bytes and decodes all complete chars
+	 */
+	private void fill(int max) throws IOException {
+		if (bytes.hasRemaining()) { // else decode what overflowed last time
+			int n = in.read(bytes.array(), bytes.arrayOffset()
+					+ bytes.position(), Math.max(1, max));
+			if (n == -1)
+				eof = true;
+			else
+				bytes.position(bytes.position() + n);
+		}
+
+		bytes.flip();
+		chars.clear();
+		decoder.decode(bytes, chars, eof);
+		if (eof)
+			decoder.flush(chars);
+		chars.flip();
+		bytes.compact(); // keeps a partial char for the next read
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+}
@@ -0,0 +1,21 @@
+package org.pxu.tools.ssh;
+
+/**
+ * Told by a library that reads on I/O threads of its own when server output
+ * can be read without blocking, see
+ * {@link SSHClientLibrary#setOutputListener(OutputListener)}. Called on those
+ * threads, so implementations must not block.
+ */
+public interface OutputListener {
+
+	/**
+	 * Output was buffered; {@link SSHClientLibrary#getInputStream()} can be
+	 * read up to its available bytes without blocking
+	 */
+	void outputAvailable();
+
+	/**
+	 * The channel closed; the stream ends after the output buffered so far
+	 */
+	void closed();
+}
@@ -0,0 +1,35 @@
+package org.pxu.tools.ssh;
+
+import java.io.Closeable;
+
+/**
+ * Receives the log lines of a shell and a transcript of what the server
+ * sent. Set with {@link UnixShell#setOutputSink(OutputSink)}; ready made sinks
+ * are in {@link org.pxu.tools.ssh.sink.OutputSinks}.
+ *
+ * Both methods are called on the thread reading the server, so they must
+ * return at once; formatting and I/O belong on another thread.
+ */
+public interface OutputSink extends Closeable {
+
+	/**
+	 * @param source
+	 *            - Shell the line is about, "user@host"
+	 * @param timeMillis
+	 *            - When it happened
+	 * @param message
+	 *            - One line without line break
+	 */
+	void log(String source, long timeMillis, String message);
+
+	/**
+	 * Server output as it arrives. chars is reused once this returns, so
+	 * copy what is kept.
+	 */
+	void output(String source, char[] chars, int offset, int length);
+
+	/**
+	 * Writes out what is pending and releases the sink
+	 */
+	void close();
+}
@@ -0,0 +1,56 @@
+package org.pxu.tools.ssh;
+
+/**
+ * Receives the output of a command while it runs, see
+ * {@link UnixShell#execStreaming(String, Integer, OutputSubscriber)}.
+ *
+ * Modelled on java.util.concurrent.Flow.Subscriber: output is read from the
+ * server only as fast as it is requested, so a slow subscriber slows the
+ * command down instead of filling the heap. All methods are called on the
+ * thread reading the server, one at a time.
+ */
+public interface OutputSubscriber {
+
+	/**
+	 * Called once, after the command was sent and before any output
+	 */
+	void onSubscribe(Subscription subscription);
+
+	/**
+	 * One chunk of output, at most one per chunk requested. The echo of the
+	 * command is left out; the last chunk ends with the prompt.
+	 */
+	void onNext(String chunk);
+
+	/**
+	 * The prompt was found. Not called after a cancel.
+	 */
+	void onComplete();
+
+	/**
+	 * The command timed out or the stream failed. Not called after a cancel.
+	 */
+	void onError(Throwable error);
+
+	/**
+	 * Demand of a subscriber. Both methods may be called from any thread,
+	 * including from within {@link OutputSubscriber#onNext(String)}.
+	 */
+	interface Subscription {
+
+		/**
+		 * @param chunks
+		 *            - More chunks the subscriber is ready for, Long.MAX_VALUE
+		 *            for no limit
+		 * @throws IllegalArgumentException
+		 *             if chunks is not positive
+		 */
+		void request(long chunks);
+
+		/**
+		 * Stops the command with Ctrl-C. Output up to the next prompt is
+		 * read and dropped, so that the shell can run the next command.
+		 */
+		void cancel();
+	}
+}
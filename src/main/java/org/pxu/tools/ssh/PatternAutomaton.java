@@ -0,0 +1,908 @@
+package org.pxu.tools.ssh;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Compiles expectations into one deterministic automaton that reports which
+ * expectation completes first.
+ *
+ * Plain strings are always supported. Regular expressions are supported when
+ * they stick to the subset a DFA can handle: literals, <code>.</code>,
+ * character classes, <code>\d \w \s</code> and their negations, groups,
+ * alternation, greedy or lazy quantifiers and multiline <code>^</code> and
+ * <code>$</code>. Everything else (back references, look-around, word
+ * boundaries, inline flags, ...) is rejected with {@link UnsupportedSyntax}
+ * so the caller can fall back to java.util.regex.
+ *
+ * As with {@link java.util.regex.Matcher#find()} over the output seen so far,
+ * <code>$</code> also matches at the end of the available output.
+ */
+final class PatternAutomaton {
+
+	static final int ASCII = 128;
+
+	/** Line terminators as seen by java.util.regex in MULTILINE mode */
+	private static final char[] LINE_TERMINATORS = { '\n', '\r', '\u0085',
+			'\u2028', '\u2029' };
+
+	static class UnsupportedSyntax extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		UnsupportedSyntax(String message) {
+			super(message);
+		}
+	}
+
+	static class TooManyStates extends Exception {
+		private static final long serialVersionUID = 1L;
+	}
+
+	/* Where the previous char leaves "^" */
+	private static final int MID_LINE = 0, LINE_START = 1, AFTER_CR = 2;
+
+	/* Compiled tables */
+	final int[] asciiClass; // char -> class for ASCII
+	final int[] boundaries; // start of each char interval above ASCII
+	final int[] intervalClass; // interval -> class
+	final int alphabet;
+	/**
+	 * state * alphabet + class -> next state. Negative (~next) when an
+	 * expectation ending with an anchor completes just before that char, see
+	 * {@link #acceptBefore}.
+	 */
+	final int[] transitions;
+	final int[] acceptBefore; // same index as transitions -> tag, -1 if none
+	final int[] acceptNow; // state -> tag, -1 if none
+	final int[] acceptAtEnd; // state -> tag if "$" may match here, -1 if none
+	final int initialState = 0;
+
+	/**
+	 * @param expressions
+	 *            - Parsed expressions, see {@link #literal(String)} and
+	 *            {@link #parse(String)}
+	 * @param tags
+	 *            - Reported when the expression at the same index matches.
+	 *            The lowest tag wins when several complete at once.
+	 * @param maxStates
+	 *            - Upper bound on the size of the automaton
+	 */
+	PatternAutomaton(List<Node> expressions, List<Integer> tags, int maxStates)
+			throws TooManyStates {
+
+		/* Thompson construction */
+		Nfa nfa = new Nfa();
+		int start = nfa.newState();
+		for (int i = 0; i < expressions.size(); i++) {
+			int[] f = expressions.get(i).build(nfa);
+			nfa.epsilon(start, f[0]);
+			nfa.accept[f[1]] = tags.get(i);
+		}
+
+		/* Alphabet: split chars into classes every edge agrees on */
+		List<CharSet> sets = new ArrayList<CharSet>();
+		Map<CharSet, Integer> setIndex = new HashMap<CharSet, Integer>();
+		for (int s = 0; s < nfa.size; s++) {
+			CharSet cs = nfa.chars[s];
+			if (cs != null && !setIndex.containsKey(cs)) {
+				setIndex.put(cs, sets.size());
+				sets.add(cs);
+			}
+		}
+		TreeSet<Integer> cuts = new TreeSet<Integer>();
+		cuts.add(0);
+		for (char lt : LINE_TERMINATORS) {
+			cuts.add((int) lt);
+			cuts.add(lt + 1);
+		}
+		for (CharSet cs : sets)
+			for (int r = 0; r < cs.ranges.length; r += 2) {
+				cuts.add(cs.ranges[r]);
+				cuts.add(cs.ranges[r + 1] + 1);
+			}
+		cuts.remove(0x10000);
+
+		int[] starts = new int[cuts.size()];
+		int n = 0;
+		for (int c : cuts)
+			starts[n++] = c;
+
+		Map<BitSet, Integer> signatures = new HashMap<BitSet, Integer>();
+		int[] classOfInterval = new int[starts.length];
+		List<Character> representative = new ArrayList<Character>();
+		for (int i = 0; i < starts.length; i++) {
+			char c = (char) starts[i];
+			BitSet sig = new BitSet();
+			for (int k = 0; k < sets.size(); k++)
+				if (sets.get(k).contains(c))
+					sig.set(k);
+			if (isLineTerminator(c))
+				sig.set(sets.size() + Arrays.binarySearch(LINE_TERMINATORS, c)
+						+ 1);
+			Integer cls = signatures.get(sig);
+			if (cls == null) {
+				cls = signatures.size();
+				signatures.put(sig, cls);
+				representative.add(c);
+			}
+			classOfInterval[i] = cls;
+		}
+		alphabet = signatures.size();
+
+		asciiClass = new int[ASCII];
+		for (int c = 0; c < ASCII; c++)
+			asciiClass[c] = classOfInterval[interval(starts, c)];
+		int firstHigh = interval(starts, ASCII);
+		boundaries = Arrays.copyOfRange(starts, firstHigh, starts.length);
+		boundaries[0] = ASCII;
+		intervalClass = Arrays.copyOfRange(classOfInterval, firstHigh,
+				starts.length);
+
+		/* Subset construction. A DFA state is an epsilon closed set of NFA
+		 * states plus what the previous char was, which decides whether "^"
+		 * can be crossed. Anchors are crossed lazily, once the next char (or
+		 * the end of the output) is known, as java.util.regex does not match
+		 * them between '\r' and '\n'. */
+		nfa.prepare(representative);
+		BitSet startClosure = nfa.eclose[start];
+
+		List<BitSet> dfaSets = new ArrayList<BitSet>();
+		List<Integer> dfaLine = new ArrayList<Integer>();
+		Map<List<Object>, Integer> dfaIndex = new HashMap<List<Object>, Integer>();
+		List<int[]> rows = new ArrayList<int[]>();
+		List<int[]> rowAccepts = new ArrayList<int[]>();
+
+		dfaIndex.put(Arrays.<Object> asList(startClosure, LINE_START), 0);
+		dfaSets.add(startClosure);
+		dfaLine.add(LINE_START);
+
+		for (int d = 0; d < dfaSets.size(); d++) {
+			BitSet set = dfaSets.get(d);
+			int line = dfaLine.get(d);
+			int[] row = new int[alphabet];
+			int[] accepts = new int[alphabet];
+
+			// Which anchors may be crossed before each class of char
+			int[] combos = new int[alphabet];
+			BitSet[] next = new BitSet[alphabet];
+			for (int k = 0; k < alphabet; k++) {
+				char c = representative.get(k);
+				boolean crlf = line == AFTER_CR && c == '\n';
+				boolean caret = line == LINE_START
+						|| (line == AFTER_CR && !crlf);
+				boolean dollar = isLineTerminator(c) && !crlf;
+				combos[k] = (caret ? 1 : 0) + (dollar ? 2 : 0);
+				next[k] = (BitSet) startClosure.clone();
+			}
+			for (int combo = 0; combo < 4; combo++) {
+				BitSet from = null;
+				for (int k = 0; k < alphabet; k++) {
+					if (combos[k] != combo)
+						continue;
+					if (from == null) {
+						from = nfa.closure(set, (combo & 1) != 0,
+								(combo & 2) != 0);
+						int tag = nfa.lowestTag(from);
+						for (int j = k; j < alphabet; j++)
+							if (combos[j] == combo)
+								accepts[j] = tag;
+					}
+				}
+				if (from == null)
+					continue;
+				for (int s = from.nextSetBit(0); s >= 0; s = from
+						.nextSetBit(s + 1)) {
+					int[] classes = nfa.member[s];
+					if (classes == null)
+						continue;
+					BitSet target = nfa.eclose[nfa.charTarget[s]];
+					for (int k : classes)
+						if (combos[k] == combo)
+							next[k].or(target);
+				}
+			}
+
+			for (int k = 0; k < alphabet; k++) {
+				char c = representative.get(k);
+				int nextLine = (c == '\r') ? AFTER_CR
+						: isLineTerminator(c) ? LINE_START : MID_LINE;
+				List<Object> key = Arrays.<Object> asList(next[k], nextLine);
+				Integer target = dfaIndex.get(key);
+				if (target == null) {
+					target = dfaSets.size();
+					if (target >= maxStates)
+						throw new TooManyStates();
+					dfaIndex.put(key, target);
+					dfaSets.add(next[k]);
+					dfaLine.add(nextLine);
+				}
+				row[k] = target;
+			}
+			rows.add(row);
+			rowAccepts.add(accepts);
+		}
+
+		int states = dfaSets.size();
+		transitions = new int[states * alphabet];
+		acceptBefore = new int[states * alphabet];
+		acceptNow = new int[states];
+		acceptAtEnd = new int[states];
+		for (int d = 0; d < states; d++) {
+			BitSet set = dfaSets.get(d);
+			acceptNow[d] = nfa.lowestTag(set);
+			// "^" never matches at the end of the output
+			acceptAtEnd[d] = nfa.lowestTag(nfa.closure(set, false, true));
+			for (int k = 0; k < alphabet; k++) {
+				int i = d * alphabet + k;
+				int tag = rowAccepts.get(d)[k];
+				acceptBefore[i] = (tag != acceptNow[d]) ? tag : -1;
+				transitions[i] = (acceptBefore[i] != -1) ? ~rows.get(d)[k]
+						: rows.get(d)[k];
+			}
+		}
+	}
+
+	private static int interval(int[] starts, int c) {
+		int i = Arrays.binarySearch(starts, c);
+		return (i >= 0) ? i : -i - 2;
+	}
+
+	static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028'
+				|| c == '\u2029';
+	}
+
+	/**
+	 * @return Class of a char, see {@link #alphabet}
+	 */
+	int classOf(char c) {
+		if (c < ASCII)
+			return asciiClass[c];
+		int i = Arrays.binarySearch(boundaries, c);
+		return intervalClass[(i >= 0) ? i : -i - 2];
+	}
+
+	/**
+	 * @return Number of DFA states
+	 */
+	int states() {
+		return acceptNow.length;
+	}
+
+	/* ---------------------------------------------------------------- */
+	/* Expressions */
+
+	static Node literal(String s) {
+		List<Node> chars = new ArrayList<Node>();
+		for (int i = 0; i < s.length(); i++)
+			chars.add(new Chars(CharSet.of(s.charAt(i))));
+		return new Concat(chars);
+	}
+
+	static Node parse(String regex) throws UnsupportedSyntax {
+		Parser p = new Parser(regex);
+		Node node = p.alternation();
+		if (p.pos != regex.length())
+			throw new UnsupportedSyntax("Unbalanced ')' in " + regex);
+		return node;
+	}
+
+	static abstract class Node {
+		/**
+		 * @return {start, end} states of the fragment
+		 */
+		abstract int[] build(Nfa nfa);
+	}
+
+	static class Chars extends Node {
+		final CharSet set;
+
+		Chars(CharSet set) {
+			this.set = set;
+		}
+
+		int[] build(Nfa nfa) {
+			int s = nfa.newState(), e = nfa.newState();
+			nfa.chars[s] = set;
+			nfa.charTarget[s] = e;
+			return new int[] { s, e };
+		}
+	}
+
+	static class Anchor extends Node {
+		final boolean lineStart;
+
+		Anchor(boolean lineStart) {
+			this.lineStart = lineStart;
+		}
+
+		int[] build(Nfa nfa) {
+			int s = nfa.newState(), e = nfa.newState();
+			if (lineStart)
+				nfa.caret(s, e);
+			else
+				nfa.dollar(s, e);
+			return new int[] { s, e };
+		}
+	}
+
+	static class Concat extends Node {
+		final List<Node> parts;
+
+		Concat(List<Node> parts) {
+			this.parts = parts;
+		}
+
+		int[] build(Nfa nfa) {
+			int s = nfa.newState(), e = s;
+			for (Node part : parts) {
+				int[] f = part.build(nfa);
+				nfa.epsilon(e, f[0]);
+				e = f[1];
+			}
+			return new int[] { s, e };
+		}
+	}
+
+	static class Alternation extends Node {
+		final List<Node> choices;
+
+		Alternation(List<Node> choices) {
+			this.choices = choices;
+		}
+
+		int[] build(Nfa nfa) {
+			int s = nfa.newState(), e = nfa.newState();
+			for (Node choice : choices) {
+				int[] f = choice.build(nfa);
+				nfa.epsilon(s, f[0]);
+				nfa.epsilon(f[1], e);
+			}
+			return new int[] { s, e };
+		}
+	}
+
+	static class Repeat extends Node {
+		final Node node;
+		final int min, max; // max -1 is unbounded
+
+		Repeat(Node node, int min, int max) {
+			this.node = node;
+			this.min = min;
+			this.max = max;
+		}
+
+		int[] build(Nfa nfa) {
+			int s = nfa.newState(), e = s;
+			for (int i = 0; i < min; i++) {
+				int[] f = node.build(nfa);
+				nfa.epsilon(e, f[0]);
+				e = f[1];
+			}
+			if (max == -1) {
+				int[] f = node.build(nfa);
+				int end = nfa.newState();
+				nfa.epsilon(e, f[0]);
+				nfa.epsilon(e, end);
+				nfa.epsilon(f[1], f[0]);
+				nfa.epsilon(f[1], end);
+				return new int[] { s, end };
+			}
+			int end = nfa.newState();
+			for (int i = min; i < max; i++) {
+				int[] f = node.build(nfa);
+				nfa.epsilon(e, f[0]);
+				nfa.epsilon(e, end);
+				e = f[1];
+			}
+			nfa.epsilon(e, end);
+			return new int[] { s, end };
+		}
+	}
+
+	/* ---------------------------------------------------------------- */
+
+	static class Nfa {
+		int size;
+		CharSet[] chars = new CharSet[16];
+		int[] charTarget = new int[16];
+		int[] accept = new int[16];
+		List<List<Integer>> epsilon = new ArrayList<List<Integer>>();
+		List<List<Integer>> caret = new ArrayList<List<Integer>>();
+		List<List<Integer>> dollar = new ArrayList<List<Integer>>();
+
+		int newState() {
+			if (size == chars.length) {
+				chars = Arrays.copyOf(chars, size * 2);
+				charTarget = Arrays.copyOf(charTarget, size * 2);
+				accept = Arrays.copyOf(accept, size * 2);
+			}
+			accept[size] = -1;
+			epsilon.add(null);
+			caret.add(null);
+			dollar.add(null);
+			return size++;
+		}
+
+		private static void add(List<List<Integer>> edges, int from, int to) {
+			if (edges.get(from) == null)
+				edges.set(from, new ArrayList<Integer>(2));
+			edges.get(from).add(to);
+		}
+
+		void epsilon(int from, int to) {
+			add(epsilon, from, to);
+		}
+
+		void caret(int from, int to) {
+			add(caret, from, to);
+		}
+
+		void dollar(int from, int to) {
+			add(dollar, from, to);
+		}
+
+		BitSet[] eclose; // state -> epsilon closure, no anchors crossed
+		BitSet anchored = new BitSet(); // states with a "^" or "$" edge
+		BitSet accepting = new BitSet();
+		int[][] member; // state -> classes accepted by its char edge
+
+		/**
+		 * Precomputes closures and class membership once the alphabet is
+		 * known
+		 */
+		void prepare(List<Character> representative) {
+			eclose = new BitSet[size];
+			member = new int[size][];
+			for (int s = 0; s < size; s++) {
+				if (caret.get(s) != null || dollar.get(s) != null)
+					anchored.set(s);
+				if (accept[s] != -1)
+					accepting.set(s);
+				BitSet one = new BitSet();
+				one.set(s);
+				eclose[s] = closure(one, epsilon, null, null);
+				if (chars[s] != null) {
+					List<Integer> classes = new ArrayList<Integer>();
+					for (int k = 0; k < representative.size(); k++)
+						if (chars[s].contains(representative.get(k)))
+							classes.add(k);
+					member[s] = new int[classes.size()];
+					for (int i = 0; i < member[s].length; i++)
+						member[s][i] = classes.get(i);
+				}
+			}
+		}
+
+		/**
+		 * Extends an epsilon closed set across anchors
+		 *
+		 * @param afterLine
+		 *            - "^" may be crossed
+		 * @param atLineEnd
+		 *            - "$" may be crossed
+		 */
+		BitSet closure(BitSet states, boolean afterLine, boolean atLineEnd) {
+			if (!afterLine && !atLineEnd)
+				return states;
+			BitSet result = states;
+			boolean changed = true;
+			while (changed) {
+				changed = false;
+				BitSet todo = (BitSet) result.clone();
+				todo.and(anchored);
+				for (int s = todo.nextSetBit(0); s >= 0; s = todo
+						.nextSetBit(s + 1)) {
+					List<Integer> c = afterLine ? caret.get(s) : null;
+					List<Integer> d = atLineEnd ? dollar.get(s) : null;
+					for (List<Integer> targets : Arrays.asList(c, d)) {
+						if (targets == null)
+							continue;
+						for (int t : targets)
+							if (!result.get(t)) {
+								if (result == states)
+									result = (BitSet) states.clone();
+								result.or(eclose[t]);
+								changed = true;
+							}
+					}
+				}
+			}
+			return result;
+		}
+
+		private BitSet closure(BitSet states, List<List<Integer>> e1,
+				List<List<Integer>> e2, List<List<Integer>> e3) {
+			BitSet result = (BitSet) states.clone();
+			LinkedList<Integer> work = new LinkedList<Integer>();
+			for (int s = states.nextSetBit(0); s >= 0; s = states
+					.nextSetBit(s + 1))
+				work.add(s);
+			while (!work.isEmpty()) {
+				int s = work.removeFirst();
+				follow(e1.get(s), result, work);
+				if (e2 != null)
+					follow(e2.get(s), result, work);
+				if (e3 != null)
+					follow(e3.get(s), result, work);
+			}
+			return result;
+		}
+
+		private static void follow(List<Integer> targets, BitSet result,
+				LinkedList<Integer> work) {
+			if (targets == null)
+				return;
+			for (int t : targets)
+				if (!result.get(t)) {
+					result.set(t);
+					work.add(t);
+				}
+		}
+
+		int lowestTag(BitSet states) {
+			int tag = -1;
+			if (!states.intersects(accepting))
+				return tag;
+			for (int s = states.nextSetBit(0); s >= 0; s = states
+					.nextSetBit(s + 1))
+				if (accept[s] != -1 && (tag == -1 || accept[s] < tag))
+					tag = accept[s];
+			return tag;
+		}
+	}
+
+	/**
+	 * Immutable set of chars kept as sorted, inclusive [lo, hi] pairs
+	 */
+	static final class CharSet {
+		static final CharSet ANY = new CharSet(new int[] { 0, 0xFFFF });
+		static final CharSet DIGIT = new CharSet(new int[] { '0', '9' });
+		static final CharSet WORD = new CharSet(new int[] { '0', '9', 'A',
+				'Z', '_', '_', 'a', 'z' });
+		static final CharSet SPACE = new CharSet(new int[] { '\t', '\r', ' ',
+				' ' }); // \t \n \x0B \f \r and space
+		static final CharSet DOT = new CharSet(new int[] { '\n', '\n', '\r',
+				'\r', '\u0085', '\u0085', '\u2028', '\u2029' }).complement();
+
+		final int[] ranges;
+
+		private CharSet(int[] ranges) {
+			this.ranges = ranges;
+		}
+
+		static CharSet of(char c) {
+			return new CharSet(new int[] { c, c });
+		}
+
+		static CharSet range(char lo, char hi) {
+			return new CharSet(new int[] { lo, hi });
+		}
+
+		boolean contains(char c) {
+			for (int r = 0; r < ranges.length; r += 2)
+				if (c >= ranges[r] && c <= ranges[r + 1])
+					return true;
+			return false;
+		}
+
+		CharSet union(CharSet other) {
+			int[] all = Arrays.copyOf(ranges, ranges.length
+					+ other.ranges.length);
+			System.arraycopy(other.ranges, 0, all, ranges.length,
+					other.ranges.length);
+			Integer[] order = new Integer[all.length / 2];
+			for (int i = 0; i < order.length; i++)
+				order[i] = i;
+			final int[] a = all;
+			Arrays.sort(order, new java.util.Comparator<Integer>() {
+				public int compare(Integer x, Integer y) {
+					return a[x * 2] - a[y * 2];
+				}
+			});
+			int[] merged = new int[all.length];
+			int n = 0;
+			for (int i : order) {
+				int lo = all[i * 2], hi = all[i * 2 + 1];
+				if (n > 0 && lo <= merged[n - 1] + 1)
+					merged[n - 1] = Math.max(merged[n - 1], hi);
+				else {
+					merged[n++] = lo;
+					merged[n++] = hi;
+				}
+			}
+			return new CharSet(Arrays.copyOf(merged, n));
+		}
+
+		CharSet complement() {
+			int[] out = new int[ranges.length + 2];
+			int n = 0, next = 0;
+			for (int r = 0; r < ranges.length; r += 2) {
+				if (ranges[r] > next) {
+					out[n++] = next;
+					out[n++] = ranges[r] - 1;
+				}
+				next = ranges[r + 1] + 1;
+			}
+			if (next <= 0xFFFF) {
+				out[n++] = next;
+				out[n++] = 0xFFFF;
+			}
+			return new CharSet(Arrays.copyOf(out, n));
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return (o instanceof CharSet)
+					&& Arrays.equals(ranges, ((CharSet) o).ranges);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(ranges);
+		}
+	}
+
+	/* ---------------------------------------------------------------- */
+
+	/**
+	 * Recursive descent parser for the supported subset of java.util.regex
+	 */
+	private static class Parser {
+		private static final int MAX_REPEAT = 100;
+
+		private final String re;
+		private int pos;
+
+		Parser(String re) {
+			this.re = re;
+		}
+
+		private UnsupportedSyntax unsupported(String what) {
+			return new UnsupportedSyntax(what + " at index " + pos + " in "
+					+ re);
+		}
+
+		private boolean more() {
+			return pos < re.length();
+		}
+
+		private char peek() {
+			return re.charAt(pos);
+		}
+
+		Node alternation() throws UnsupportedSyntax {
+			List<Node> choices = new ArrayList<Node>();
+			choices.add(concatenation());
+			while (more() && peek() == '|') {
+				pos++;
+				choices.add(concatenation());
+			}
+			return (choices.size() == 1) ? choices.get(0) : new Alternation(
+					choices);
+		}
+
+		private Node concatenation() throws UnsupportedSyntax {
+			List<Node> parts = new ArrayList<Node>();
+			while (more() && peek() != '|' && peek() != ')')
+				parts.add(quantified(atom()));
+			return new Concat(parts);
+		}
+
+		private Node quantified(Node atom) throws UnsupportedSyntax {
+			while (more()) {
+				char c = peek();
+				int min, max;
+				if (c == '*') {
+					min = 0;
+					max = -1;
+					pos++;
+				} else if (c == '+') {
+					min = 1;
+					max = -1;
+					pos++;
+				} else if (c == '?') {
+					min = 0;
+					max = 1;
+					pos++;
+				} else if (c == '{') {
+					int close = re.indexOf('}', pos);
+					if (close == -1)
+						throw unsupported("Unclosed '{'");
+					String[] bounds = re.substring(pos + 1, close).split(",",
+							-1);
+					try {
+						min = Integer.parseInt(bounds[0].trim());
+						if (bounds.length == 1)
+							max = min;
+						else if (bounds[1].trim().isEmpty())
+							max = -1;
+						else
+							max = Integer.parseInt(bounds[1].trim());
+					} catch (NumberFormatException e) {
+						throw unsupported("Bad repetition");
+					}
+					if (bounds.length > 2 || min > MAX_REPEAT
+							|| max > MAX_REPEAT || (max != -1 && max < min))
+						throw unsupported("Repetition");
+					pos = close + 1;
+				} else
+					return atom;
+
+				if (more() && peek() == '+')
+					throw unsupported("Possessive quantifier");
+				if (more() && peek() == '?')
+					pos++; // lazy matches the same set of strings
+				atom = new Repeat(atom, min, max);
+			}
+			return atom;
+		}
+
+		private Node atom() throws UnsupportedSyntax {
+			char c = re.charAt(pos++);
+			switch (c) {
+			case '(':
+				if (more() && peek() == '?') {
+					if (re.startsWith("?:", pos))
+						pos += 2;
+					else if (re.startsWith("?<", pos) && pos + 2 < re.length()
+							&& Character.isLetter(re.charAt(pos + 2)))
+						pos = re.indexOf('>', pos) + 1; // named group
+					else
+						throw unsupported("Group construct");
+				}
+				Node inner = alternation();
+				if (!more() || peek() != ')')
+					throw unsupported("Unclosed group");
+				pos++;
+				return inner;
+			case '[':
+				return new Chars(charClass());
+			case '.':
+				return new Chars(CharSet.DOT);
+			case '^':
+				return new Anchor(true);
+			case '$':
+				return new Anchor(false);
+			case '\\':
+				return escape();
+			case '*':
+			case '+':
+			case '?':
+			case '{':
+				throw unsupported("Dangling quantifier");
+			default:
+				return new Chars(CharSet.of(c));
+			}
+		}
+
+		private Node escape() throws UnsupportedSyntax {
+			if (!more())
+				throw unsupported("Trailing '\\'");
+			char c = peek();
+			if (c == 'Q') {
+				int end = re.indexOf("\\E", pos);
+				String quoted = (end == -1) ? re.substring(pos + 1) : re
+						.substring(pos + 1, end);
+				pos = (end == -1) ? re.length() : end + 2;
+				return literal(quoted);
+			}
+			return new Chars(escapedChars());
+		}
+
+		/**
+		 * Escape sequence that stands for chars, with pos just after '\'
+		 */
+		private CharSet escapedChars() throws UnsupportedSyntax {
+			char c = re.charAt(pos++);
+			switch (c) {
+			case 'd':
+				return CharSet.DIGIT;
+			case 'D':
+				return CharSet.DIGIT.complement();
+			case 'w':
+				return CharSet.WORD;
+			case 'W':
+				return CharSet.WORD.complement();
+			case 's':
+				return CharSet.SPACE;
+			case 'S':
+				return CharSet.SPACE.complement();
+			case 't':
+				return CharSet.of('\t');
+			case 'n':
+				return CharSet.of('\n');
+			case 'r':
+				return CharSet.of('\r');
+			case 'f':
+				return CharSet.of('\f');
+			case 'a':
+				return CharSet.of('\u0007');
+			case 'e':
+				return CharSet.of('\u001B');
+			case 'x':
+				return CharSet.of(hex(2));
+			case 'u':
+				return CharSet.of(hex(4));
+			default:
+				if (Character.isLetterOrDigit(c))
+					throw unsupported("Escape \\" + c);
+				return CharSet.of(c);
+			}
+		}
+
+		private char hex(int digits) throws UnsupportedSyntax {
+			if (pos + digits > re.length())
+				throw unsupported("Bad hex escape");
+			try {
+				char c = (char) Integer.parseInt(
+						re.substring(pos, pos + digits), 16);
+				pos += digits;
+				return c;
+			} catch (NumberFormatException e) {
+				throw unsupported("Bad hex escape");
+			}
+		}
+
+		private CharSet charClass() throws UnsupportedSyntax {
+			boolean negate = false;
+			if (more() && peek() == '^') {
+				negate = true;
+				pos++;
+			}
+			CharSet set = null;
+			boolean first = true;
+			while (true) {
+				if (!more())
+					throw unsupported("Unclosed character class");
+				char c = re.charAt(pos++);
+				if (c == ']' && !first)
+					break;
+				if (c == '[' || (c == '&' && more() && peek() == '&')
+						|| (c == ']' && first))
+					throw unsupported("Nested character class");
+				first = false;
+
+				CharSet item;
+				if (c == '\\') {
+					if (!more())
+						throw unsupported("Trailing '\\'");
+					item = escapedChars();
+					if (item.ranges.length == 2 && item.ranges[0] == item.ranges[1])
+						item = range((char) item.ranges[0]);
+				} else
+					item = range(c);
+				set = (set == null) ? item : set.union(item);
+			}
+			return negate ? set.complement() : set;
+		}
+
+		/**
+		 * Reads the optional "-hi" of a range starting at lo
+		 */
+		private CharSet range(char lo) throws UnsupportedSyntax {
+			if (pos + 1 < re.length() && peek() == '-'
+					&& re.charAt(pos + 1) != ']') {
+				pos++;
+				char hi = re.charAt(pos++);
+				if (hi == '\\') {
+					CharSet esc = escapedChars();
+					if (esc.ranges.length != 2 || esc.ranges[0] != esc.ranges[1])
+						throw unsupported("Bad range");
+					hi = (char) esc.ranges[0];
+				} else if (hi == '[')
+					throw unsupported("Nested character class");
+				if (hi < lo)
+					throw unsupported("Bad range");
+				return CharSet.range(lo, hi);
+			}
+			return CharSet.of(lo);
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package org.pxu.tools.ssh;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.pxu.tools.ssh.providers.HostPort;
+
+/**
+ * Checks that hosts accept TCP connections on their SSH port.
+ *
+ * Connects are non-blocking and driven by one selector, so a list of
+ * thousands of hosts takes about one connect timeout in total, not one per
+ * host. Results are cached for a few seconds; a login right after a probe
+ * does not probe again. No process is spawned and ICMP is not needed.
+ *
+ * <pre>
+ * Map&lt;String, Boolean&gt; up = ReachabilityProbe.shared().probe(hosts);
+ * </pre>
+ */
+public class ReachabilityProbe {
+
+	private static final int MAX_CACHED = 4096; // expired entries purged above
+
+	private static ReachabilityProbe shared;
+
+	private long connectTimeoutMillis = 2000;
+	private long cacheTtlMillis = TimeUnit.SECONDS.toMillis(10);
+	private int maxInFlight = 1024;
+
+	private final Map<String, Cached> cache = new ConcurrentHashMap<String, Cached>();
+
+	/**
+	 * @return The probe used by {@link UnixShell#doPing()}
+	 */
+	public static synchronized ReachabilityProbe shared() {
+		if (shared == null)
+			shared = new ReachabilityProbe();
+		return shared;
+	}
+
+	/**
+	 * Time a host has to accept the connection. Default 2000 ms.
+	 */
+	public void setConnectTimeout(long millis) {
+		this.connectTimeoutMillis = millis;
+	}
+
+	/**
+	 * How long a result is reused. Default 10 seconds, 0 to always probe.
+	 */
+	public void setCacheTtl(long millis) {
+		this.cacheTtlMillis = millis;
+	}
+
+	/**
+	 * Connects open at the same time, each holding a file descriptor. Default
+	 * 1024.
+	 */
+	public void setMaxInFlight(int max) {
+		this.maxInFlight = max;
+	}
+
+	/**
+	 * @param host
+	 *            - Name or address, with ":port" if not 22
+	 * @return True if the port accepted a connection
+	 */
+	public boolean isReachable(String host) throws IOException {
+		return probe(Collections.singleton(host)).get(host);
+	}
+
+	/**
+	 * Probes all hosts at once. Names are resolved one after the other before
+	 * connecting; a name that does not resolve is unreachable.
+	 *
+	 * @return Reachability per host, in the order given
+	 * @throws IOException
+	 *             if no selector could be opened
+	 */
+	public Map<String, Boolean> probe(Collection<String> hosts)
+			throws IOException {
+		Map<String, Boolean> result = new LinkedHashMap<String, Boolean>();
+		List<String> todo = new ArrayList<String>();
+		long now = System.currentTimeMillis();
+		for (String host : new LinkedHashSet<String>(hosts)) {
+			Cached c = cache.get(host);
+			if (c != null && c.expires > now)
+				result.put(host, c.reachable);
+			else {
+				result.put(host, false); // keeps the order
+				todo.add(host);
+			}
+		}
+		if (!todo.isEmpty())
+			connectAll(todo, result);
+		return result;
+	}
+
+	private void connectAll(List<String> hosts, Map<String, Boolean> result)
+			throws IOException {
+		Selector selector = Selector.open();
+		try {
+			Iterator<String> pending = hosts.iterator();
+			while (pending.hasNext() || !selector.keys().isEmpty()) {
+				while (pending.hasNext()
+						&& selector.keys().size() < maxInFlight) {
+					String host = pending.next();
+					Boolean reachable = start(selector, host);
+					if (reachable != null)
+						done(result, host, reachable);
+				}
+
+				selector.select(Math.max(1, nearestDeadline(selector)
+						- System.currentTimeMillis()));
+				for (SelectionKey key : selector.selectedKeys()) {
+					Attempt a = (Attempt) key.attachment();
+					boolean connected;
+					try {
+						connected = ((SocketChannel) key.channel())
+								.finishConnect();
+					} catch (IOException e) {
+						connected = false; // refused or unreachable
+					}
+					done(result, a.host, connected);
+					close(key);
+				}
+				selector.selectedKeys().clear();
+
+				long now = System.currentTimeMillis();
+				for (SelectionKey key : new ArrayList<SelectionKey>(
+						selector.keys())) {
+					Attempt a = (Attempt) key.attachment();
+					if (key.isValid() && a.deadline <= now) {
+						done(result, a.host, false);
+						close(key);
+					}
+				}
+				selector.selectNow(); // drops the cancelled keys
+			}
+		} finally {
+			for (SelectionKey key : selector.keys())
+				close(key);
+			selector.close();
+		}
+	}
+
+	/**
+	 * @return Null while the connect is under way, else whether it succeeded
+	 */
+	private Boolean start(Selector selector, String host) {
+		SocketChannel channel = null;
+		try {
+			HostPort address = HostPort.parse(host);
+			InetSocketAddress target = new InetSocketAddress(address.getName(),
+					address.getPort());
+			if (target.isUnresolved())
+				return false;
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			if (channel.connect(target)) { // local connects may finish at once
+				channel.close();
+				return true;
+			}
+			channel.register(selector, SelectionKey.OP_CONNECT, new Attempt(
+					host, System.currentTimeMillis() + connectTimeoutMillis));
+			return null;
+		} catch (Exception e) {
+			if (channel != null)
+				try {
+					channel.close();
+				} catch (IOException ignore) {
+				}
+			return false;
+		}
+	}
+
+	private void done(Map<String, Boolean> result, String host,
+			boolean reachable) {
+		result.put(host, reachable);
+		cache(host, reachable);
+	}
+
+	private void cache(String host, boolean reachable) {
+		if (cacheTtlMillis <= 0)
+			return;
+		long now = System.currentTimeMillis();
+		if (cache.size() > MAX_CACHED)
+			for (Iterator<Cached> it = cache.values().iterator(); it.hasNext();)
+				if (it.next().expires <= now)
+					it.remove();
+		cache.put(host, new Cached(reachable, now + cacheTtlMillis));
+	}
+
+	private static long nearestDeadline(Selector selector) {
+		long nearest = Long.MAX_VALUE;
+		for (SelectionKey key : selector.keys())
+			nearest = Math.min(nearest, ((Attempt) key.attachment()).deadline);
+		return (nearest == Long.MAX_VALUE) ? System.currentTimeMillis() + 1
+				: nearest;
+	}
+
+	private static void close(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException ignore) {
+		}
+	}
+
+	/**
+	 * Forgets all cached results
+	 */
+	public void clearCache() {
+		cache.clear();
+	}
+
+	private static final class Attempt {
+		final String host;
+		final long deadline;
+
+		Attempt(String host, long deadline) {
+			this.host = host;
+			this.deadline = deadline;
+		}
+	}
+
+	private static final class Cached {
+		final boolean reachable;
+		final long expires;
+
+		Cached(boolean reachable, long expires) {
+			this.reachable = reachable;
+			this.expires = expires;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package org.pxu.tools.ssh;
+
+/**
+ * An entry of a remote directory listing
+ */
+public class RemoteFile {
+
+	private final String name;
+	private final long size;
+	private final long modifiedTime;
+	private final boolean directory;
+	private final boolean symlink;
+
+	/**
+	 * @param name
+	 *            - File name without directory
+	 * @param size
+	 *            - Size in bytes
+	 * @param modifiedTime
+	 *            - Last modification, seconds since the epoch
+	 * @param directory
+	 *            - True for a directory
+	 */
+	public RemoteFile(String name, long size, long modifiedTime,
+			boolean directory) {
+		this(name, size, modifiedTime, directory, false);
+	}
+
+	/**
+	 * @param symlink
+	 *            - True for a symbolic link, whatever it points to; size,
+	 *            time and directory are those of the link itself
+	 */
+	public RemoteFile(String name, long size, long modifiedTime,
+			boolean directory, boolean symlink) {
+		this.name = name;
+		this.size = size;
+		this.modifiedTime = modifiedTime;
+		this.directory = directory;
+		this.symlink = symlink;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return Seconds since the epoch
+	 */
+	public long getModifiedTime() {
+		return modifiedTime;
+	}
+
+	public boolean isDirectory() {
+		return directory;
+	}
+
+	public boolean isSymlink() {
+		return symlink;
+	}
+
+	@Override
+	public String toString() {
+		if (symlink)
+			return name + "@";
+		return name + (directory ? "/" : " (" + size + " bytes)");
+	}
+}
@@ -1,31 +1,69 @@
-package org.pxu.tools.ssh;
-
-import java.io.InputStream;
-import java.io.OutputStream;
-
-/**
- * Abstraction for various SSH library implementations
- * @author Prabhu Periasamy
- *
- */
-public interface SSHClientLibrary {
-	
-	/**
-	 * Send commands to this input stream
-	 * @return Input stream associated with the channel
-	 */
-	InputStream getInputStream();
-	
-	/**
-	 * Console output on this output stream
-	 * @return Output stream associated with the channel
-	 */
-	OutputStream getOutputStream();
-
-	void logout();
-
-	void login(String host, String userName, String password) throws Exception ;
-
-	String getProviderName();
-
-}
+package org.pxu.tools.ssh;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Abstraction for various SSH library implementations
+ * @author Prabhu Periasamy
+ *
+ */
+public interface SSHClientLibrary {
+	
+	/**
+	 * Send commands to this input stream
+	 * @return Input stream associated with the channel
+	 */
+	InputStream getInputStream();
+	
+	/**
+	 * Console output on this output stream
+	 * @return Output stream associated with the channel
+	 */
+	OutputStream getOutputStream();
+
+	void logout();
+
+	void login(String host, String userName, String password) throws Exception ;
+
+	String getProviderName();
+
+	/**
+	 * Runs a command on its own exec channel, without a shell. Completion comes
+	 * from the channel closing, not from a prompt in the output. Call after
+	 * login.
+	 * 
+	 * @param command
+	 *            - Command line to run
+	 * @param timeout
+	 *            - Seconds to wait for the command to finish
+	 * @param charset
+	 *            - Encoding of the output, that of the shell
+	 * @return Output and exit code of the command
+	 * @throws java.util.concurrent.TimeoutException
+	 *             if the command did not finish in time; the channel is closed
+	 * @throws UnsupportedOperationException
+	 *             if the library has no exec channel support
+	 */
+	default ExecResult execCommand(String command, int timeout,
+			Charset charset) throws Exception {
+		throw new UnsupportedOperationException(getProviderName()
+				+ " does not support exec channels");
+	}
+
+	/**
+	 * Asks to be told when output arrives, so that it can be read on the I/O
+	 * threads of the library instead of by a thread waiting on
+	 * {@link #getInputStream()}. Call before login.
+	 * 
+	 * @param listener
+	 *            - Told on the I/O threads of the library
+	 * @return False if the library reads on the caller's thread and will not
+	 *         tell listener
+	 */
+	default boolean setOutputListener(OutputListener listener) {
+		return false;
+	}
+
+}
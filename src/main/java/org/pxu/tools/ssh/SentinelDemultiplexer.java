@@ -0,0 +1,134 @@
+package org.pxu.tools.ssh;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Splits the output of a batch of commands, typed all at once, back into one
+ * result per command.
+ *
+ * Every command is followed by a printf of a marker line carrying the index of
+ * the command and its exit status:
+ *
+ * <pre>
+ * make install
+ * printf '\n%s%s:%s:%s\n' __SNT 5f1c9a0e 0 $?
+ * </pre>
+ *
+ * The marker token is printed from two halves so that the echo of the printf
+ * line never looks like a marker. The output is scanned once, line by line, as
+ * it arrives. The echo of each typed line is dropped where the shell prints
+ * it, as the first line of the command's output and the last line before its
+ * marker; what the shell writes to stderr is part of the output.
+ */
+final class SentinelDemultiplexer {
+
+	private static final String PREFIX = "__SNT";
+
+	private final List<String> commands;
+	private final String token; // PREFIX + suffix, as printed
+	private final String suffix;
+	private final List<ExecResult> results = new ArrayList<ExecResult>();
+
+	private final StringBuilder line = new StringBuilder();
+	private final List<String> segment = new ArrayList<String>();
+
+	SentinelDemultiplexer(List<String> commands) {
+		this.commands = new ArrayList<String>(commands);
+		this.suffix = Long.toHexString(ThreadLocalRandom.current().nextLong());
+		this.token = PREFIX + suffix;
+	}
+
+	/**
+	 * @return All commands and their markers, one per line, for a single
+	 *         write
+	 */
+	String script() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < commands.size(); i++) {
+			if (i > 0)
+				sb.append('\r');
+			sb.append(commands.get(i)).append('\r').append(markerCommand(i));
+		}
+		return sb.toString();
+	}
+
+	private String markerCommand(int index) {
+		return "printf '\\n%s%s:%s:%s\\n' " + PREFIX + " " + suffix + " "
+				+ index + " $?";
+	}
+
+	/**
+	 * Reads the next piece of output
+	 *
+	 * @return Index in chunk just past the last marker, or offset + length if
+	 *         the batch is not complete yet
+	 */
+	int feed(char[] chunk, int offset, int length) {
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			if (isComplete())
+				return i;
+			char c = chunk[i];
+			if (c != '\n') {
+				line.append(c);
+				continue;
+			}
+			int n = line.length();
+			if (n > 0 && line.charAt(n - 1) == '\r')
+				line.setLength(n - 1);
+			endOfLine(line.toString());
+			line.setLength(0);
+		}
+		return end;
+	}
+
+	private void endOfLine(String text) {
+		int next = results.size();
+		String marker = token + ":" + next + ":";
+		if (!text.startsWith(marker)) {
+			segment.add(text);
+			return;
+		}
+		int exitCode;
+		try {
+			exitCode = Integer.parseInt(text.substring(marker.length()).trim());
+		} catch (NumberFormatException e) {
+			exitCode = -1;
+		}
+		String command = commands.get(next);
+		results.add(new ExecResult(command, output(next), "", exitCode));
+		segment.clear();
+	}
+
+	/**
+	 * Joins the lines of one command without the echoes of its two typed
+	 * lines: the command after its prompt first, the marker printf last
+	 */
+	private String output(int index) {
+		int from = 0, to = segment.size();
+		if (from < to && segment.get(from).endsWith(commands.get(index)))
+			from++;
+		if (to > from && segment.get(to - 1).isEmpty())
+			to--; // from the leading \n of the marker
+		if (to > from && segment.get(to - 1).endsWith(markerCommand(index)))
+			to--;
+		StringBuilder sb = new StringBuilder();
+		for (int i = from; i < to; i++)
+			sb.append(segment.get(i)).append('\n');
+		return sb.toString();
+	}
+
+	boolean isComplete() {
+		return results.size() == commands.size();
+	}
+
+	/**
+	 * @return One result per command received so far, in order
+	 */
+	List<ExecResult> getResults() {
+		return Collections.unmodifiableList(new ArrayList<ExecResult>(results));
+	}
+}
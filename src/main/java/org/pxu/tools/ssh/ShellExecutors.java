@@ -0,0 +1,72 @@
+package org.pxu.tools.ssh;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors that many shells can share, see
+ * {@link UnixShell#setExecutor(ExecutorService)}.
+ */
+public final class ShellExecutors {
+
+	private static ExecutorService virtual, shared;
+
+	private ShellExecutors() {
+	}
+
+	/**
+	 * Runs every task on a new virtual thread when the JVM has them (Java 21
+	 * and later). On older JVMs this is {@link #shared()}.
+	 * 
+	 * A shell waiting on the server costs no platform thread in
+	 * {@link UnixShell.AnalyzerMode#POLLING} mode, whose job sleeps between
+	 * polls. The APACHE library needs no thread at all. In EVENT_DRIVEN mode
+	 * the job blocks on the stream of the library. The replay stream waits on
+	 * a Condition, which frees the carrier. The streams of JSch and SSHTools
+	 * wait in synchronized methods. Before Java 24 that pins the carrier
+	 * thread, so each shell waiting on them holds one.
+	 * 
+	 * @return One executor for the whole JVM, never to be shut down
+	 */
+	public static synchronized ExecutorService virtualThreads() {
+		if (virtual == null) {
+			try {
+				virtual = (ExecutorService) Executors.class.getMethod(
+						"newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (ReflectiveOperationException e) {
+				virtual = shared();
+			}
+		}
+		return virtual;
+	}
+
+	/**
+	 * @return True if {@link #virtualThreads()} really uses virtual threads
+	 */
+	public static boolean hasVirtualThreads() {
+		return virtualThreads() != shared();
+	}
+
+	/**
+	 * A cached pool of daemon threads. Idle threads die after a minute, so the
+	 * thread count follows the number of shells waiting at the same time,
+	 * not the number of logged in shells.
+	 * 
+	 * @return One executor for the whole JVM, never to be shut down
+	 */
+	public static synchronized ExecutorService shared() {
+		if (shared == null) {
+			final AtomicInteger count = new AtomicInteger();
+			shared = Executors.newCachedThreadPool(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "UnixShell-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return shared;
+	}
+}
@@ -0,0 +1,159 @@
+package org.pxu.tools.ssh;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Subscription of one streamed command. The analyzer job waits on it before
+ * each read from the server and hands it what was read. It waits on a
+ * Condition, so that a virtual thread unmounts while the subscriber is slow.
+ */
+class StreamDemand implements OutputSubscriber.Subscription {
+
+	private final OutputSubscriber subscriber;
+	private final String echo; // command echo and line break, left out
+	private final Runnable interrupt;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	private long demand; // guarded by lock
+	private boolean cancelled; // guarded by lock
+	private boolean finished; // guarded by lock, the prompt was read
+	private int echoMatched; // chars of echo seen, -1 once past it
+	private Throwable failure; // thrown by the subscriber
+
+	/**
+	 * @param interrupt
+	 *            - Sends Ctrl-C to the server, null if the command was not
+	 *            sent
+	 */
+	StreamDemand(OutputSubscriber subscriber, String command, Runnable interrupt) {
+		this.subscriber = subscriber;
+		this.echo = command + "\r\n";
+		this.interrupt = interrupt;
+	}
+
+	public void request(long chunks) {
+		if (chunks <= 0)
+			throw new IllegalArgumentException("Requested " + chunks
+					+ " chunks");
+		lock.lock();
+		try {
+			demand = (demand + chunks < 0) ? Long.MAX_VALUE : demand + chunks;
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops the command with Ctrl-C, unless it has already ended
+	 */
+	public void cancel() {
+		lock.lock();
+		try {
+			if (cancelled || finished)
+				return;
+			cancelled = true;
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		if (interrupt != null)
+			interrupt.run();
+	}
+
+	/**
+	 * Hands the subscription to the subscriber. A subscriber throwing is
+	 * treated like one cancelling, so the command still runs to its prompt.
+	 */
+	void subscribe() {
+		try {
+			subscriber.onSubscribe(this);
+		} catch (Throwable e) {
+			failure = e;
+			cancel();
+		}
+	}
+
+	/**
+	 * Blocks until a chunk is requested or the subscription is cancelled
+	 */
+	void awaitDemand() throws InterruptedException {
+		lock.lock();
+		try {
+			while (demand == 0 && !cancelled)
+				changed.await();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Passes output on, unless cancelled. chars is reused after the call.
+	 */
+	void deliver(char[] chars, int offset, int length) {
+		if (echoMatched >= 0) {
+			int skip = 0;
+			while (skip < length && echoMatched < echo.length()
+					&& chars[offset + skip] == echo.charAt(echoMatched)) {
+				skip++;
+				echoMatched++;
+			}
+			if (skip < length || echoMatched == echo.length())
+				echoMatched = -1;
+			offset += skip;
+			length -= skip;
+			if (length == 0)
+				return;
+		}
+		lock.lock();
+		try {
+			if (cancelled)
+				return;
+			if (demand != Long.MAX_VALUE)
+				demand--;
+		} finally {
+			lock.unlock();
+		}
+		try {
+			subscriber.onNext(new String(chars, offset, length));
+		} catch (Throwable e) {
+			failure = e;
+			cancel();
+		}
+	}
+
+	/**
+	 * Signals the end of the command to the subscriber
+	 *
+	 * @param prompt
+	 *            - Pattern that ended the command, null if none was found
+	 * @param error
+	 *            - Why the command failed, null if it did not
+	 * @return prompt
+	 */
+	String finish(String prompt, Throwable error) {
+		boolean signal;
+		lock.lock();
+		try {
+			finished = true;
+			signal = !cancelled;
+		} finally {
+			lock.unlock();
+		}
+		if (error == null && prompt == null)
+			error = new Exception("Output ended before the command prompt");
+		if (error != null) {
+			if (signal)
+				subscriber.onError(error);
+			throw new CompletionException(error);
+		}
+		if (failure != null)
+			throw new CompletionException(failure);
+		if (signal)
+			subscriber.onComplete();
+		return prompt;
+	}
+}
@@ -0,0 +1,23 @@
+package org.pxu.tools.ssh;
+
+/**
+ * Told about the progress of a file transfer
+ */
+public interface TransferListener {
+
+	/**
+	 * Called a few times per second while a file moves, and once when it is
+	 * done.
+	 * 
+	 * @param remotePath
+	 *            - The remote file
+	 * @param bytes
+	 *            - Bytes transferred so far
+	 * @param totalBytes
+	 *            - Size of the file, -1 if not known
+	 * @param bytesPerSecond
+	 *            - Average rate since the file started
+	 */
+	void progress(String remotePath, long bytes, long totalBytes,
+			double bytesPerSecond);
+}
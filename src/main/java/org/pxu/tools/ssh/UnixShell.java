@@ -1,630 +1,1623 @@
-package org.pxu.tools.ssh;
-
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.StringTokenizer;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
-import java.util.regex.Pattern;
-
-import org.pxu.tools.ssh.providers.JShellProvider;
-import org.pxu.tools.ssh.providers.SSHToolsProvider;
-import com.jcraft.jsch.Channel;
-import com.jcraft.jsch.ChannelSftp;
-import com.jcraft.jsch.JSch;
-import com.jcraft.jsch.Session;
-
-/**
- * 
- * Utility for interacting with Unix Shell
- * 
- * An example usage with javascript is given below
- * 
- * <pre>
- * importPackage(org.pxu.tools.ssh);
- * 
- * var shell = UnixShell(&quot;ip-address&quot;, &quot;root&quot;, &quot;*****&quot;);
- * var response;
- * 
- * response = shell.login();
- * println(&quot;Login-&gt;&quot; + response);
- * response = shell.exec(&quot;pwd&quot;);
- * println(&quot;Current Directory-&gt;&quot; + response);
- * response = shell.logout();
- * </pre>
- * 
- * @author Prabhu Periasamy
- * @email praboop@gmail.com
- * @see Usage examples in test package
- */
-public class UnixShell {
-
-	private String lastCommand = "";
-
-	public static enum SSHLibraryProvider {
-		JSCH, SSHTOOLS;
-
-		private SSHClientLibrary newInstance() {
-			//System.out.println("The current object :" + this);
-			switch (this) {
-				case JSCH:
-					return new JShellProvider();
-				case SSHTOOLS:
-					return new SSHToolsProvider();
-				default:
-					return null;
-			}
-		}
-	};
-
-	private SSHClientLibrary sshClient;
-
-	private String CMDPROMPT = "admin:";
-
-	private BufferedReader fromServer;
-
-	private BufferedWriter toServer;
-
-	private String userName, host, password;
-
-	private Integer DEFAULT_TIMEOUT = 30, currentCommandTimeout = 0;
-
-	private ExecutorService executor;
-	private String g_lastCommandOutput;
-
-	private static DateFormat dateFormat = new SimpleDateFormat("HH:mm:ss");
-	private static boolean PRINT = true;
-
-	private Map<String, Response> patternToLookForMap = new HashMap<String, Response>();
-
-	class Response {
-		private String userResp;
-		private Integer timeout;
-		private Pattern pattern;
-
-		Response(String expect, String userResp, Integer timeout, boolean regExp) {
-			this.userResp = userResp;
-			this.timeout = timeout;
-			String patternString = (regExp) ? expect: Pattern.quote(expect);
-			
-			this.pattern = Pattern.compile(patternString, Pattern.MULTILINE);
-		}
-
-		public String getUserResponse() {
-			return this.userResp;
-		}
-
-		public Integer getTimeout() {
-			return this.timeout;
-		}
-
-		public boolean isPatternFound(String source) {
-			return this.pattern.matcher(source).find();
-		}
-	}
-
-	public String getLastCommandOutput() {
-		return g_lastCommandOutput;
-	}
-
-	/**
-	 * Record a input action that will be executed when a specific string is found in remote shell response.
-	 * 
-	 * @param expect
-	 *            - The string that is expected to be found in the server
-	 *            output.
-	 * @param isExpectRE
-	 *            - If true then expect parameter is interpreted as regular expression.
-	 *              If false then expect parameter is considered as a plain string that will be searched in response for match.
-	 * @param response
-	 *            - The response that should be sent to the server.
-	 * @param timeout
-	 *            - Expected seconds the server would take to process the
-	 *            response
-	 * 
-	 * @return Response object
-	 */
-	public Response recordInput(String expect, boolean isExpectRE, String response, Integer timeout) {
-		Response r = new Response(expect, response, timeout, isExpectRE);
-		patternToLookForMap.put(expect, r);
-		return r;
-	}
-	
-	/**
-	 * @param expect
-	 * 			- The plain string (no regular expression) that is expected to be found in the server output.
-	 * @param response
-	 * 			- The response that would be sent to the server.
-	 * @param timeout
-	 * 			- The time it would normally take to find this match.
-	 * 
-	 * @see also #recordInput(String, boolean, String, Integer)
-	 * @return Response containing server output
-	 */
-	public Response recordInput(String expect, String response, Integer timeout) {
-		return recordInput(expect, false, response, timeout);
-	}
-
-	/**
-	 * Record a input action that will be executed when a specific string is found in remote shell response.
-	 * 
-	 * @param expect
-	 *            - The string that is expected to be found in the server 
-	 *            output.
-	 * @param response
-	 *            - The response that should be sent to the server.
-	 * 
-	 * @return Response object
-	 */
-	public Response recordInput(String expect, String response) {
-		return this.recordInput(expect, false, response, DEFAULT_TIMEOUT);
-	}
-
-	/**
-	 * Stop shell output interpretation loop and return to the callee when the 
-	 * expect string is found in remote shell response.
-	 * 
-	 * @param expect
-	 *            - The string that is expected to be found in the server
-	 *            output.
-	 * @return Response object
-	 */
-	public Response recordNoInput(String expect) {
-		return this.recordInput(expect, false, "", DEFAULT_TIMEOUT);
-	}
-
-	/**
-	 * Sets the shell command prompt. This should be a regular expression. Default is <code>admin:</code>
-	 * 
-	 * @param prompt
-	 */
-	public void setCommandPrompt(String prompt) {
-		this.CMDPROMPT = prompt;
-	}
-	
-
-	/**
-	 * @return Returns command timeout in seconds
-	 */
-	public int getDefaultTimeout() {
-		return DEFAULT_TIMEOUT;
-	}
-
-	/**
-	 * Sets default command time out for each operation
-	 * 
-	 * @param seconds
-	 */
-	public void setDefaultTimeout(int seconds) {
-		this.DEFAULT_TIMEOUT = seconds;
-	}
-
-	/**
-	 * Constructor to initialize host info
-	 * 
-	 * @param host
-	 * @param userName
-	 * @param password
-	 */
-	public UnixShell(String host, String userName, String password) {
-		this.host = host;
-		this.userName = userName;
-		this.password = password;
-	}
-	
-	/**
-	 * Enable or disable Sysouts
-	 * @param print
-	 */
-	public static void printEnable(boolean print) {
-		PRINT = print;
-	}
-
-	private static void pr(String log) {
-		if (PRINT)
-			System.out.println("[UCOSShell][" + dateFormat.format(new Date())
-					+ "]: " + log);
-	}
-	
-	private static  void prCont(String log) {
-		if (PRINT)
-			System.out.print(log);
-	}
-
-	/**
-	 * Executes a command remotely and sends the output
-	 * 
-	 * @param command
-	 * @param timeout
-	 *            Maximum time to wait for command completion in seconds.
-	 * @return A string that was found in the server output to indicate command
-	 *         completion
-	 * @throws Exception
-	 */
-	public String exec(String command, Integer timeout) throws Exception {
-		try {
-
-			String userResponse = command;
-
-			currentCommandTimeout = timeout;
-			StdoutAnalayzerJob analysisResult = null;
-
-			while (!userResponse.isEmpty()) {
-				pr("Sending \"" + userResponse + "\"");
-				send(userResponse); // send the command
-				analysisResult = runStdoutAnalyzerJob(currentCommandTimeout); // after
-																				// sending
-																				// the
-																				// command,
-																				// stdout
-																				// is
-																				// analyzed
-																				// for
-																				// any
-																				// specific
-																				// pattern
-
-				Response nextResponse = analysisResult.getNextResponse();
-
-				if (nextResponse == null) {
-					throw new Exception(
-							"None of the defined patterns was found in stdout. The remaining patterns are: "
-									+ patternToLookForMap.keySet());
-				}
-
-				userResponse = nextResponse.getUserResponse();
-				currentCommandTimeout = nextResponse.getTimeout();
-			}
-
-			return analysisResult.getMatchedPattern();
-
-		} finally {
-			this.patternToLookForMap.clear(); // Patterns have been processed.
-												// Clear for next recording.
-		}
-	}
-
-	/**
-	 * Executes a command on remote server with default timeout
-	 * 
-	 * @param command
-	 * @return A string that was found in the server output to indicate command
-	 *         completion
-	 * @throws Exception
-	 * @see {@link #getDefaultTimeout()}
-	 */
-	public String exec(String command) throws Exception {
-		return this.exec(command, currentCommandTimeout);
-	}
-
-	public static void printException(Object e) {
-		((Exception) e).printStackTrace();
-	}
-
-	/**
-	 * Waits until a specific pattern of string is found in the result of
-	 * command execution.
-	 * 
-	 * @author Prabhu Periasamy
-	 * 
-	 */
-	class StdoutAnalayzerJob implements Runnable {
-		private StringBuilder entireStdout = new StringBuilder();
-		private StringBuilder slidingWindow = new StringBuilder();
-		private int slidingWindowSize = 2048; // Window range to scan for a
-												// pattern
-		private Response nextResponse;
-
-		private String patternFound = "";
-
-		private boolean terminateJob = false;
-
-		private char chunkRead[] = new char[2048]; // 2KB read block
-
-		public StdoutAnalayzerJob() {
-		}
-
-		public Response getNextResponse() {
-			return nextResponse;
-		}
-
-		/**
-		 * Appends the stdout that is currently generated into a local
-		 * StringBuffer Updates the sliding window (contains stdout) for pattern
-		 * scan
-		 * 
-		 * @throws IOException
-		 */
-		private void copyAvailableStdout() throws IOException {
-			while (fromServer.ready()) {
-				int n = fromServer.read(chunkRead);
-				if (n == -1) { // end of stream
-					return;
-				}
-				slidingWindow.append(chunkRead, 0, n);
-				int charsToDelete = slidingWindow.length() - slidingWindowSize;
-				if (charsToDelete > 1)
-					slidingWindow.delete(0, charsToDelete); // skip chars in
-															// beginning that
-															// could have been
-															// scanned earlier.
-
-				entireStdout.append(chunkRead, 0, n);
-				prCont(String.copyValueOf(chunkRead, 0, n));
-			}
-		}
-
-		public void run() {
-			try {
-
-				// Register cmd prompt
-				if (!patternToLookForMap.containsKey(CMDPROMPT))
-					patternToLookForMap.put(CMDPROMPT, new Response(CMDPROMPT,
-							"", DEFAULT_TIMEOUT, true));
-
-				pr("## Response from server ##");
-				while (!terminateJob) {
-
-					copyAvailableStdout();
-
-					for (String aPattern : patternToLookForMap.keySet()) {
-
-						if (patternToLookForMap.get(aPattern).isPatternFound(
-								slidingWindow.toString())) {
-							patternFound = aPattern;
-							nextResponse = patternToLookForMap
-									.get(patternFound);
-							patternToLookForMap.remove(patternFound);
-							terminateJob = true;
-							break;
-						}
-					}
-
-					Thread.sleep(1000);
-				}
-
-				// Copy the entire stdout to global variable
-				if (entireStdout.toString().startsWith(lastCommand))
-					g_lastCommandOutput = entireStdout.toString().substring(
-							lastCommand.length());
-				else
-					g_lastCommandOutput = entireStdout.toString();
-
-			} catch (Exception e) {
-				pr("Unexpected exception: " + e.getMessage());
-				e.printStackTrace();
-			} finally {
-				prCont("\n");
-			}
-		}
-
-		public String getMatchedPattern() {
-			return patternFound;
-		}
-
-		public void terminateRequest() {
-			terminateJob = true;
-		}
-	}
-
-	public static void sleep(int seconds, String mesg) throws Exception {
-		for (int i = 0; i < seconds; i++) {
-			pr(Thread.currentThread().getName()
-					+ " - Running for " + i + " seconds - " + mesg);
-			Thread.sleep(1000);
-		}
-	}
-
-	private StdoutAnalayzerJob runStdoutAnalyzerJob(Integer timeout)
-			throws Exception {
-		StdoutAnalayzerJob job = new StdoutAnalayzerJob();
-		Future<?> future = null;
-		try {
-			future = executor.submit(job);
-			future.get(timeout, TimeUnit.SECONDS);
-			return job;
-		} catch (InterruptedException e) {
-			throw e;
-		} catch (ExecutionException e) {
-			throw e;
-		} catch (TimeoutException e) {
-			throw new Exception("Timedout (" + timeout
-					+ " seconds elapsed) after sending command '" + lastCommand
-					+ "'.");
-		} finally {
-			job.terminateRequest();
-			while (!future.isDone()) {
-				try {
-					sleep(1, "Waiting for job to terminate");
-				} catch (Exception ignore) {
-				}
-			}
-		}
-	}
-
-	/**
-	 * Checks if a host is reachable. InetAddress.isReachable does not work
-	 * because it uses ICMP ECHO request which is blocked.
-	 * 
-	 * @param ipstr
-	 * @return
-	 */
-	public boolean doPing() {
-		boolean retv = false;
-		try {
-			InputStream ins = Runtime.getRuntime().exec(
-					"ping -n 1 -w 2000 " + host).getInputStream();
-			Thread.sleep(3000);
-			byte[] prsbuf = new byte[ins.available()];
-			ins.read(prsbuf);
-			String parsstr = new StringTokenizer(new String(prsbuf), "%")
-					.nextToken().trim();
-			if (!parsstr.endsWith("100"))
-				retv = true;
-		} catch (Exception e) {
-			retv = false;
-		}
-		return retv;
-	}
-
-	/**
-	 * Attempts to login and return status of login
-	 * 
-	 * @param suppressError
-	 * @return true if login success
-	 */
-	public boolean login(boolean suppressError) {
-		try {
-
-			if (!doPing()) // Ping has failed
-				return false;
-
-			login();
-			return true;
-		} catch (Exception e) {
-			if (!suppressError)
-				e.printStackTrace();
-			return false;
-		}
-	}
-
-	private void initSSHProvider() {
-		if (sshClient == null) {
-			sshClient = SSHLibraryProvider.JSCH.newInstance();
-		}
-	}
-
-	/**
-	 * Set what SSH library will be used by the underlying shell. Default
-	 * library is SSHTools. Call this method before login.
-	 * 
-	 * @param provider
-	 *            See @link SSHLibraryProvider
-	 */
-	public void initSSHProvider(SSHLibraryProvider provider) {
-		
-		if (sshClient != null) {
-			pr("SSH library Name: " + sshClient.getProviderName());
-			sshClient.logout();
-			pr("SSH Client After logout ");
-			sshClient = null;
-		}
-		pr("sshclient initially is null");
-		//pr("provider object passed is:" + provider);
-		//pr("provider passed is:" + provider.toString());
-		sshClient = provider.newInstance();
-		//sshClient = new JShellProvider();
-		pr("Using SSH library: " + sshClient);
-	}
-
-	/**
-	 * Login to the server and return response
-	 * 
-	 * @return Default login response
-	 * @throws Exception
-	 */
-	public String login() throws Exception {
-		try {
-			currentCommandTimeout = DEFAULT_TIMEOUT;
-
-			executor = Executors.newCachedThreadPool();
-
-			initSSHProvider();
-
-			pr("Using SSH library: " + sshClient.getProviderName());
-
-			sshClient.login(host, userName, password);
-
-			fromServer = new BufferedReader(new InputStreamReader(sshClient
-					.getInputStream()));
-			toServer = new BufferedWriter(new OutputStreamWriter(sshClient
-					.getOutputStream()));
-
-			runStdoutAnalyzerJob(DEFAULT_TIMEOUT);
-
-			return g_lastCommandOutput;
-
-		} catch (Exception e) {
-			logout(); // will auto cleanup
-			throw e;
-		}
-	}
-
-	/**
-	 * Logout and close the session.
-	 */
-	public void logout() {
-		try {
-			if (fromServer != null)
-				fromServer.close();
-		} catch (Exception ignore) {
-		}
-
-		try {
-			if (toServer != null)
-				toServer.close();
-		} catch (Exception ignore) {
-		}
-
-		sshClient.logout();
-
-		executor.shutdownNow();
-	}
-
-	private void send(String command) throws IOException {
-		toServer.write(command + "\r");
-		toServer.flush();
-		lastCommand = command;
-	}
-
-	/**
-	 * Transfers fileContent to folder using JSch
-	 * @param fileContent
-	 * @param folder
-	 * @param fileName
-	 */
-	public void transferContent(String fileContent, String folder, String fileName) {
-		String SFTPHOST = host;
-		int SFTPPORT = 22;
-		String SFTPUSER = userName;
-		String SFTPPASS = password;
-		String SFTPWORKINGDIR = folder;
-
-		Session session = null;
-		Channel channel = null;
-		ChannelSftp channelSftp = null;
-
-		try {
-			JSch jsch = new JSch();
-			session = jsch.getSession(SFTPUSER, SFTPHOST, SFTPPORT);
-			session.setPassword(SFTPPASS);
-			java.util.Properties config = new java.util.Properties();
-			config.put("StrictHostKeyChecking", "no");
-			session.setConfig(config);
-			session.connect();
-			channel = session.openChannel("sftp");
-			channel.connect();
-			channelSftp = (ChannelSftp) channel;
-			channelSftp.cd(SFTPWORKINGDIR);
-			channelSftp.put(new ByteArrayInputStream(fileContent.getBytes()), fileName, ChannelSftp.OVERWRITE);
-			channelSftp.disconnect();
-			session.disconnect();
-		} catch (Exception ex) {
-			ex.printStackTrace();
-		}
-	}
-}
+package org.pxu.tools.ssh;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.pxu.tools.ssh.metrics.ShellMetrics;
+import org.pxu.tools.ssh.parse.Lines;
+import org.pxu.tools.ssh.providers.ApacheSSHProvider;
+import org.pxu.tools.ssh.providers.JSchFileTransfer;
+import org.pxu.tools.ssh.providers.JSchSessions;
+import org.pxu.tools.ssh.providers.JShellProvider;
+import org.pxu.tools.ssh.providers.SSHToolsProvider;
+import org.pxu.tools.ssh.sink.OutputSinks;
+
+/**
+ * 
+ * Utility for interacting with Unix Shell
+ * 
+ * An example usage with javascript is given below
+ * 
+ * <pre>
+ * importPackage(org.pxu.tools.ssh);
+ * 
+ * var shell = UnixShell(&quot;ip-address&quot;, &quot;root&quot;, &quot;*****&quot;);
+ * var response;
+ * 
+ * response = shell.login();
+ * println(&quot;Login-&gt;&quot; + response);
+ * response = shell.exec(&quot;pwd&quot;);
+ * println(&quot;Current Directory-&gt;&quot; + response);
+ * response = shell.logout();
+ * </pre>
+ * 
+ * @author Prabhu Periasamy
+ * @email praboop@gmail.com
+ * @see Usage examples in test package
+ */
+public class UnixShell {
+
+	private String lastCommand = "";
+
+	public static enum SSHLibraryProvider {
+		JSCH, SSHTOOLS, APACHE;
+
+		private SSHClientLibrary newInstance() {
+			//System.out.println("The current object :" + this);
+			switch (this) {
+				case JSCH:
+					return new JShellProvider();
+				case SSHTOOLS:
+					return new SSHToolsProvider();
+				case APACHE:
+					return new ApacheSSHProvider();
+				default:
+					return null;
+			}
+		}
+	};
+
+	/**
+	 * How the stdout analyzer waits for server output.
+	 */
+	public static enum AnalyzerMode {
+		/**
+		 * Checks for available output once a second. Works with every provider.
+		 */
+		POLLING,
+		/**
+		 * Blocks on the provider stream and matches as soon as bytes arrive.
+		 */
+		EVENT_DRIVEN
+	};
+
+	private SSHClientLibrary sshClient;
+	private SSHLibraryProvider sshProvider = SSHLibraryProvider.JSCH;
+	private boolean customLibrary; // given as instance, not by provider
+
+	private AnalyzerMode analyzerMode = AnalyzerMode.POLLING;
+
+	private String CMDPROMPT = "admin:";
+
+	private OutputDecoder fromServer;
+
+	private Charset charset = Charset.defaultCharset();
+
+	/**
+	 * Read block shared by the analyzer jobs of this shell, which run one at a
+	 * time
+	 */
+	private final char[] chunkRead = new char[2048]; // 2KB read block
+
+	private static final char[] NEWLINE = { '\n' };
+
+	private BufferedWriter toServer;
+
+	private String userName, host, password;
+
+	private Integer DEFAULT_TIMEOUT = 30, currentCommandTimeout = 0;
+
+	private ExecutorService executor;
+	private ExecutorService sharedExecutor; // injected, not ours to shut down
+	private volatile boolean loggedIn;
+	private ShellMetrics metrics; // of host and provider, set on login
+	private CommandOutput g_lastCommandOutput;
+
+	private int outputMemoryLimit = 1024 * 1024; // chars per command
+
+	private static volatile OutputSink defaultSink = OutputSinks.console();
+	private OutputSink sink; // null for the default
+
+	private Map<String, Response> patternToLookForMap = new HashMap<String, Response>();
+
+	/**
+	 * Completes when the last queued request has finished with the server
+	 * streams. Requests run one after the other.
+	 */
+	private CompletableFuture<?> lastRequest = CompletableFuture.completedFuture(null);
+	private final Object requestLock = new Object();
+	private volatile CompletableFuture<?> runningRequest;
+	private volatile StdoutAnalayzerJob currentJob;
+	private boolean outputPushed; // the library tells outputListener
+
+	/**
+	 * Reads pushed output into the current job on the I/O thread of the
+	 * library
+	 */
+	private final OutputListener outputListener = new OutputListener() {
+		public void outputAvailable() {
+			StdoutAnalayzerJob job = currentJob;
+			if (job != null)
+				job.poll(false);
+		}
+
+		public void closed() {
+			StdoutAnalayzerJob job = currentJob;
+			if (job != null)
+				job.poll(true);
+		}
+	};
+
+	/** Fires command timeouts for all shells */
+	private static final HashedWheelTimer timer = HashedWheelTimer.shared();
+
+	private int totalTimeout, idleTimeout; // seconds, 0 for no limit
+	private volatile long requestStartNanos;
+
+	/** Runs {@link #loginAsync()} handshakes */
+	private static final ExecutorService loginExecutor = Executors
+			.newCachedThreadPool(daemonThreads("UnixShell-login"));
+
+	/**
+	 * Compiled matchers shared by all shells, keyed by their sorted
+	 * expectations. Most commands only wait for the prompt.
+	 */
+	private static final Map<List<String>, MultiPatternMatcher<String>> matcherCache = Collections
+			.synchronizedMap(new LinkedHashMap<List<String>, MultiPatternMatcher<String>>(
+					16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<List<String>, MultiPatternMatcher<String>> eldest) {
+					return size() > 64;
+				}
+			});
+
+	class Response {
+		private String expect;
+		private boolean regExp;
+		private String userResp;
+		private Integer timeout;
+		private Pattern pattern; // compiled on first use, the analyzer needs none
+
+		Response(String expect, String userResp, Integer timeout, boolean regExp) {
+			this.expect = expect;
+			this.regExp = regExp;
+			this.userResp = userResp;
+			this.timeout = timeout;
+		}
+
+		public String getUserResponse() {
+			return this.userResp;
+		}
+
+		public Integer getTimeout() {
+			return this.timeout;
+		}
+
+		public boolean isPatternFound(String source) {
+			if (pattern == null)
+				pattern = Pattern.compile((regExp) ? expect : Pattern
+						.quote(expect), Pattern.MULTILINE);
+			return this.pattern.matcher(source).find();
+		}
+
+		public String getExpect() {
+			return this.expect;
+		}
+
+		public boolean isRegularExpression() {
+			return this.regExp;
+		}
+	}
+
+	/**
+	 * @return Output of the last command as one String. For large outputs
+	 *         prefer {@link #getLastCommandCapture()}.
+	 */
+	public String getLastCommandOutput() {
+		return (g_lastCommandOutput == null) ? null : g_lastCommandOutput
+				.toString();
+	}
+
+	/**
+	 * @return Output of the last command, readable without copying it into
+	 *         one String. Valid until the next command or logout.
+	 */
+	public CommandOutput getLastCommandCapture() {
+		return g_lastCommandOutput;
+	}
+
+	/**
+	 * @return The lines of the output of the last command, read lazily from
+	 *         its capture, without the prompt
+	 * @see CommandOutput#lines()
+	 */
+	public Stream<CharSequence> getLastCommandLines() throws IOException {
+		CommandOutput output = g_lastCommandOutput;
+		return (output == null) ? Stream.<CharSequence> empty() : output
+				.lines();
+	}
+
+	/**
+	 * Sets how many chars of a command's output are kept in memory. The rest
+	 * is written to a temp file. Default is 1M chars.
+	 * 
+	 * @param chars
+	 */
+	public void setOutputMemoryLimit(int chars) {
+		this.outputMemoryLimit = chars;
+	}
+
+	private void setLastCommandOutput(CommandOutput output) {
+		if (g_lastCommandOutput != null)
+			g_lastCommandOutput.close();
+		g_lastCommandOutput = output;
+	}
+
+	/**
+	 * Record a input action that will be executed when a specific string is found in remote shell response.
+	 * 
+	 * @param expect
+	 *            - The string that is expected to be found in the server
+	 *            output.
+	 * @param isExpectRE
+	 *            - If true then expect parameter is interpreted as regular expression.
+	 *              If false then expect parameter is considered as a plain string that will be searched in response for match.
+	 * @param response
+	 *            - The response that should be sent to the server.
+	 * @param timeout
+	 *            - Expected seconds the server would take to process the
+	 *            response
+	 * 
+	 * @return Response object
+	 */
+	public Response recordInput(String expect, boolean isExpectRE, String response, Integer timeout) {
+		Response r = new Response(expect, response, timeout, isExpectRE);
+		patternToLookForMap.put(expect, r);
+		return r;
+	}
+	
+	/**
+	 * @param expect
+	 * 			- The plain string (no regular expression) that is expected to be found in the server output.
+	 * @param response
+	 * 			- The response that would be sent to the server.
+	 * @param timeout
+	 * 			- The time it would normally take to find this match.
+	 * 
+	 * @see also #recordInput(String, boolean, String, Integer)
+	 * @return Response containing server output
+	 */
+	public Response recordInput(String expect, String response, Integer timeout) {
+		return recordInput(expect, false, response, timeout);
+	}
+
+	/**
+	 * Record a input action that will be executed when a specific string is found in remote shell response.
+	 * 
+	 * @param expect
+	 *            - The string that is expected to be found in the server 
+	 *            output.
+	 * @param response
+	 *            - The response that should be sent to the server.
+	 * 
+	 * @return Response object
+	 */
+	public Response recordInput(String expect, String response) {
+		return this.recordInput(expect, false, response, DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * Stop shell output interpretation loop and return to the callee when the 
+	 * expect string is found in remote shell response.
+	 * 
+	 * @param expect
+	 *            - The string that is expected to be found in the server
+	 *            output.
+	 * @return Response object
+	 */
+	public Response recordNoInput(String expect) {
+		return this.recordInput(expect, false, "", DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * Sets the shell command prompt. This should be a regular expression. Default is <code>admin:</code>
+	 * 
+	 * @param prompt
+	 */
+	public void setCommandPrompt(String prompt) {
+		this.CMDPROMPT = prompt;
+	}
+	
+
+	/**
+	 * Runs the stdout analyzer of this shell on a shared executor instead of
+	 * a thread pool of its own. With thousands of shells use
+	 * {@link ShellExecutors#virtualThreads()}, or {@link ShellExecutors#shared()}
+	 * on older JVMs, so that idle shells hold no thread (see there for the
+	 * limits of EVENT_DRIVEN mode). The executor is not shut down on logout.
+	 * Call this method before login.
+	 * 
+	 * @param executor
+	 *            Shared executor, null for a pool per shell (the default)
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.sharedExecutor = executor;
+	}
+
+	/**
+	 * Sets the encoding of the server output and of the commands sent. Default
+	 * is the platform encoding. Call this method before login.
+	 * 
+	 * @param charset
+	 */
+	public void setCharset(Charset charset) {
+		this.charset = charset;
+	}
+
+	/**
+	 * Sets how the stdout analyzer waits for server output. Default is
+	 * {@link AnalyzerMode#POLLING}. With {@link AnalyzerMode#EVENT_DRIVEN}
+	 * a command returns as soon as its pattern is seen instead of on the
+	 * next one second poll. Libraries that push output, such as
+	 * {@link SSHLibraryProvider#APACHE}, ignore the mode: patterns are
+	 * matched on their I/O threads as output arrives, and only streamed
+	 * commands use a thread.
+	 * 
+	 * @param mode
+	 */
+	public void setAnalyzerMode(AnalyzerMode mode) {
+		this.analyzerMode = mode;
+	}
+
+	public AnalyzerMode getAnalyzerMode() {
+		return analyzerMode;
+	}
+
+	/**
+	 * @return Returns command timeout in seconds
+	 */
+	public int getDefaultTimeout() {
+		return DEFAULT_TIMEOUT;
+	}
+
+	/**
+	 * Sets default command time out for each operation
+	 * 
+	 * @param seconds
+	 */
+	public void setDefaultTimeout(int seconds) {
+		this.DEFAULT_TIMEOUT = seconds;
+	}
+
+	/**
+	 * Seconds a command may take over all its steps, on top of the timeout of
+	 * each step. Default 0, no limit.
+	 */
+	public void setTotalTimeout(int seconds) {
+		this.totalTimeout = seconds;
+	}
+
+	/**
+	 * Seconds a command may go without output before it is stopped. Time
+	 * spent waiting for a streaming subscriber does not count. Default 0, no
+	 * limit.
+	 */
+	public void setIdleTimeout(int seconds) {
+		this.idleTimeout = seconds;
+	}
+
+	/**
+	 * Constructor to initialize host info
+	 * 
+	 * @param host
+	 *            Name or address, followed by ":port" if sshd does not listen
+	 *            on port 22
+	 * @param userName
+	 * @param password
+	 */
+	public UnixShell(String host, String userName, String password) {
+		this.host = host;
+		this.userName = userName;
+		this.password = password;
+	}
+	
+	/**
+	 * Enable or disable Sysouts of shells without a sink of their own
+	 * @param print
+	 */
+	public static void printEnable(boolean print) {
+		defaultSink = print ? OutputSinks.console() : OutputSinks.none();
+	}
+
+	/**
+	 * Sets where this shell logs and copies the server output. Default is
+	 * System.out, see {@link #printEnable(boolean)}. The sink is shared with
+	 * shells from {@link #openChannel()} and not closed on logout.
+	 * 
+	 * @param sink
+	 *            See {@link OutputSinks}, null for the default
+	 */
+	public void setOutputSink(OutputSink sink) {
+		this.sink = sink;
+	}
+
+	private OutputSink sink() {
+		OutputSink s = sink;
+		return (s != null) ? s : defaultSink;
+	}
+
+	private String source() {
+		return userName + "@" + host;
+	}
+
+	private void pr(String log) {
+		sink().log(source(), System.currentTimeMillis(), log);
+	}
+
+	private void prCont(char[] log, int length) {
+		sink().output(source(), log, 0, length);
+	}
+
+	/**
+	 * Executes a command remotely and sends the output
+	 * 
+	 * @param command
+	 * @param timeout
+	 *            Maximum time to wait for command completion in seconds.
+	 * @return A string that was found in the server output to indicate command
+	 *         completion
+	 * @throws Exception
+	 */
+	public String exec(String command, Integer timeout) throws Exception {
+		return await(execAsync(command, timeout));
+	}
+
+	/**
+	 * Queues a command and returns without waiting for it. The inputs recorded
+	 * so far belong to this command; recording for the next one can start
+	 * right away. Commands run in the order they were queued.
+	 * 
+	 * Cancelling the returned future stops the command at once if it is
+	 * running, or drops it if it is still queued.
+	 * 
+	 * @param command
+	 *            Command to execute
+	 * @param timeout
+	 *            Seconds to wait for each expected response
+	 * @return Completes with the string that indicated command completion
+	 */
+	public CompletableFuture<String> execAsync(final String command,
+			final Integer timeout) {
+		currentCommandTimeout = timeout;
+		final Map<String, Response> patterns = takeRecordedPatterns();
+		return enqueue(new Callable<CompletableFuture<String>>() {
+			public CompletableFuture<String> call() throws Exception {
+				return step(command, timeout, patterns);
+			}
+		});
+	}
+
+	/**
+	 * Sends one input and analyzes the reply, then sends the input recorded
+	 * for the pattern that was found until one has none.
+	 */
+	private CompletableFuture<String> step(String userResponse,
+			Integer timeout, final Map<String, Response> patterns)
+			throws IOException {
+		checkCancelled();
+		pr("Sending \"" + userResponse + "\"");
+		send(userResponse);
+		return analyze(timeout, matcherFor(patterns)).thenCompose(job -> {
+			String found = (String) job.getMatch();
+			Response nextResponse = (found == null) ? null : patterns
+					.remove(found);
+			if (nextResponse == null)
+				throw new CompletionException(new Exception(
+						"None of the defined patterns was found in stdout. The remaining patterns are: "
+								+ patterns.keySet()));
+			if (nextResponse.getUserResponse().isEmpty())
+				return CompletableFuture.completedFuture(found);
+			currentCommandTimeout = nextResponse.getTimeout();
+			try {
+				return step(nextResponse.getUserResponse(),
+						nextResponse.getTimeout(), patterns);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		});
+	}
+
+	/**
+	 * Sends a command and carries on the conversation of a compiled script.
+	 * Inputs recorded with {@link #recordInput} are not used and stay
+	 * recorded for the next command.
+	 * 
+	 * @param command
+	 *            Command to execute
+	 * @param script
+	 *            Shared by any number of shells
+	 * @return The expect string, or the prompt, that ended the conversation
+	 * @throws Exception
+	 */
+	public String exec(String command, ExpectScript script) throws Exception {
+		return await(execAsync(command, script));
+	}
+
+	/**
+	 * Queues a command with a compiled script
+	 * 
+	 * @see #exec(String, ExpectScript)
+	 */
+	public CompletableFuture<String> execAsync(final String command,
+			final ExpectScript script) {
+		return enqueue(new Callable<CompletableFuture<String>>() {
+			public CompletableFuture<String> call() throws Exception {
+				return scriptStep(command, script.getTimeout(), script,
+						script.initialState(), 0);
+			}
+		});
+	}
+
+	/**
+	 * Sends one input and analyzes the reply for the patterns of state, then
+	 * follows the transition that was found
+	 * 
+	 * @param steps
+	 *            - Replies to expectations sent so far, the command not
+	 *            counted
+	 */
+	private CompletableFuture<String> scriptStep(String input, int timeout,
+			final ExpectScript script, final ExpectScript.State state,
+			final int steps) throws IOException {
+		checkCancelled();
+		pr("Sending \"" + input + "\"");
+		send(input);
+		String prompt = (script.getPrompt() != null) ? script.getPrompt()
+				: CMDPROMPT;
+		return analyze(timeout, state.matcher(prompt)).thenCompose(job -> {
+			ExpectScript.Transition found = (ExpectScript.Transition) job
+					.getMatch();
+			if (found == null)
+				throw new CompletionException(new Exception(
+						"None of the patterns of state " + state
+								+ " was found in stdout: "
+								+ state.getTransitions()));
+			if (found.isEnd())
+				return CompletableFuture.completedFuture(found.expect);
+			if (steps >= script.getMaxSteps())
+				throw new CompletionException(new Exception("Script sent "
+						+ steps + " replies without reaching the prompt"));
+			try {
+				return scriptStep(found.send, found.timeout, script,
+						script.state(found.next), steps + 1);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		});
+	}
+
+	/**
+	 * Sends a command and hands its output to subscriber while it runs,
+	 * instead of collecting it for {@link #getLastCommandOutput()}. The
+	 * server is read only as fast as subscriber requests output; a command
+	 * writing faster waits once the buffers of the SSH channel are full.
+	 * Inputs recorded with {@link #recordInput} are not used and stay
+	 * recorded for the next command.
+	 * 
+	 * <pre>
+	 * shell.execStreaming(&quot;tail -f /var/log/messages&quot;, 0,
+	 * 		new OutputSubscriber() {...}).get();
+	 * </pre>
+	 * 
+	 * @param command
+	 *            Command to execute
+	 * @param timeout
+	 *            Seconds the command may run, 0 for no limit
+	 * @param subscriber
+	 *            Receives the output; cancelling its subscription stops the
+	 *            command with Ctrl-C. It is subscribed and told of the error
+	 *            also when the command cannot be sent.
+	 * @return Completes with the prompt once the command has ended, also
+	 *         when it was stopped by the subscriber
+	 */
+	public CompletableFuture<String> execStreaming(final String command,
+			final Integer timeout, final OutputSubscriber subscriber) {
+		return enqueue(new Callable<CompletableFuture<String>>() {
+			public CompletableFuture<String> call() throws Exception {
+				try {
+					checkCancelled();
+					pr("Streaming \"" + command + "\"");
+					send(command);
+				} catch (Exception e) { // the subscriber still hears of it
+					StreamDemand unsent = new StreamDemand(subscriber,
+							command, null);
+					unsent.subscribe();
+					unsent.finish(null, e);
+					throw e;
+				}
+				final StreamDemand stream = new StreamDemand(subscriber,
+						command, new Runnable() {
+							public void run() {
+								sendInterrupt();
+							}
+						});
+				stream.subscribe();
+				return analyze(timeout,
+						matcherFor(new HashMap<String, Response>()), null,
+						stream).handle(
+						(job, error) -> stream.finish((job == null) ? null
+								: (String) job.getMatch(), (error == null) ? null
+								: unwrap(error)));
+			}
+		});
+	}
+
+	/**
+	 * Sends a command and returns the lines of its output as they arrive.
+	 * Reading the stream drives the command: the server is read only as fast
+	 * as lines are consumed, and closing the stream early stops the command
+	 * with Ctrl-C. Close the stream when done, e.g. with try-with-resources.
+	 * 
+	 * @param command
+	 *            Command to execute
+	 * @param timeout
+	 *            Seconds the command may run, 0 for no limit
+	 * @return Lines without the echo of the command and the prompt
+	 * @see org.pxu.tools.ssh.parse.RecordParser
+	 */
+	public Stream<CharSequence> execLines(final String command,
+			final Integer timeout) {
+		return Lines.streamed(s -> execStreaming(command, timeout, s));
+	}
+
+	private void checkCancelled() {
+		CompletableFuture<?> request = runningRequest;
+		if (request != null && request.isCancelled())
+			throw new CancellationException();
+	}
+
+	/**
+	 * Runs a batch of commands with a single write and returns once all are
+	 * done, instead of waiting for the prompt after each one.
+	 * 
+	 * @param commands
+	 *            Non-interactive commands, run one after the other even if one
+	 *            fails
+	 * @param timeout
+	 *            Seconds to wait for the whole batch
+	 * @return One result per command with its output and exit code. Stderr
+	 *         is part of the output, as in the terminal.
+	 * @throws Exception
+	 */
+	public List<ExecResult> execBatch(List<String> commands, Integer timeout)
+			throws Exception {
+		return await(execBatchAsync(commands, timeout));
+	}
+
+	/**
+	 * Queues a batch of commands
+	 * 
+	 * @see #execBatch(List, Integer)
+	 */
+	public CompletableFuture<List<ExecResult>> execBatchAsync(
+			final List<String> commands, final Integer timeout) {
+		final SentinelDemultiplexer demux = new SentinelDemultiplexer(commands);
+		return enqueue(new Callable<CompletableFuture<List<ExecResult>>>() {
+			public CompletableFuture<List<ExecResult>> call() throws Exception {
+				pr("Sending batch of " + commands.size() + " commands");
+				send(demux.script());
+				return analyze(timeout,
+						matcherFor(new HashMap<String, Response>()), demux, null)
+						.thenApply(job -> {
+							if (!demux.isComplete())
+								throw new CompletionException(new Exception(
+										"Batch ended after "
+												+ demux.getResults().size()
+												+ " of " + commands.size()
+												+ " commands"));
+							return demux.getResults();
+						});
+			}
+		});
+	}
+
+	/**
+	 * @return The recorded patterns, leaving none recorded
+	 */
+	private Map<String, Response> takeRecordedPatterns() {
+		Map<String, Response> patterns = new HashMap<String, Response>(
+				patternToLookForMap);
+		patternToLookForMap.clear(); // Patterns belong to this request now
+		return patterns;
+	}
+
+	/**
+	 * Runs request after all earlier requests have let go of the server
+	 * streams.
+	 */
+	private <T> CompletableFuture<T> enqueue(
+			final Callable<CompletableFuture<T>> request) {
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		final CompletableFuture<Void> released = new CompletableFuture<Void>();
+		CompletableFuture<?> previous;
+		synchronized (requestLock) {
+			previous = lastRequest;
+			lastRequest = released;
+		}
+		previous.whenComplete((ignore, ignoreError) -> {
+			if (result.isDone()) { // cancelled while queued
+				released.complete(null);
+				return;
+			}
+			runningRequest = result;
+			requestStartNanos = System.nanoTime();
+			CompletableFuture<T> running;
+			try {
+				running = request.call();
+			} catch (Throwable e) {
+				running = new CompletableFuture<T>();
+				running.completeExceptionally(e);
+			}
+			running.whenComplete((value, error) -> {
+				runningRequest = null;
+				if (error != null)
+					result.completeExceptionally(unwrap(error));
+				else
+					result.complete(value);
+				released.complete(null);
+			});
+		});
+		result.whenComplete((value, error) -> {
+			if (result.isCancelled() && runningRequest == result) {
+				StdoutAnalayzerJob job = currentJob;
+				if (job != null)
+					job.cancel();
+			}
+		});
+		return result;
+	}
+
+	private static Throwable unwrap(Throwable e) {
+		while (e instanceof CompletionException && e.getCause() != null)
+			e = e.getCause();
+		return e;
+	}
+
+	/**
+	 * Waits for a request, cancelling it if the caller is interrupted
+	 */
+	private static <T> T await(CompletableFuture<T> request) throws Exception {
+		try {
+			return request.get();
+		} catch (InterruptedException e) {
+			request.cancel(true);
+			throw e;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Runs a non-interactive command on an exec channel. No prompt is matched
+	 * and recorded inputs are not used: the command is done when the server
+	 * closes the channel, and its exit code and stderr are returned apart from
+	 * stdout. Call after login.
+	 * 
+	 * @param command
+	 * @param timeout
+	 *            Seconds to wait for the command to finish
+	 * @return Output and exit code of the command
+	 * @throws Exception
+	 */
+	public ExecResult runCommand(String command, int timeout) throws Exception {
+		if (sshClient == null)
+			throw new IllegalStateException("Not logged in");
+		pr("Running \"" + command + "\"");
+		return sshClient.execCommand(command, timeout, charset);
+	}
+
+	/**
+	 * Runs a non-interactive command with default timeout
+	 * 
+	 * @see #runCommand(String, int)
+	 */
+	public ExecResult runCommand(String command) throws Exception {
+		return runCommand(command, DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * Executes a command on remote server with default timeout
+	 * 
+	 * @param command
+	 * @return A string that was found in the server output to indicate command
+	 *         completion
+	 * @throws Exception
+	 * @see {@link #getDefaultTimeout()}
+	 */
+	public String exec(String command) throws Exception {
+		return this.exec(command, currentCommandTimeout);
+	}
+
+	public static void printException(Object e) {
+		((Exception) e).printStackTrace();
+	}
+
+	/**
+	 * Waits until a specific pattern of string is found in the result of
+	 * command execution.
+	 * 
+	 * @author Prabhu Periasamy
+	 * 
+	 */
+	class StdoutAnalayzerJob implements Runnable {
+		private final MultiPatternMatcher<?> matcher;
+		private final String command = lastCommand;
+		private final Integer timeout;
+
+		/**
+		 * Completes once the job no longer touches the server stream
+		 */
+		private final CompletableFuture<StdoutAnalayzerJob> finished = new CompletableFuture<StdoutAnalayzerJob>();
+		private Thread runner;
+		private boolean started, cancelled; // guarded by this
+		private String timeoutReason; // guarded by this, set on timeout
+
+		private CommandOutput entireStdout = new CommandOutput(outputMemoryLimit);
+		private int slidingWindowSize = 2048; // Window range to scan for a
+												// pattern
+		private MultiPatternMatcher<?>.Scanner scanner;
+		private final SentinelDemultiplexer demux;
+		private final StreamDemand stream; // gets output, not entireStdout
+		private final boolean pushed; // run by outputListener, no thread
+		private boolean ended; // guarded by this, pushed jobs only
+
+		private Object match; // key of the expectation found
+
+		private volatile boolean terminateJob = false;
+
+		private final long sentNanos = System.nanoTime(); // created after send
+		private volatile long lastOutputNanos = sentNanos;
+		private volatile boolean awaitingDemand; // the subscriber is slow
+		private final int totalTimeout = UnixShell.this.totalTimeout;
+		private final int idleTimeout = UnixShell.this.idleTimeout;
+		private volatile HashedWheelTimer.Timeout deadline;
+		private boolean outputSeen;
+		private long scanNanos;
+
+		public StdoutAnalayzerJob(MultiPatternMatcher<?> matcher,
+				Integer timeout, SentinelDemultiplexer demux,
+				StreamDemand stream) {
+			this.matcher = matcher;
+			this.timeout = timeout;
+			this.demux = demux;
+			this.stream = stream;
+			// a stream waits for demand, which takes a thread
+			this.pushed = outputPushed && stream == null;
+		}
+
+		/**
+		 * Appends the stdout that is currently generated into a local
+		 * StringBuffer Updates the sliding window (contains stdout) for pattern
+		 * scan
+		 * 
+		 * @return false on end of stream
+		 * @throws IOException
+		 */
+		private boolean copyAvailableStdout() throws IOException {
+			while (fromServer.ready()) {
+				int n = fromServer.read(chunkRead, 0, chunkRead.length);
+				if (n == -1) { // end of stream
+					return false;
+				}
+				appendStdout(n);
+			}
+			return true;
+		}
+
+		private void appendStdout(int n) throws IOException {
+			lastOutputNanos = System.nanoTime();
+			if (!outputSeen) {
+				outputSeen = true;
+				metrics.recordFirstByte(System.nanoTime() - sentNanos);
+			}
+			int from = 0;
+			if (demux != null && !demux.isComplete())
+				from = demux.feed(chunkRead, 0, n);
+
+			if (match == null && from < n) { // Scan until a pattern is found
+				long scanStart = System.nanoTime();
+				Object found = scanner.feed(chunkRead, from, n - from);
+				scanNanos += System.nanoTime() - scanStart;
+				if (found != null) {
+					metrics.recordPromptMatch(System.nanoTime() - sentNanos);
+					match = found;
+					terminateJob = true;
+				}
+			}
+
+			if (stream != null)
+				stream.deliver(chunkRead, 0, n);
+			else
+				entireStdout.append(chunkRead, 0, n);
+			prCont(chunkRead, n);
+		}
+
+		/**
+		 * Blocks until the server sends something, then copies it along with
+		 * whatever else is already available.
+		 * 
+		 * @return false on end of stream
+		 * @throws IOException
+		 */
+		private boolean awaitStdout() throws IOException {
+			int n = fromServer.read(chunkRead, 0, chunkRead.length);
+			if (n == -1) // end of stream
+				return false;
+			appendStdout(n);
+			if (stream == null) // else one chunk per request
+				copyAvailableStdout();
+			return true;
+		}
+
+		public void run() {
+			try {
+				synchronized (this) {
+					if (!begin())
+						return;
+					runner = Thread.currentThread();
+				}
+
+				boolean eventDriven = stream != null
+						|| analyzerMode == AnalyzerMode.EVENT_DRIVEN;
+				while (!terminateJob) {
+					if (stream != null) {
+						awaitingDemand = true;
+						stream.awaitDemand();
+						lastOutputNanos = System.nanoTime(); // not idle
+						awaitingDemand = false;
+					}
+
+					if (eventDriven) {
+						if (!awaitStdout())
+							break;
+					} else
+						copyAvailableStdout();
+
+					if (!eventDriven && !terminateJob)
+						Thread.sleep(1000);
+				}
+
+				publish();
+
+			} catch (InterruptedException e) {
+				// Cancelled after timeout
+			} catch (InterruptedIOException e) {
+				// Cancelled while blocked on the server stream
+			} catch (Exception e) {
+				pr("Unexpected exception: " + e.getMessage());
+				e.printStackTrace();
+			} finally {
+				synchronized (this) {
+					runner = null;
+					Thread.interrupted(); // keep a late cancel off the pool thread
+				}
+				end();
+				complete();
+			}
+		}
+
+		/**
+		 * @return false if stopped before it started
+		 */
+		private synchronized boolean begin() {
+			if (terminateJob)
+				return false;
+			started = true;
+
+			// All patterns are scanned together in one pass over the output
+			scanner = matcher.newScanner(slidingWindowSize);
+
+			pr("## Response from server ##");
+			return true;
+		}
+
+		/**
+		 * Publishes the entire stdout without the echoed command
+		 */
+		private void publish() {
+			if (entireStdout.startsWith(lastCommand))
+				entireStdout.skip(lastCommand.length());
+			setLastCommandOutput(entireStdout);
+			entireStdout = null;
+		}
+
+		private void end() {
+			if (entireStdout != null) // not published
+				entireStdout.close();
+			if (started)
+				prCont(NEWLINE, 1);
+			if (scanner != null)
+				metrics.recordPatternScan((match == null) ? null : match
+						.toString(), scanNanos);
+		}
+
+		/**
+		 * Starts a pushed job on the caller's thread, reading what has been
+		 * buffered so far
+		 */
+		synchronized void startPushed() {
+			if (begin())
+				poll(false);
+			else
+				endPushed();
+		}
+
+		/**
+		 * Reads the output buffered by the library without waiting for more,
+		 * on its I/O thread. Ends the job once the pattern is found, the
+		 * output has ended or the job was stopped.
+		 * 
+		 * @param closed
+		 *            - The channel closed, no output follows what is buffered
+		 */
+		void poll(boolean closed) {
+			if (!pushed)
+				return; // a thread reads for this job
+			synchronized (this) {
+				if (!started || ended)
+					return;
+				if (!terminateJob) {
+					try {
+						boolean open = true;
+						if (closed) // reads without waiting from now on
+							while (open && !terminateJob)
+								open = awaitStdout();
+						else
+							open = copyAvailableStdout();
+						if (open && !terminateJob)
+							return; // more to come
+						publish();
+					} catch (IOException e) {
+						pr("Unexpected exception: " + e.getMessage());
+						e.printStackTrace();
+					}
+				}
+				endPushed();
+			}
+		}
+
+		/**
+		 * Completes on the executor, as what depends on the job may send the
+		 * next command, which must not block the I/O thread
+		 */
+		private void endPushed() {
+			ended = true;
+			end();
+			try {
+				executor.execute(new Runnable() {
+					public void run() {
+						complete();
+					}
+				});
+			} catch (RejectedExecutionException e) { // logged out
+				complete();
+			}
+		}
+
+		private void complete() {
+			String expired;
+			synchronized (this) {
+				expired = (match == null) ? timeoutReason : null;
+			}
+			if (expired != null) {
+				metrics.recordTimeout();
+				finished.completeExceptionally(new Exception("Timedout ("
+						+ expired + ") after sending command '" + command
+						+ "'."));
+			} else if (isCancelled())
+				finished.completeExceptionally(new CancellationException());
+			else
+				finished.complete(this);
+		}
+
+		/**
+		 * @return Key of the expectation that was found, null if none was
+		 */
+		public Object getMatch() {
+			return match;
+		}
+
+		/**
+		 * Stops the job, interrupting it if it waits on the server
+		 */
+		public void cancel() {
+			synchronized (this) {
+				cancelled = true;
+				stop();
+			}
+		}
+
+		/**
+		 * Stops the job because the command took too long
+		 * 
+		 * @param reason
+		 *            - Which deadline passed, e.g. "30 seconds elapsed"
+		 */
+		void expire(String reason) {
+			synchronized (this) {
+				if (timeoutReason == null)
+					timeoutReason = reason;
+				stop();
+			}
+		}
+
+		private synchronized void stop() {
+			terminateJob = true;
+			if (runner != null)
+				runner.interrupt();
+			if (pushed && started && !ended)
+				endPushed();
+		}
+
+		/**
+		 * Schedules the nearest of the step, total and idle deadlines. Output
+		 * only updates a timestamp; when the idle deadline fires early it
+		 * schedules itself again for the new one. While the job waits for a
+		 * streaming subscriber the idle deadline is pushed back.
+		 */
+		void armDeadline() {
+			if (finished.isDone())
+				return;
+			long now = System.nanoTime(), left = Long.MAX_VALUE;
+			String reason = null;
+			if (timeout != null && timeout > 0) {
+				left = sentNanos + TimeUnit.SECONDS.toNanos(timeout) - now;
+				reason = timeout + " seconds elapsed";
+			}
+			if (totalTimeout > 0) {
+				long l = requestStartNanos
+						+ TimeUnit.SECONDS.toNanos(totalTimeout) - now;
+				if (l < left) {
+					left = l;
+					reason = totalTimeout + " seconds elapsed in total";
+				}
+			}
+			if (idleTimeout > 0) {
+				long idleSince = awaitingDemand ? now : lastOutputNanos;
+				long l = idleSince + TimeUnit.SECONDS.toNanos(idleTimeout)
+						- now;
+				if (l < left) {
+					left = l;
+					reason = "no output for " + idleTimeout + " seconds";
+				}
+			}
+			if (reason == null)
+				return;
+			if (left <= 0) {
+				expire(reason);
+				return;
+			}
+			deadline = timer.schedule(new Runnable() {
+				public void run() {
+					armDeadline();
+				}
+			}, left, TimeUnit.NANOSECONDS);
+		}
+
+		private synchronized boolean isCancelled() {
+			return cancelled;
+		}
+	}
+
+	/**
+	 * Adds the command prompt to patterns, ending the command without input
+	 * 
+	 * @return A matcher for patterns, reporting the expect string found
+	 */
+	private MultiPatternMatcher<String> matcherFor(
+			Map<String, Response> patterns) {
+		if (!patterns.containsKey(CMDPROMPT))
+			patterns.put(CMDPROMPT, new Response(CMDPROMPT, "",
+					DEFAULT_TIMEOUT, true));
+		return compileMatcher(patterns.values());
+	}
+
+	/**
+	 * @return A matcher reporting the expect string of the response that
+	 *         fired
+	 */
+	private static MultiPatternMatcher<String> compileMatcher(
+			Iterable<Response> responses) {
+		List<String> key = new ArrayList<String>();
+		for (Response r : responses)
+			key.add((r.isRegularExpression() ? "R" : "L") + r.getExpect());
+		Collections.sort(key);
+
+		MultiPatternMatcher<String> matcher = matcherCache.get(key);
+		if (matcher == null) {
+			MultiPatternMatcher.Builder<String> builder = MultiPatternMatcher
+					.builder();
+			for (String k : key) {
+				String expect = k.substring(1);
+				builder.add(expect, expect, k.charAt(0) == 'R');
+			}
+			matcher = builder.build();
+			matcherCache.put(key, matcher);
+		}
+		return matcher;
+	}
+
+	public static void sleep(int seconds, String mesg) throws Exception {
+		for (int i = 0; i < seconds; i++) {
+			defaultSink.log("UnixShell", System.currentTimeMillis(), Thread
+					.currentThread().getName()
+					+ " - Running for " + i + " seconds - " + mesg);
+			Thread.sleep(1000);
+		}
+	}
+
+	/**
+	 * Starts a job analyzing the server output for patterns
+	 * 
+	 * @return Completes with the job once it has stopped reading, or with an
+	 *         exception on timeout
+	 */
+	private CompletableFuture<StdoutAnalayzerJob> analyze(Integer timeout,
+			MultiPatternMatcher<?> matcher) {
+		return analyze(timeout, matcher, null, null);
+	}
+
+	/**
+	 * @param demux
+	 *            Reads the output of a batch first; patterns are looked for
+	 *            after its last marker only. May be null.
+	 * @param stream
+	 *            Receives the output instead of the last command output, read
+	 *            as it requests. May be null.
+	 */
+	private CompletableFuture<StdoutAnalayzerJob> analyze(Integer timeout,
+			MultiPatternMatcher<?> matcher, SentinelDemultiplexer demux,
+			StreamDemand stream) {
+		final StdoutAnalayzerJob job = new StdoutAnalayzerJob(matcher,
+				timeout, demux, stream);
+		currentJob = job;
+		if (job.pushed)
+			job.startPushed();
+		else
+			executor.execute(job);
+		job.armDeadline(); // a timeout of 0 for streamed commands: no limit
+		job.finished.whenComplete((j, e) -> {
+			HashedWheelTimer.Timeout deadline = job.deadline;
+			if (deadline != null)
+				deadline.cancel();
+		});
+		return job.finished;
+	}
+
+	private static ThreadFactory daemonThreads(final String name) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * Checks if a host is reachable. InetAddress.isReachable does not work
+	 * because it uses ICMP ECHO request which is blocked, so this connects to
+	 * the SSH port instead. Takes at most the connect timeout of
+	 * {@link ReachabilityProbe#shared()}; a result of the last few seconds is
+	 * reused.
+	 * 
+	 * @return true if the SSH port accepts connections
+	 */
+	public boolean doPing() {
+		try {
+			return ReachabilityProbe.shared().isReachable(host);
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Attempts to login and return status of login
+	 * 
+	 * @param suppressError
+	 * @return true if login success
+	 */
+	public boolean login(boolean suppressError) {
+		try {
+
+			if (!doPing()) // Ping has failed
+				return false;
+
+			login();
+			return true;
+		} catch (Exception e) {
+			if (!suppressError)
+				e.printStackTrace();
+			return false;
+		}
+	}
+
+	private void initSSHProvider() {
+		if (sshClient == null) {
+			sshClient = SSHLibraryProvider.JSCH.newInstance();
+		}
+	}
+
+	/**
+	 * Set what SSH library will be used by the underlying shell. Default
+	 * library is SSHTools. Call this method before login.
+	 * 
+	 * @param provider
+	 *            See @link SSHLibraryProvider
+	 */
+	public void initSSHProvider(SSHLibraryProvider provider) {
+		
+		if (sshClient != null) {
+			pr("SSH library Name: " + sshClient.getProviderName());
+			sshClient.logout();
+			pr("SSH Client After logout ");
+			sshClient = null;
+		}
+		pr("sshclient initially is null");
+		//pr("provider object passed is:" + provider);
+		//pr("provider passed is:" + provider.toString());
+		sshProvider = provider;
+		sshClient = provider.newInstance();
+		customLibrary = false;
+		//sshClient = new JShellProvider();
+		pr("Using SSH library: " + sshClient);
+	}
+
+	/**
+	 * Uses a library instance of the caller, e.g. a
+	 * {@link org.pxu.tools.ssh.providers.RecordingProvider} or
+	 * {@link org.pxu.tools.ssh.providers.ReplayProvider}. Call this method
+	 * before login.
+	 * 
+	 * @param library
+	 *            Not logged in yet
+	 */
+	public void initSSHProvider(SSHClientLibrary library) {
+		if (sshClient != null)
+			sshClient.logout();
+		sshClient = library;
+		customLibrary = true;
+		pr("Using SSH library: " + library.getProviderName());
+	}
+
+	/**
+	 * Login to the server and return response
+	 * 
+	 * @return Default login response
+	 * @throws Exception
+	 */
+	public String login() throws Exception {
+		try {
+			currentCommandTimeout = DEFAULT_TIMEOUT;
+
+			executor = (sharedExecutor != null) ? sharedExecutor : Executors
+					.newCachedThreadPool();
+
+			initSSHProvider();
+
+			pr("Using SSH library: " + sshClient.getProviderName());
+
+			metrics = ShellMetrics.of(host, customLibrary ? sshClient
+					.getProviderName() : sshProvider.name());
+			outputPushed = sshClient.setOutputListener(outputListener);
+			long loginStart = System.nanoTime();
+			sshClient.login(host, userName, password);
+			metrics.recordLogin(System.nanoTime() - loginStart);
+
+			fromServer = new OutputDecoder(metrics.countReads(sshClient
+					.getInputStream()), charset, 8192);
+			toServer = new BufferedWriter(new OutputStreamWriter(metrics
+					.countWrites(sshClient.getOutputStream()), charset));
+			loggedIn = true;
+
+			synchronized (requestLock) {
+				lastRequest = CompletableFuture.completedFuture(null);
+			}
+			final Map<String, Response> patterns = takeRecordedPatterns();
+			await(enqueue(new Callable<CompletableFuture<StdoutAnalayzerJob>>() {
+				public CompletableFuture<StdoutAnalayzerJob> call() {
+					return analyze(DEFAULT_TIMEOUT, matcherFor(patterns));
+				}
+			}));
+
+			return getLastCommandOutput();
+
+		} catch (Exception e) {
+			logout(); // will auto cleanup
+			throw e;
+		}
+	}
+
+	/**
+	 * Logs in on a shared background thread
+	 * 
+	 * @return Completes with the default login response
+	 * @see #login()
+	 */
+	public CompletableFuture<String> loginAsync() {
+		final CompletableFuture<String> result = new CompletableFuture<String>();
+		loginExecutor.execute(new Runnable() {
+			public void run() {
+				try {
+					result.complete(login());
+				} catch (Throwable e) {
+					result.completeExceptionally(e);
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Logout and close the session.
+	 */
+	public void logout() {
+		try {
+			if (fromServer != null)
+				fromServer.close();
+		} catch (Exception ignore) {
+		}
+
+		try {
+			if (toServer != null)
+				toServer.close();
+		} catch (Exception ignore) {
+		}
+
+		if (sshClient != null)
+			sshClient.logout();
+
+		loggedIn = false;
+		if (executor != null && executor != sharedExecutor)
+			executor.shutdownNow();
+		StdoutAnalayzerJob job = currentJob;
+		if (job != null)
+			job.cancel(); // pushed jobs and those of a shared executor
+
+
+		setLastCommandOutput(null);
+	}
+
+	/**
+	 * Checks the session with a prompt round trip: sends an empty line and
+	 * waits for the command prompt.
+	 * 
+	 * @param timeout
+	 *            Seconds to wait for the prompt
+	 * @return true if the prompt came back
+	 */
+	public boolean isAlive(final int timeout) {
+		if (toServer == null || !loggedIn)
+			return false;
+		try {
+			return await(enqueue(new Callable<CompletableFuture<String>>() {
+				public CompletableFuture<String> call() throws Exception {
+					return step("", timeout, new HashMap<String, Response>());
+				}
+			})) != null;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public String getUserName() {
+		return userName;
+	}
+
+	/**
+	 * Opens another conversation with the same host, logged in and configured
+	 * like this one. With JSch it is a new channel on the session of this shell
+	 * (see {@link JSchSessions}), so no further SSH handshake is made.
+	 * 
+	 * @return A new logged in shell, to be logged out by the caller
+	 * @throws IllegalStateException
+	 *             if the library was set with
+	 *             {@link #initSSHProvider(SSHClientLibrary)}
+	 * @throws Exception
+	 */
+	public UnixShell openChannel() throws Exception {
+		if (customLibrary)
+			throw new IllegalStateException(
+					"Cannot open a channel with a library given as instance");
+		UnixShell sibling = new UnixShell(host, userName, password);
+		sibling.initSSHProvider(sshProvider);
+		sibling.setCommandPrompt(CMDPROMPT);
+		sibling.setDefaultTimeout(DEFAULT_TIMEOUT);
+		sibling.setTotalTimeout(totalTimeout);
+		sibling.setIdleTimeout(idleTimeout);
+		sibling.setAnalyzerMode(analyzerMode);
+		sibling.setOutputMemoryLimit(outputMemoryLimit);
+		sibling.setExecutor(sharedExecutor);
+		sibling.setCharset(charset);
+		sibling.setOutputSink(sink);
+		sibling.login();
+		return sibling;
+	}
+
+	private void send(String command) throws IOException {
+		toServer.write(command + "\r");
+		toServer.flush();
+		lastCommand = command;
+	}
+
+	/**
+	 * Sends Ctrl-C, stopping the command in the foreground
+	 */
+	private void sendInterrupt() {
+		try {
+			toServer.write('\u0003');
+			toServer.flush();
+			pr("Sent Ctrl-C");
+		} catch (IOException e) {
+			pr("Could not send Ctrl-C: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Opens an SFTP channel to the host. It runs on the SSH session of this
+	 * shell when the JSch provider is used, otherwise on a session of its own
+	 * that is shared by later transfers.
+	 * 
+	 * @return A transfer to be closed by the caller
+	 * @throws Exception
+	 */
+	public FileTransfer openFileTransfer() throws Exception {
+		return new JSchFileTransfer(host, userName, password);
+	}
+
+	/**
+	 * Transfers fileContent to folder using JSch
+	 * @param fileContent
+	 * @param folder
+	 * @param fileName
+	 * @deprecated Loads the whole content on the heap and hides errors. Use
+	 *             {@link #openFileTransfer()}.
+	 */
+	@Deprecated
+	public void transferContent(String fileContent, String folder, String fileName) {
+		try {
+			FileTransfer transfer = openFileTransfer();
+			try {
+				transfer.upload(new ByteArrayInputStream(fileContent.getBytes()),
+						-1, folder + "/" + fileName, null);
+			} finally {
+				transfer.close();
+			}
+		} catch (Exception ex) {
+			ex.printStackTrace();
+		}
+	}
+}
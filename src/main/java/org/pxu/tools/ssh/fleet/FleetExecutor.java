@@ -0,0 +1,302 @@
+package org.pxu.tools.ssh.fleet;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.pxu.tools.ssh.HashedWheelTimer;
+import org.pxu.tools.ssh.ReachabilityProbe;
+import org.pxu.tools.ssh.UnixShell;
+import org.pxu.tools.ssh.UnixShell.SSHLibraryProvider;
+import org.pxu.tools.ssh.fleet.HostResult.Status;
+import org.pxu.tools.ssh.pool.UnixShellPool;
+
+/**
+ * Runs the same command or expect flow on many hosts at once.
+ *
+ * Up to {@link #setParallelism(int)} hosts are worked on concurrently, each
+ * with its own {@link UnixShell} (or one borrowed from a
+ * {@link UnixShellPool}). Results are handed to a {@link FleetListener} as
+ * hosts finish and summarized in a {@link FleetResult}.
+ *
+ * <pre>
+ * FleetExecutor fleet = new FleetExecutor(&quot;admin&quot;, password);
+ * fleet.setParallelism(50);
+ * FleetResult&lt;String&gt; result = fleet.exec(hosts, &quot;show version&quot;);
+ * </pre>
+ */
+public class FleetExecutor {
+
+	private final String userName, password;
+
+	private SSHLibraryProvider provider = SSHLibraryProvider.JSCH;
+	private int parallelism = 20;
+	private int hostTimeout = 120; // seconds
+	private UnixShellPool pool;
+	private UnixShellPool.Initializer initializer;
+	private ReachabilityProbe probe;
+
+	private static final HashedWheelTimer watchdog = HashedWheelTimer.shared();
+
+	/**
+	 * Logs out timed out hosts, which blocks, off the thread of the shared
+	 * timer. Its threads end when idle.
+	 */
+	private static final ExecutorService timeouts = Executors
+			.newCachedThreadPool(new ThreadFactory() {
+				private final AtomicInteger counter = new AtomicInteger();
+
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "FleetExecutor-timeout-"
+							+ counter.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	public FleetExecutor(String userName, String password) {
+		this.userName = userName;
+		this.password = password;
+	}
+
+	/**
+	 * Number of hosts worked on at the same time. Default 20.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Seconds allowed per host, login included. Default 120.
+	 */
+	public void setHostTimeout(int seconds) {
+		this.hostTimeout = seconds;
+	}
+
+	/**
+	 * SSH library used for new shells. Default JSch.
+	 */
+	public void setSSHProvider(SSHLibraryProvider provider) {
+		this.provider = provider;
+	}
+
+	/**
+	 * Borrows shells from a pool instead of logging in and out per run
+	 */
+	public void setPool(UnixShellPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Prepares each new shell before login, e.g. to set its prompt. Ignored
+	 * when a pool is set; configure the pool instead.
+	 */
+	public void setInitializer(UnixShellPool.Initializer initializer) {
+		this.initializer = initializer;
+	}
+
+	/**
+	 * Probes all hosts at once before a run and fails those whose SSH port
+	 * does not answer without logging in, so that dead hosts do not hold a
+	 * worker for the SSH connect timeout. Off by default.
+	 *
+	 * @param probe
+	 *            - E.g. {@link ReachabilityProbe#shared()}, null for no probe
+	 */
+	public void setProbe(ReachabilityProbe probe) {
+		this.probe = probe;
+	}
+
+	/**
+	 * Executes one command on every host
+	 *
+	 * @return Output of the command per host
+	 */
+	public FleetResult<String> exec(Collection<String> hosts,
+			final String command) throws InterruptedException {
+		return run(hosts, new HostTask<String>() {
+			public String run(UnixShell shell) throws Exception {
+				shell.exec(command, hostTimeout);
+				return shell.getLastCommandOutput();
+			}
+		}, null);
+	}
+
+	/**
+	 * Runs a task on every host and waits for all of them.
+	 *
+	 * @param listener
+	 *            - Told about each host as it finishes, may be null
+	 * @return Results of all hosts
+	 * @throws InterruptedException
+	 *             if interrupted while waiting; hosts still running are
+	 *             cancelled
+	 */
+	public <T> FleetResult<T> run(Collection<String> hosts,
+			final HostTask<T> task, final FleetListener<T> listener)
+			throws InterruptedException {
+		long start = System.currentTimeMillis();
+		final List<HostResult<T>> results = Collections
+				.synchronizedList(new ArrayList<HostResult<T>>());
+		final CountDownLatch done = new CountDownLatch(hosts.size());
+		final AtomicInteger counter = new AtomicInteger();
+
+		ExecutorService workers = Executors.newFixedThreadPool(Math.max(1,
+				Math.min(parallelism, hosts.size())), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "FleetExecutor-"
+						+ counter.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		Map<String, Boolean> reachable = probe(hosts);
+		try {
+			for (final String host : hosts) {
+				final HostRun<T> run = new HostRun<T>(host) {
+					void report(HostResult<T> result) {
+						results.add(result);
+						if (listener != null) {
+							try {
+								listener.hostFinished(result);
+							} catch (RuntimeException ignore) {
+							}
+						}
+						done.countDown();
+					}
+				};
+				if (Boolean.FALSE.equals(reachable.get(host))) {
+					run.started = System.currentTimeMillis();
+					run.finish(Status.FAILURE, null, new ConnectException(
+							"SSH port of " + host + " does not answer"));
+					continue;
+				}
+				run.future = workers.submit(new Runnable() {
+					public void run() {
+						execute(run, task);
+					}
+				});
+			}
+			done.await();
+		} finally {
+			workers.shutdownNow();
+		}
+		return new FleetResult<T>(results, System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * @return Reachability of the hosts, empty if not probing
+	 */
+	private Map<String, Boolean> probe(Collection<String> hosts) {
+		if (probe == null)
+			return Collections.emptyMap();
+		try {
+			return probe.probe(hosts);
+		} catch (IOException e) {
+			return Collections.emptyMap(); // let the logins find out
+		}
+	}
+
+	private <T> void execute(final HostRun<T> run, HostTask<T> task) {
+		run.started = System.currentTimeMillis();
+		HashedWheelTimer.Timeout timer = watchdog.schedule(new Runnable() {
+			public void run() {
+				timeouts.execute(new Runnable() {
+					public void run() {
+						run.timeout(hostTimeout);
+					}
+				});
+			}
+		}, hostTimeout, TimeUnit.SECONDS);
+
+		UnixShell shell = null;
+		boolean ok = false;
+		try {
+			shell = open(run.host);
+			run.shell = shell;
+			if (run.finished.get()) // timed out during login
+				return;
+			T value = task.run(shell);
+			// a shell the watchdog logged out must not go back to the pool
+			ok = run.finish(Status.SUCCESS, value, null);
+		} catch (Throwable e) {
+			run.finish(Status.FAILURE, null, e);
+		} finally {
+			timer.cancel();
+			if (shell != null)
+				close(shell, ok);
+		}
+	}
+
+	private UnixShell open(String host) throws Exception {
+		if (pool != null)
+			return pool.borrow(host, userName, password, provider);
+
+		UnixShell shell = new UnixShell(host, userName, password);
+		shell.initSSHProvider(provider);
+		if (initializer != null)
+			initializer.beforeLogin(shell);
+		shell.login();
+		return shell;
+	}
+
+	private void close(UnixShell shell, boolean reusable) {
+		if (pool == null)
+			shell.logout();
+		else if (reusable)
+			pool.release(shell);
+		else
+			pool.invalidate(shell);
+	}
+
+	/**
+	 * One host of a run. Reports exactly once, whether it finishes or times
+	 * out.
+	 */
+	private static abstract class HostRun<T> {
+		final String host;
+		final AtomicBoolean finished = new AtomicBoolean();
+		volatile long started;
+		volatile Future<?> future;
+		volatile UnixShell shell;
+
+		HostRun(String host) {
+			this.host = host;
+		}
+
+		abstract void report(HostResult<T> result);
+
+		/**
+		 * @return False if the host was already reported, e.g. timed out
+		 */
+		boolean finish(Status status, T value, Throwable error) {
+			if (!finished.compareAndSet(false, true))
+				return false;
+			report(new HostResult<T>(host, status, value, error, System
+					.currentTimeMillis() - started));
+			return true;
+		}
+
+		void timeout(int seconds) {
+			finish(Status.TIMEOUT, null, new Exception("Timedout (" + seconds
+					+ " seconds elapsed) on " + host));
+			UnixShell stuck = shell;
+			if (stuck != null)
+				stuck.logout(); // closes the streams the worker blocks on
+			if (future != null)
+				future.cancel(true);
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package org.pxu.tools.ssh.fleet;
+
+/**
+ * Receives per host results of a fleet run as each host finishes. Called
+ * from worker threads, possibly concurrently.
+ *
+ * @param <T>
+ *            Result of the task
+ */
+public interface FleetListener<T> {
+
+	void hostFinished(HostResult<T> result);
+
+}
@@ -0,0 +1,66 @@
+package org.pxu.tools.ssh.fleet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.pxu.tools.ssh.fleet.HostResult.Status;
+
+/**
+ * Aggregate of a fleet run
+ *
+ * @param <T>
+ *            Result of the task
+ */
+public class FleetResult<T> {
+
+	private final List<HostResult<T>> results;
+	private final long elapsedMillis;
+
+	FleetResult(List<HostResult<T>> results, long elapsedMillis) {
+		this.results = Collections.unmodifiableList(new ArrayList<HostResult<T>>(
+				results));
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	/**
+	 * @return Per host results in order of completion
+	 */
+	public List<HostResult<T>> getResults() {
+		return results;
+	}
+
+	public int getSuccessCount() {
+		return count(Status.SUCCESS);
+	}
+
+	public int getFailureCount() {
+		return count(Status.FAILURE);
+	}
+
+	public int getTimeoutCount() {
+		return count(Status.TIMEOUT);
+	}
+
+	private int count(Status status) {
+		int n = 0;
+		for (HostResult<T> r : results)
+			if (r.getStatus() == status)
+				n++;
+		return n;
+	}
+
+	/**
+	 * @return Wall clock time of the whole run
+	 */
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	@Override
+	public String toString() {
+		return results.size() + " hosts in " + elapsedMillis + " ms: "
+				+ getSuccessCount() + " succeeded, " + getFailureCount()
+				+ " failed, " + getTimeoutCount() + " timed out";
+	}
+}
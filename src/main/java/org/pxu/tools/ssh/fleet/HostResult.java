@@ -0,0 +1,64 @@
+package org.pxu.tools.ssh.fleet;
+
+/**
+ * Outcome of a task on one host
+ *
+ * @param <T>
+ *            Result of the task
+ */
+public class HostResult<T> {
+
+	public static enum Status {
+		SUCCESS, FAILURE, TIMEOUT
+	};
+
+	private final String host;
+	private final Status status;
+	private final T value;
+	private final Throwable error;
+	private final long elapsedMillis;
+
+	HostResult(String host, Status status, T value, Throwable error,
+			long elapsedMillis) {
+		this.host = host;
+		this.status = status;
+		this.value = value;
+		this.error = error;
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return Value returned by the task, null unless it succeeded
+	 */
+	public T getValue() {
+		return value;
+	}
+
+	/**
+	 * @return Why the task failed, null if it succeeded
+	 */
+	public Throwable getError() {
+		return error;
+	}
+
+	/**
+	 * @return Time from start of login to the end of the task
+	 */
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	@Override
+	public String toString() {
+		return host + " " + status + " in " + elapsedMillis + " ms"
+				+ ((error != null) ? ": " + error.getMessage() : "");
+	}
+}
@@ -0,0 +1,17 @@
+package org.pxu.tools.ssh.fleet;
+
+import org.pxu.tools.ssh.UnixShell;
+
+/**
+ * Work done on one host of a fleet run. The shell is logged in when the task
+ * starts and logged out (or returned to its pool) afterwards, so a task only
+ * records its inputs and executes its commands.
+ *
+ * @param <T>
+ *            Result of the task
+ */
+public interface HostTask<T> {
+
+	T run(UnixShell shell) throws Exception;
+
+}
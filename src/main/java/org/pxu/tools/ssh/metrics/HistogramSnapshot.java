@@ -0,0 +1,60 @@
+package org.pxu.tools.ssh.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Percentiles of a {@link LatencyHistogram} at one moment, in the unit named
+ * by the attribute that returns it. Shown as composite data in JMX consoles.
+ */
+public final class HistogramSnapshot {
+
+	private final long count;
+	private final double mean, p50, p90, p99, p999, max;
+
+	@ConstructorProperties({ "count", "mean", "p50", "p90", "p99", "p999",
+			"max" })
+	public HistogramSnapshot(long count, double mean, double p50, double p90,
+			double p99, double p999, double max) {
+		this.count = count;
+		this.mean = mean;
+		this.p50 = p50;
+		this.p90 = p90;
+		this.p99 = p99;
+		this.p999 = p999;
+		this.max = max;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public double getP50() {
+		return p50;
+	}
+
+	public double getP90() {
+		return p90;
+	}
+
+	public double getP99() {
+		return p99;
+	}
+
+	public double getP999() {
+		return p999;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.3f p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f",
+				count, mean, p50, p90, p99, p999, max);
+	}
+}
@@ -0,0 +1,127 @@
+package org.pxu.tools.ssh.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in nanoseconds with a fixed memory footprint.
+ *
+ * Values are counted in log-linear buckets as in HdrHistogram: every power of
+ * two is split into {@value #SUB_BUCKETS} linear buckets, so a percentile is
+ * within about 6% of the recorded value whether it is microseconds or
+ * minutes. Recording is lock free and allocates nothing, so it can be done
+ * from the analyzer threads of every shell at once.
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param nanos
+	 *            - Duration to count; negative values count as 0
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		counts.incrementAndGet(bucketOf(nanos));
+		total.incrementAndGet();
+		sum.addAndGet(nanos);
+		long m;
+		while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos))
+			;
+	}
+
+	/**
+	 * Records the time elapsed since startNanos, a value of
+	 * {@link System#nanoTime()}
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	public long getCount() {
+		return total.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long n = total.get();
+		return (n == 0) ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * @param percentile
+	 *            - 0 to 100, e.g. 99.9
+	 * @return Nanoseconds at or below which that share of the values lies, 0
+	 *         if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long n = total.get();
+		if (n == 0)
+			return 0;
+		long rank = (long) Math.ceil(Math.min(100, Math.max(0, percentile))
+				/ 100 * n);
+		rank = Math.max(1, rank);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank)
+				return Math.min(highestOf(i), max.get());
+		}
+		return max.get(); // raced with record()
+	}
+
+	/**
+	 * @param unit
+	 *            - Unit of the reported values
+	 * @return Count, mean and the usual percentiles at this moment
+	 */
+	public HistogramSnapshot snapshot(TimeUnit unit) {
+		double perUnit = unit.toNanos(1);
+		return new HistogramSnapshot(getCount(), getMean() / perUnit,
+				getValueAtPercentile(50) / perUnit,
+				getValueAtPercentile(90) / perUnit,
+				getValueAtPercentile(99) / perUnit,
+				getValueAtPercentile(99.9) / perUnit, getMax() / perUnit);
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++)
+			counts.set(i, 0);
+		total.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	static int bucketOf(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int exp = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @return Largest value counted in bucket
+	 */
+	static long highestOf(int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		int exp = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		long width = 1L << (exp - SUB_BITS);
+		long highest = ((SUB_BUCKETS + sub) << (exp - SUB_BITS)) + width - 1;
+		return (highest < 0) ? Long.MAX_VALUE : highest; // top bucket
+	}
+}
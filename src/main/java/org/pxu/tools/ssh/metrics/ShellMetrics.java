@@ -0,0 +1,259 @@
+package org.pxu.tools.ssh.metrics;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Where the time of the sessions to one host with one SSH library goes.
+ *
+ * {@link org.pxu.tools.ssh.UnixShell} and
+ * {@link org.pxu.tools.ssh.pool.UnixShellPool} record into the instance
+ * returned by {@link #of(String, String)}, which is registered with the
+ * platform MBean server on first use. Every recording is a few atomic
+ * increments, so metrics are always on.
+ *
+ * <pre>
+ * ShellMetrics m = ShellMetrics.of(&quot;10.0.0.5&quot;, &quot;JSCH&quot;);
+ * System.out.println(m.getPromptMatchMillis()); // count=120 mean=41.2 p50=...
+ * </pre>
+ */
+public final class ShellMetrics implements ShellMetricsMXBean {
+
+	public static final String DOMAIN = "org.pxu.tools.ssh";
+
+	private static final int MAX_PATTERNS = 64; // per host, the rest is "(other)"
+
+	private static final Map<String, ShellMetrics> registry = new ConcurrentHashMap<String, ShellMetrics>();
+
+	private final String host, provider;
+
+	private final LatencyHistogram login = new LatencyHistogram();
+	private final LatencyHistogram firstByte = new LatencyHistogram();
+	private final LatencyHistogram promptMatch = new LatencyHistogram();
+	private final LatencyHistogram patternScan = new LatencyHistogram();
+	private final Map<String, LatencyHistogram> patternScanByPattern = new ConcurrentHashMap<String, LatencyHistogram>();
+	private final LatencyHistogram poolWait = new LatencyHistogram();
+	private final AtomicLong bytesRead = new AtomicLong();
+	private final AtomicLong bytesWritten = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong poolTimeouts = new AtomicLong();
+
+	private ShellMetrics(String host, String provider) {
+		this.host = host;
+		this.provider = provider;
+	}
+
+	/**
+	 * @param provider
+	 *            - Name of the SSH library, e.g. "JSCH"
+	 * @return The metrics of host and provider, created and registered over
+	 *         JMX on first use
+	 */
+	public static ShellMetrics of(String host, String provider) {
+		String key = host + "/" + provider;
+		ShellMetrics metrics = registry.get(key);
+		if (metrics == null) {
+			ShellMetrics created = new ShellMetrics(host, provider);
+			metrics = registry.putIfAbsent(key, created);
+			if (metrics == null) {
+				metrics = created;
+				register(created);
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * @return The metrics of every host and provider seen so far
+	 */
+	public static Collection<ShellMetrics> all() {
+		return new ArrayList<ShellMetrics>(registry.values());
+	}
+
+	private static void register(ShellMetrics metrics) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = metrics.getObjectName();
+			if (!server.isRegistered(name))
+				server.registerMBean(metrics, name);
+		} catch (Exception e) {
+			// JMX is a view only, recording goes on without it
+		}
+	}
+
+	public ObjectName getObjectName() throws Exception {
+		return new ObjectName(DOMAIN + ":type=ShellMetrics,host="
+				+ ObjectName.quote(host) + ",provider="
+				+ ObjectName.quote(provider));
+	}
+
+	public void recordLogin(long nanos) {
+		login.record(nanos);
+	}
+
+	public void recordFirstByte(long nanos) {
+		firstByte.record(nanos);
+	}
+
+	public void recordPromptMatch(long nanos) {
+		promptMatch.record(nanos);
+	}
+
+	/**
+	 * @param pattern
+	 *            - Expect string that was found, null if none was
+	 */
+	public void recordPatternScan(String pattern, long nanos) {
+		patternScan.record(nanos);
+		String key = (pattern == null) ? "(none)" : pattern;
+		LatencyHistogram h = patternScanByPattern.get(key);
+		if (h == null) {
+			if (patternScanByPattern.size() >= MAX_PATTERNS)
+				key = "(other)";
+			LatencyHistogram created = new LatencyHistogram();
+			h = patternScanByPattern.putIfAbsent(key, created);
+			if (h == null)
+				h = created;
+		}
+		h.record(nanos);
+	}
+
+	public void recordPoolWait(long nanos) {
+		poolWait.record(nanos);
+	}
+
+	public void recordTimeout() {
+		timeouts.incrementAndGet();
+	}
+
+	public void recordPoolTimeout() {
+		poolTimeouts.incrementAndGet();
+	}
+
+	/**
+	 * @return in, counting into {@link #getBytesRead()}
+	 */
+	public InputStream countReads(InputStream in) {
+		return new FilterInputStream(in) {
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				if (b != -1)
+					bytesRead.incrementAndGet();
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = in.read(b, off, len);
+				if (n > 0)
+					bytesRead.addAndGet(n);
+				return n;
+			}
+		};
+	}
+
+	/**
+	 * @return out, counting into {@link #getBytesWritten()}
+	 */
+	public OutputStream countWrites(OutputStream out) {
+		return new FilterOutputStream(out) {
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+				bytesWritten.incrementAndGet();
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len); // not byte by byte as FilterOutputStream
+				bytesWritten.addAndGet(len);
+			}
+		};
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public String getProvider() {
+		return provider;
+	}
+
+	public HistogramSnapshot getLoginMillis() {
+		return login.snapshot(TimeUnit.MILLISECONDS);
+	}
+
+	public HistogramSnapshot getFirstByteMillis() {
+		return firstByte.snapshot(TimeUnit.MILLISECONDS);
+	}
+
+	public HistogramSnapshot getPromptMatchMillis() {
+		return promptMatch.snapshot(TimeUnit.MILLISECONDS);
+	}
+
+	public HistogramSnapshot getPatternScanMicros() {
+		return patternScan.snapshot(TimeUnit.MICROSECONDS);
+	}
+
+	public Map<String, HistogramSnapshot> getPatternScanMicrosByPattern() {
+		Map<String, HistogramSnapshot> result = new TreeMap<String, HistogramSnapshot>();
+		for (Map.Entry<String, LatencyHistogram> e : patternScanByPattern
+				.entrySet())
+			result.put(e.getKey(), e.getValue()
+					.snapshot(TimeUnit.MICROSECONDS));
+		return result;
+	}
+
+	public HistogramSnapshot getPoolWaitMillis() {
+		return poolWait.snapshot(TimeUnit.MILLISECONDS);
+	}
+
+	public long getBytesRead() {
+		return bytesRead.get();
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	public long getPoolTimeouts() {
+		return poolTimeouts.get();
+	}
+
+	public void reset() {
+		login.reset();
+		firstByte.reset();
+		promptMatch.reset();
+		patternScan.reset();
+		patternScanByPattern.clear();
+		poolWait.reset();
+		bytesRead.set(0);
+		bytesWritten.set(0);
+		timeouts.set(0);
+		poolTimeouts.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "ShellMetrics[" + provider + "@" + host + "]";
+	}
+}
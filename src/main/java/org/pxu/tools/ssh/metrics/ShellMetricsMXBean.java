@@ -0,0 +1,47 @@
+package org.pxu.tools.ssh.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link ShellMetrics} of one host and SSH library, registered
+ * as <code>org.pxu.tools.ssh:type=ShellMetrics,host=...,provider=...</code>
+ */
+public interface ShellMetricsMXBean {
+
+	String getHost();
+
+	String getProvider();
+
+	/** Connect, key exchange and authentication in {@code login()} */
+	HistogramSnapshot getLoginMillis();
+
+	/** From sending a command to the first output of the server */
+	HistogramSnapshot getFirstByteMillis();
+
+	/** From sending a command to finding one of its patterns */
+	HistogramSnapshot getPromptMatchMillis();
+
+	/** Time spent scanning output for the patterns of a command */
+	HistogramSnapshot getPatternScanMicros();
+
+	/**
+	 * {@link #getPatternScanMicros()} by the expect string that was found;
+	 * scans that found nothing are under "(none)"
+	 */
+	Map<String, HistogramSnapshot> getPatternScanMicrosByPattern();
+
+	/** Time {@code UnixShellPool.borrow} waited for a shell */
+	HistogramSnapshot getPoolWaitMillis();
+
+	long getBytesRead();
+
+	long getBytesWritten();
+
+	/** Commands that found none of their patterns in time */
+	long getTimeouts();
+
+	/** Borrows that gave up because the pool stayed full */
+	long getPoolTimeouts();
+
+	void reset();
+}
@@ -0,0 +1,115 @@
+package org.pxu.tools.ssh.parse;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits chunks of output into lines as they are asked for.
+ *
+ * A line that lies within one chunk is a view of the chunk and is not
+ * copied; only lines spanning chunks are. Chunks must therefore not be
+ * modified once handed out. Lines end at '\n', with any '\r' before it
+ * removed.
+ */
+class LineIterator implements Iterator<CharSequence> {
+
+	/**
+	 * Where the chunks come from
+	 */
+	interface Source {
+		/**
+		 * @return The next chunk, null at the end
+		 */
+		CharSequence next() throws IOException;
+	}
+
+	private final Source source;
+	private final boolean dropUnterminated;
+
+	private CharSequence chunk;
+	private int pos;
+	private StringBuilder partial; // start of a line spanning chunks
+	private CharSequence next;
+	private boolean ended;
+
+	/**
+	 * @param dropUnterminated
+	 *            - Leaves out the text after the last line break, e.g. the
+	 *            prompt
+	 */
+	LineIterator(Source source, boolean dropUnterminated) {
+		this.source = source;
+		this.dropUnterminated = dropUnterminated;
+	}
+
+	public boolean hasNext() {
+		if (next == null && !ended)
+			next = advance();
+		return next != null;
+	}
+
+	public CharSequence next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		CharSequence line = next;
+		next = null;
+		return line;
+	}
+
+	private CharSequence advance() {
+		while (true) {
+			if (chunk != null) {
+				for (int i = pos; i < chunk.length(); i++)
+					if (chunk.charAt(i) == '\n') {
+						CharSequence line = line(pos, i);
+						pos = i + 1;
+						return line;
+					}
+				if (pos < chunk.length()) {
+					if (partial == null)
+						partial = new StringBuilder();
+					partial.append(chunk, pos, chunk.length());
+				}
+				chunk = null;
+			}
+			try {
+				chunk = source.next();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			pos = 0;
+			if (chunk == null) {
+				ended = true;
+				CharSequence rest = partial;
+				partial = null;
+				return (rest == null || dropUnterminated) ? null
+						: stripCR(rest);
+			}
+		}
+	}
+
+	private CharSequence line(int from, int to) {
+		if (partial == null)
+			return stripCR(view(chunk, from, to));
+		partial.append(chunk, from, to);
+		CharSequence line = stripCR(partial.toString());
+		partial = null;
+		return line;
+	}
+
+	private static CharSequence view(CharSequence chunk, int from, int to) {
+		if (chunk instanceof CharBuffer)
+			return ((CharBuffer) chunk).subSequence(from, to);
+		return CharBuffer.wrap(chunk, from, to);
+	}
+
+	private static CharSequence stripCR(CharSequence line) {
+		int end = line.length();
+		while (end > 0 && line.charAt(end - 1) == '\r')
+			end--;
+		return (end == line.length()) ? line : line.subSequence(0, end);
+	}
+}
@@ -0,0 +1,96 @@
+package org.pxu.tools.ssh.parse;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.pxu.tools.ssh.OutputSubscriber;
+
+/**
+ * Lazy streams of the lines of command output.
+ *
+ * Lines are read as the stream is consumed and are views of the blocks read,
+ * so the output is never copied into one String. A line is only valid as
+ * long as it is referenced; keep {@link CharSequence#toString()} of the
+ * lines that are kept. Close the streams, e.g. with try-with-resources.
+ */
+public final class Lines {
+
+	private static final int BLOCK = 8192;
+
+	private Lines() {
+	}
+
+	/**
+	 * @param reader
+	 *            - Closed with the stream
+	 * @param dropUnterminated
+	 *            - Leaves out the text after the last line break, e.g. the
+	 *            prompt ending a capture
+	 * @return The lines of reader, read as consumed
+	 */
+	public static Stream<CharSequence> of(final Reader reader,
+			boolean dropUnterminated) {
+		LineIterator lines = new LineIterator(new LineIterator.Source() {
+			public CharSequence next() throws IOException {
+				char[] block = new char[BLOCK]; // not reused, lines are views
+				int n = reader.read(block);
+				return (n == -1) ? null : CharBuffer.wrap(block, 0, n);
+			}
+		}, dropUnterminated);
+		return stream(lines).onClose(new Runnable() {
+			public void run() {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Lines of a command while it runs, read from the server only as fast as
+	 * the stream is consumed. The prompt ending the command is not a line.
+	 * Closing the stream before its end stops the command with Ctrl-C.
+	 *
+	 * @param start
+	 *            - Starts the command with the given subscriber, e.g.
+	 *            <code>s -&gt; shell.execStreaming(command, 0, s)</code>
+	 * @return The lines, blocking until the command has written them. A
+	 *         timeout of the command, or a failure to start it, is thrown by
+	 *         the stream.
+	 */
+	public static Stream<CharSequence> streamed(
+			Function<OutputSubscriber, CompletableFuture<?>> start) {
+		final StreamedLines source = new StreamedLines();
+		start.apply(source).whenComplete((ignore, error) -> {
+			if (error != null) // e.g. not logged in, nothing subscribed
+				source.onError(unwrap(error));
+		});
+		return stream(new LineIterator(source, true)).onClose(new Runnable() {
+			public void run() {
+				source.close();
+			}
+		});
+	}
+
+	private static Throwable unwrap(Throwable e) {
+		while (e instanceof CompletionException && e.getCause() != null)
+			e = e.getCause();
+		return e;
+	}
+
+	private static Stream<CharSequence> stream(LineIterator lines) {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(lines,
+				Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+}
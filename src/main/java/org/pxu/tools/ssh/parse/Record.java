@@ -0,0 +1,74 @@
+package org.pxu.tools.ssh.parse;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The fields of one line, by position or by the name given in the header
+ * line
+ */
+public final class Record {
+
+	private final List<CharSequence> fields;
+	private final Map<String, Integer> columns; // empty without header
+
+	Record(List<CharSequence> fields, Map<String, Integer> columns) {
+		this.fields = Collections.unmodifiableList(fields);
+		this.columns = columns;
+	}
+
+	public int size() {
+		return fields.size();
+	}
+
+	/**
+	 * @return Field at index, null if the line is shorter
+	 */
+	public CharSequence get(int index) {
+		return (index < fields.size()) ? fields.get(index) : null;
+	}
+
+	/**
+	 * @param column
+	 *            - Name of the column in the header
+	 * @return The field, null if the line is shorter
+	 * @throws IllegalArgumentException
+	 *             if the header has no such column
+	 */
+	public CharSequence get(String column) {
+		Integer index = columns.get(column);
+		if (index == null)
+			throw new IllegalArgumentException("No column " + column + " in "
+					+ columns.keySet());
+		return get(index);
+	}
+
+	/**
+	 * @return The field as a String, null if missing
+	 */
+	public String getString(String column) {
+		CharSequence field = get(column);
+		return (field == null) ? null : field.toString();
+	}
+
+	/**
+	 * @throws NumberFormatException
+	 *             if the field is missing or not a number
+	 */
+	public long getLong(String column) {
+		CharSequence field = get(column);
+		if (field == null)
+			throw new NumberFormatException("No " + column + " field");
+		return Long.parseLong(field.toString());
+	}
+
+	public List<CharSequence> getFields() {
+		return fields;
+	}
+
+	@Override
+	public String toString() {
+		return fields.toString();
+	}
+}
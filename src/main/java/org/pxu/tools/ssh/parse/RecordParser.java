@@ -0,0 +1,197 @@
+package org.pxu.tools.ssh.parse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Turns lines into {@link Record}s, one line at a time as the stream of
+ * lines is consumed. Blank lines are skipped.
+ *
+ * <pre>
+ * try (Stream&lt;CharSequence&gt; lines = shell.execLines(&quot;ps -ef&quot;, 30)) {
+ * 	RecordParser.whitespace(8).withHeader().parse(lines)
+ * 			.filter(r -&gt; r.getString(&quot;UID&quot;).equals(&quot;root&quot;))
+ * 			.forEach(r -&gt; kill(r.getLong(&quot;PID&quot;)));
+ * }
+ * </pre>
+ *
+ * Fields are views of the line where possible; like the lines they are only
+ * valid while referenced.
+ */
+public final class RecordParser {
+
+	private final Function<CharSequence, List<CharSequence>> splitter;
+	private final boolean header;
+
+	private RecordParser(Function<CharSequence, List<CharSequence>> splitter,
+			boolean header) {
+		this.splitter = splitter;
+		this.header = header;
+	}
+
+	/**
+	 * @param splitter
+	 *            - Splits one line into its fields
+	 */
+	public static RecordParser of(
+			Function<CharSequence, List<CharSequence>> splitter) {
+		return new RecordParser(splitter, false);
+	}
+
+	/**
+	 * Fields separated by blanks, as written by df or vmstat
+	 */
+	public static RecordParser whitespace() {
+		return whitespace(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param maxFields
+	 *            - The last field takes the rest of the line, blanks
+	 *            included, e.g. 8 for the command of ps -ef or 9 for the
+	 *            name in ls -l
+	 */
+	public static RecordParser whitespace(final int maxFields) {
+		return of(new Function<CharSequence, List<CharSequence>>() {
+			public List<CharSequence> apply(CharSequence line) {
+				return splitBlanks(line, maxFields);
+			}
+		});
+	}
+
+	/**
+	 * Fields separated by delimiter, as in CSV. A field in double quotes may
+	 * hold the delimiter, and "" stands for one quote.
+	 */
+	public static RecordParser delimited(final char delimiter) {
+		return of(new Function<CharSequence, List<CharSequence>>() {
+			public List<CharSequence> apply(CharSequence line) {
+				return splitDelimited(line, delimiter);
+			}
+		});
+	}
+
+	/**
+	 * @return A parser taking the first line as the names of the columns
+	 */
+	public RecordParser withHeader() {
+		return new RecordParser(splitter, true);
+	}
+
+	/**
+	 * @return One record per line that is not blank. The header line, if
+	 *         any, is read when the first record is asked for.
+	 */
+	public Stream<Record> parse(Stream<CharSequence> lines) {
+		final Iterator<CharSequence> source = lines.filter(
+				line -> !isBlank(line)).iterator();
+		Iterator<Record> records = new Iterator<Record>() {
+			private Map<String, Integer> columns;
+
+			public boolean hasNext() {
+				readHeader();
+				return source.hasNext();
+			}
+
+			public Record next() {
+				readHeader();
+				return parseLine(source.next(), columns);
+			}
+
+			private void readHeader() {
+				if (columns != null)
+					return;
+				columns = Collections.emptyMap();
+				if (header && source.hasNext()) {
+					columns = new HashMap<String, Integer>();
+					for (CharSequence name : splitter.apply(source.next()))
+						columns.put(name.toString(), columns.size());
+				}
+			}
+		};
+		return StreamSupport.stream(
+				Spliterators.spliteratorUnknownSize(records,
+						Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(lines::close);
+	}
+
+	/**
+	 * @return The fields of one line, without header names
+	 */
+	public Record parseLine(CharSequence line) {
+		return parseLine(line, Collections.<String, Integer> emptyMap());
+	}
+
+	private Record parseLine(CharSequence line, Map<String, Integer> columns) {
+		return new Record(splitter.apply(line), columns);
+	}
+
+	private static boolean isBlank(CharSequence line) {
+		for (int i = 0; i < line.length(); i++)
+			if (!Character.isWhitespace(line.charAt(i)))
+				return false;
+		return true;
+	}
+
+	static List<CharSequence> splitBlanks(CharSequence line, int maxFields) {
+		List<CharSequence> fields = new ArrayList<CharSequence>();
+		int i = 0, n = line.length();
+		while (true) {
+			while (i < n && Character.isWhitespace(line.charAt(i)))
+				i++;
+			if (i == n)
+				return fields;
+			int start = i;
+			if (fields.size() == maxFields - 1) { // the rest of the line
+				int end = n;
+				while (Character.isWhitespace(line.charAt(end - 1)))
+					end--;
+				fields.add(line.subSequence(start, end));
+				return fields;
+			}
+			while (i < n && !Character.isWhitespace(line.charAt(i)))
+				i++;
+			fields.add(line.subSequence(start, i));
+		}
+	}
+
+	static List<CharSequence> splitDelimited(CharSequence line, char delimiter) {
+		List<CharSequence> fields = new ArrayList<CharSequence>();
+		int i = 0, n = line.length();
+		while (true) {
+			if (i < n && line.charAt(i) == '"') { // quoted, copied unescaped
+				StringBuilder field = new StringBuilder();
+				i++;
+				while (i < n) {
+					char c = line.charAt(i++);
+					if (c != '"')
+						field.append(c);
+					else if (i < n && line.charAt(i) == '"')
+						field.append(line.charAt(i++));
+					else
+						break;
+				}
+				while (i < n && line.charAt(i) != delimiter)
+					i++; // text after the closing quote is dropped
+				fields.add(field);
+			} else {
+				int start = i;
+				while (i < n && line.charAt(i) != delimiter)
+					i++;
+				fields.add(line.subSequence(start, i));
+			}
+			if (i == n)
+				return fields;
+			i++; // delimiter
+		}
+	}
+}
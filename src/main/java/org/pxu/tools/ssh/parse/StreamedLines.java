@@ -0,0 +1,110 @@
+package org.pxu.tools.ssh.parse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+
+import org.pxu.tools.ssh.OutputSubscriber;
+
+/**
+ * Hands the chunks of a streamed command to a reading thread. At most
+ * {@link #AHEAD} chunks are requested beyond those taken, so the queue never
+ * blocks the thread reading the server and a slow reader slows the command.
+ */
+class StreamedLines implements OutputSubscriber, LineIterator.Source {
+
+	static final int AHEAD = 4;
+
+	private static final Object END = new Object();
+
+	private final BlockingQueue<Object> chunks = new ArrayBlockingQueue<Object>(
+			AHEAD + 1); // the chunks plus the end
+	private Subscription subscription; // guarded by this
+	private boolean closed; // guarded by this
+	private boolean terminated; // guarded by this, end or error queued
+	private boolean ended; // read by the consumer only
+
+	public void onSubscribe(Subscription subscription) {
+		boolean cancel;
+		synchronized (this) {
+			this.subscription = subscription;
+			cancel = closed;
+		}
+		if (cancel)
+			subscription.cancel();
+		else
+			subscription.request(AHEAD);
+	}
+
+	public void onNext(String chunk) {
+		chunks.add(chunk);
+	}
+
+	public void onComplete() {
+		terminate(END);
+	}
+
+	/**
+	 * Also called with the failure of the request, which may come after the
+	 * subscriber was told or without it ever being subscribed
+	 */
+	public void onError(Throwable error) {
+		terminate(error);
+	}
+
+	private void terminate(Object item) {
+		synchronized (this) {
+			if (terminated)
+				return;
+			terminated = true;
+		}
+		chunks.add(item);
+	}
+
+	public CharSequence next() throws IOException {
+		if (ended)
+			return null;
+		Object item;
+		try {
+			item = chunks.take();
+		} catch (InterruptedException e) {
+			close();
+			throw new InterruptedIOException("Interrupted reading lines");
+		}
+		if (item == END) {
+			ended = true;
+			return null;
+		}
+		if (item instanceof Throwable) {
+			ended = true;
+			if (item instanceof IOException)
+				throw (IOException) item;
+			if (item instanceof RuntimeException)
+				throw (RuntimeException) item;
+			throw new CompletionException((Throwable) item);
+		}
+		Subscription s;
+		synchronized (this) {
+			s = subscription;
+		}
+		s.request(1);
+		return (CharSequence) item;
+	}
+
+	/**
+	 * Stops the command if it has not ended
+	 */
+	void close() {
+		Subscription s;
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			s = subscription;
+		}
+		if (s != null && !ended)
+			s.cancel();
+	}
+}
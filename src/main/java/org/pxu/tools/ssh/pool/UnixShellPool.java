@@ -0,0 +1,549 @@
+package org.pxu.tools.ssh.pool;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.pxu.tools.ssh.UnixShell;
+import org.pxu.tools.ssh.UnixShell.SSHLibraryProvider;
+import org.pxu.tools.ssh.metrics.ShellMetrics;
+
+/**
+ * Pool of logged in {@link UnixShell} sessions keyed by host, user, password
+ * and SSH library. A shell is only handed to callers giving the password it
+ * logged in with.
+ *
+ * Borrowing an idle shell skips the TCP connect, key exchange and
+ * authentication done by {@link UnixShell#login()}. Shells that sat idle
+ * longer than {@link #setValidationInterval(long)} are checked with a prompt
+ * round trip before being handed out. A background evictor closes shells
+ * that were idle too long or lived past their maximum lifetime, and keeps
+ * each key topped up to its minimum.
+ *
+ * <pre>
+ * UnixShellPool pool = new UnixShellPool();
+ * pool.setMaxPerKey(4);
+ * UnixShell shell = pool.borrow(host, user, password, SSHLibraryProvider.JSCH);
+ * try {
+ * 	shell.exec(&quot;uptime&quot;);
+ * } finally {
+ * 	pool.release(shell);
+ * }
+ * </pre>
+ */
+public class UnixShellPool implements Closeable {
+
+	/**
+	 * Prepares a new shell before it logs in, e.g. to set its prompt
+	 */
+	public interface Initializer {
+		void beforeLogin(UnixShell shell) throws Exception;
+	}
+
+	private int minPerKey = 0;
+	private int maxPerKey = 8;
+	private long maxIdleMillis = TimeUnit.MINUTES.toMillis(5);
+	private long maxLifetimeMillis = TimeUnit.MINUTES.toMillis(30);
+	private long validationIntervalMillis = TimeUnit.SECONDS.toMillis(5);
+	private int validationTimeout = 10; // seconds
+	private long borrowTimeoutMillis = TimeUnit.SECONDS.toMillis(60);
+	private Initializer initializer;
+
+	private final Map<Key, KeyedPool> pools = new ConcurrentHashMap<Key, KeyedPool>();
+	private final Map<UnixShell, Entry> borrowed = new IdentityHashMap<UnixShell, Entry>();
+
+	private final ScheduledExecutorService evictor;
+	private volatile boolean closed;
+
+	public UnixShellPool() {
+		this(TimeUnit.SECONDS.toMillis(30));
+	}
+
+	/**
+	 * @param evictionIntervalMillis
+	 *            - How often idle shells are checked for eviction
+	 */
+	public UnixShellPool(long evictionIntervalMillis) {
+		evictor = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "UnixShellPool-evictor");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		evictor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				evict();
+			}
+		}, evictionIntervalMillis, evictionIntervalMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Logged in shells kept per key even when idle. Default 0.
+	 */
+	public void setMinPerKey(int min) {
+		this.minPerKey = min;
+	}
+
+	/**
+	 * Upper bound on idle plus borrowed shells per key. Default 8.
+	 */
+	public void setMaxPerKey(int max) {
+		this.maxPerKey = max;
+	}
+
+	/**
+	 * Idle shells above the minimum are closed after this long. Default 5
+	 * minutes.
+	 */
+	public void setMaxIdleTime(long millis) {
+		this.maxIdleMillis = millis;
+	}
+
+	/**
+	 * Shells are closed once this old, idle or not (borrowed shells on
+	 * release). Default 30 minutes.
+	 */
+	public void setMaxLifetime(long millis) {
+		this.maxLifetimeMillis = millis;
+	}
+
+	/**
+	 * Shells idle for longer than this are checked with a prompt round trip
+	 * on borrow. 0 checks on every borrow. Default 5 seconds.
+	 */
+	public void setValidationInterval(long millis) {
+		this.validationIntervalMillis = millis;
+	}
+
+	/**
+	 * Seconds to wait for the prompt when validating. Default 10.
+	 */
+	public void setValidationTimeout(int seconds) {
+		this.validationTimeout = seconds;
+	}
+
+	/**
+	 * How long {@link #borrow} waits when the key is at its maximum. Default
+	 * 60 seconds.
+	 */
+	public void setBorrowTimeout(long millis) {
+		this.borrowTimeoutMillis = millis;
+	}
+
+	public void setInitializer(Initializer initializer) {
+		this.initializer = initializer;
+	}
+
+	/**
+	 * Borrows a logged in shell, logging in a new one if none is idle.
+	 *
+	 * @return A shell that must be given back with {@link #release} or
+	 *         {@link #invalidate}
+	 * @throws TimeoutException
+	 *             if the key stays at its maximum for the borrow timeout
+	 * @throws Exception
+	 *             if a new shell fails to log in
+	 */
+	public UnixShell borrow(String host, String userName, String password,
+			SSHLibraryProvider provider) throws Exception {
+		if (closed)
+			throw new IllegalStateException("Pool is closed");
+
+		KeyedPool pool = poolFor(host, userName, password, provider);
+
+		ShellMetrics metrics = ShellMetrics.of(host, provider.name());
+		long deadline = System.currentTimeMillis() + borrowTimeoutMillis;
+		while (true) {
+			Entry entry;
+			long waitStart = System.nanoTime();
+			try {
+				entry = pool.take(deadline);
+			} catch (TimeoutException e) {
+				metrics.recordPoolTimeout();
+				throw e;
+			} finally {
+				metrics.recordPoolWait(System.nanoTime() - waitStart);
+			}
+			if (entry == null) { // room for a new one
+				try {
+					entry = pool.create();
+				} catch (Exception e) {
+					pool.discarded();
+					throw e;
+				}
+			} else if (System.currentTimeMillis() - entry.lastUsed > validationIntervalMillis
+					&& !entry.shell.isAlive(validationTimeout)) {
+				pool.destroy(entry);
+				continue;
+			}
+
+			synchronized (borrowed) {
+				borrowed.put(entry.shell, entry);
+			}
+			return entry.shell;
+		}
+	}
+
+	/**
+	 * Logs in shells for a key up to its minimum without waiting for the
+	 * evictor
+	 *
+	 * @throws Exception
+	 *             if a shell fails to log in
+	 */
+	public void warmUp(String host, String userName, String password,
+			SSHLibraryProvider provider) throws Exception {
+		poolFor(host, userName, password, provider).fill();
+	}
+
+	private KeyedPool poolFor(String host, String userName, String password,
+			SSHLibraryProvider provider) {
+		Key key = new Key(host, userName, password, provider);
+		KeyedPool pool = pools.get(key);
+		if (pool == null) {
+			pools.putIfAbsent(key, new KeyedPool(key, password));
+			pool = pools.get(key);
+		}
+		return pool;
+	}
+
+	/**
+	 * Gives a shell back for reuse
+	 */
+	public void release(UnixShell shell) {
+		Entry entry = remove(shell);
+		KeyedPool pool = pools.get(entry.key);
+		if (closed || pool == null || entry.expired(System.currentTimeMillis()))
+			destroy(pool, entry);
+		else
+			pool.giveBack(entry);
+	}
+
+	/**
+	 * Closes a shell that should not be reused, e.g. after a failed command
+	 */
+	public void invalidate(UnixShell shell) {
+		Entry entry = remove(shell);
+		destroy(pools.get(entry.key), entry);
+	}
+
+	private Entry remove(UnixShell shell) {
+		Entry entry;
+		synchronized (borrowed) {
+			entry = borrowed.remove(shell);
+		}
+		if (entry == null)
+			throw new IllegalArgumentException("Shell was not borrowed from this pool");
+		return entry;
+	}
+
+	private static void destroy(KeyedPool pool, Entry entry) {
+		if (pool != null)
+			pool.destroy(entry);
+		else
+			entry.shell.logout();
+	}
+
+	/**
+	 * @return Idle shells for host, user and library, whatever the password
+	 */
+	public int getIdleCount(String host, String userName,
+			SSHLibraryProvider provider) {
+		int n = 0;
+		for (KeyedPool pool : pools.values())
+			if (pool.key.matches(host, userName, provider))
+				n += pool.idleCount();
+		return n;
+	}
+
+	/**
+	 * @return Idle plus borrowed shells for host, user and library, whatever
+	 *         the password
+	 */
+	public int getTotalCount(String host, String userName,
+			SSHLibraryProvider provider) {
+		int n = 0;
+		for (KeyedPool pool : pools.values())
+			if (pool.key.matches(host, userName, provider))
+				n += pool.totalCount();
+		return n;
+	}
+
+	/**
+	 * Closes idle shells and stops the evictor. Borrowed shells are closed
+	 * when released.
+	 */
+	public void close() {
+		closed = true;
+		evictor.shutdownNow();
+		for (KeyedPool pool : pools.values())
+			pool.clear();
+	}
+
+	private void evict() {
+		long now = System.currentTimeMillis();
+		for (KeyedPool pool : pools.values()) {
+			try {
+				pool.evict(now);
+				pool.fill();
+			} catch (Exception e) {
+				// Host unreachable; retried on the next run
+			}
+		}
+	}
+
+	/* ---------------------------------------------------------------- */
+
+	private static final class Key {
+		final String host, userName;
+		final byte[] passwordDigest; // the password itself is not kept here
+		final SSHLibraryProvider provider;
+
+		Key(String host, String userName, String password,
+				SSHLibraryProvider provider) {
+			this.host = host;
+			this.userName = userName;
+			this.passwordDigest = digest(password);
+			this.provider = provider;
+		}
+
+		boolean matches(String host, String userName,
+				SSHLibraryProvider provider) {
+			return this.host.equals(host) && this.userName.equals(userName)
+					&& this.provider == provider;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return matches(k.host, k.userName, k.provider)
+					&& MessageDigest.isEqual(passwordDigest, k.passwordDigest);
+		}
+
+		@Override
+		public int hashCode() {
+			return ((host.hashCode() * 31 + userName.hashCode()) * 31 + Arrays
+					.hashCode(passwordDigest)) * 31 + provider.hashCode();
+		}
+
+		private static byte[] digest(String password) {
+			try {
+				return MessageDigest.getInstance("SHA-256").digest(
+						String.valueOf(password).getBytes(StandardCharsets.UTF_8));
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e); // every JRE has SHA-256
+			}
+		}
+
+		@Override
+		public String toString() {
+			return userName + "@" + host + " (" + provider + ")";
+		}
+	}
+
+	private final class Entry {
+		final Key key;
+		final UnixShell shell;
+		final long created;
+		long lastUsed;
+
+		Entry(Key key, UnixShell shell) {
+			this.key = key;
+			this.shell = shell;
+			this.created = this.lastUsed = System.currentTimeMillis();
+		}
+
+		boolean expired(long now) {
+			return now - created >= maxLifetimeMillis;
+		}
+	}
+
+	private final class KeyedPool {
+		final Key key;
+		final String password;
+
+		final ReentrantLock lock = new ReentrantLock();
+		final Condition available = lock.newCondition();
+		final ArrayDeque<Entry> idle = new ArrayDeque<Entry>(); // most recent first
+		int total; // idle + borrowed + being created
+
+		KeyedPool(Key key, String password) {
+			this.key = key;
+			this.password = password;
+		}
+
+		/**
+		 * @return An idle entry, or null after reserving room for a new one
+		 */
+		Entry take(long deadline) throws InterruptedException,
+				TimeoutException {
+			List<Entry> expired = new ArrayList<Entry>();
+			lock.lock();
+			try {
+				while (true) {
+					long now = System.currentTimeMillis();
+					Entry e;
+					while ((e = idle.pollFirst()) != null) {
+						if (!e.expired(now))
+							return e;
+						total--;
+						expired.add(e);
+					}
+					if (total < maxPerKey) {
+						total++;
+						return null;
+					}
+					long wait = deadline - now;
+					if (wait <= 0)
+						throw new TimeoutException("No shell available for "
+								+ key + " within " + borrowTimeoutMillis
+								+ " ms (max " + maxPerKey + ")");
+					available.await(wait, TimeUnit.MILLISECONDS);
+				}
+			} finally {
+				lock.unlock();
+				for (Entry e : expired)
+					e.shell.logout();
+			}
+		}
+
+		Entry create() throws Exception {
+			UnixShell shell = new UnixShell(key.host, key.userName, password);
+			shell.initSSHProvider(key.provider);
+			if (initializer != null)
+				initializer.beforeLogin(shell);
+			shell.login();
+			return new Entry(key, shell);
+		}
+
+		void giveBack(Entry e) {
+			e.lastUsed = System.currentTimeMillis();
+			lock.lock();
+			try {
+				idle.addFirst(e);
+				available.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Frees the slot of an entry that failed to be created
+		 */
+		void discarded() {
+			lock.lock();
+			try {
+				total--;
+				available.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void destroy(Entry e) {
+			discarded();
+			e.shell.logout();
+		}
+
+		int idleCount() {
+			lock.lock();
+			try {
+				return idle.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		int totalCount() {
+			lock.lock();
+			try {
+				return total;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void evict(long now) {
+			List<Entry> evicted = new ArrayList<Entry>();
+			lock.lock();
+			try {
+				// Oldest idle shells are at the end
+				Iterator<Entry> it = idle.descendingIterator();
+				while (it.hasNext()) {
+					Entry e = it.next();
+					boolean idleTooLong = now - e.lastUsed >= maxIdleMillis
+							&& total - evicted.size() > minPerKey;
+					if (e.expired(now) || idleTooLong) {
+						it.remove();
+						evicted.add(e);
+					}
+				}
+				total -= evicted.size();
+			} finally {
+				lock.unlock();
+			}
+			for (Entry e : evicted)
+				e.shell.logout();
+		}
+
+		/**
+		 * Logs in shells until the key has its minimum
+		 */
+		void fill() throws Exception {
+			while (!closed) {
+				lock.lock();
+				try {
+					if (total >= minPerKey || total >= maxPerKey)
+						return;
+					total++;
+				} finally {
+					lock.unlock();
+				}
+				Entry e;
+				try {
+					e = create();
+				} catch (Exception ex) {
+					discarded();
+					throw ex;
+				}
+				giveBack(e);
+			}
+		}
+
+		void clear() {
+			List<Entry> all;
+			lock.lock();
+			try {
+				all = new ArrayList<Entry>(idle);
+				total -= idle.size();
+				idle.clear();
+				available.signalAll();
+			} finally {
+				lock.unlock();
+			}
+			for (Entry e : all)
+				e.shell.logout();
+		}
+	}
+}
@@ -1,42 +1,308 @@
-package org.pxu.tools.ssh.providers;
-
-import java.io.InputStream;
-import java.io.OutputStream;
-
-import org.pxu.tools.ssh.SSHClientLibrary;
-
-/**
- * Apache SSH Provider
- * 
- * @author Prabhu Periasmy
- * 
- * @link http://mina.apache.org/sshd/
- */
-public class ApacheSSHProvider implements SSHClientLibrary {
-
-
-	public InputStream getInputStream() {
-		// TODO Auto-generated method stub
-		return null;
-	}
-
-	public OutputStream getOutputStream() {
-		// TODO Auto-generated method stub
-		return null;
-	}
-
-	public String getProviderName() {
-		return "Apache Mina SSH";
-	}
-
-	public void login(String host, String userName, String password) throws Exception {
-		// TODO Auto-generated method stub
-		
-	}
-
-	public void logout() {
-		// TODO Auto-generated method stub
-		
-	}
-
-}
+package org.pxu.tools.ssh.providers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.sshd.client.SshClient;
+import org.apache.sshd.client.channel.ChannelExec;
+import org.apache.sshd.client.channel.ChannelShell;
+import org.apache.sshd.client.channel.ClientChannel;
+import org.apache.sshd.client.channel.ClientChannelEvent;
+import org.apache.sshd.client.keyverifier.AcceptAllServerKeyVerifier;
+import org.apache.sshd.client.session.ClientSession;
+import org.apache.sshd.common.future.SshFutureListener;
+import org.apache.sshd.common.io.IoReadFuture;
+import org.apache.sshd.common.util.buffer.Buffer;
+import org.apache.sshd.common.util.buffer.ByteArrayBuffer;
+import org.apache.sshd.core.CoreModuleProperties;
+import org.pxu.tools.ssh.ExecResult;
+import org.pxu.tools.ssh.OutputListener;
+import org.pxu.tools.ssh.SSHClientLibrary;
+
+/**
+ * Apache SSH Provider
+ * 
+ * All sessions share one MINA SSHD client whose few NIO worker threads do
+ * the reading and writing for every channel; a logged in shell holds no
+ * thread of its own. Output is buffered for {@link #getInputStream()} and an
+ * {@link OutputListener} is told of it on the NIO thread, which is where
+ * {@link org.pxu.tools.ssh.UnixShell} matches its patterns. Reading pauses
+ * while the buffer is full, which lets the SSH window hold the server back.
+ * 
+ * @author Prabhu Periasmy
+ * 
+ * @link http://mina.apache.org/sshd/
+ */
+public class ApacheSSHProvider implements SSHClientLibrary {
+
+	private static final long CONNECT_TIMEOUT = 30000; // ms
+	private static final int READ_SIZE = 32 * 1024;
+	private static final int MAX_BUFFERED = 1024 * 1024; // bytes
+
+	private static SshClient client;
+	private static int ioThreads = Runtime.getRuntime().availableProcessors() + 1;
+
+	private ClientSession session;
+	private ChannelShell channel;
+	private final Buffer readBuffer = new ByteArrayBuffer(READ_SIZE);
+	private final Pipe pipe = new Pipe();
+	private volatile OutputListener listener;
+
+	/**
+	 * Number of NIO threads serving all sessions. Default is the number of
+	 * processors plus one. Call before the first login.
+	 */
+	public static synchronized void setIoThreads(int threads) {
+		ioThreads = threads;
+	}
+
+	private static synchronized SshClient client() {
+		if (client == null) {
+			client = SshClient.setUpDefaultClient();
+			CoreModuleProperties.NIO_WORKERS.set(client, ioThreads);
+			client.setServerKeyVerifier(AcceptAllServerKeyVerifier.INSTANCE);
+			client.start();
+		}
+		return client;
+	}
+
+	/**
+	 * Tells listener on the NIO thread whenever output was buffered. Set
+	 * before login.
+	 * 
+	 * @return true
+	 */
+	@Override
+	public boolean setOutputListener(OutputListener listener) {
+		this.listener = listener;
+		return true;
+	}
+
+	public void login(String host, String userName, String password) throws Exception {
+		HostPort address = HostPort.parse(host);
+		session = client()
+				.connect(userName, address.getName(), address.getPort())
+				.verify(CONNECT_TIMEOUT).getSession();
+		session.addPasswordIdentity(password);
+		session.auth().verify(CONNECT_TIMEOUT);
+
+		channel = session.createShellChannel();
+		channel.setStreaming(ClientChannel.Streaming.Async);
+		channel.open().verify(CONNECT_TIMEOUT);
+		readNext();
+	}
+
+	/**
+	 * Asks for the next block of output; the reply comes on an NIO thread
+	 */
+	private void readNext() {
+		readBuffer.clear();
+		channel.getAsyncOut().read(readBuffer)
+				.addListener(new SshFutureListener<IoReadFuture>() {
+					public void operationComplete(IoReadFuture future) {
+						if (future.getException() != null) {
+							closed();
+							return;
+						}
+						Buffer b = future.getBuffer();
+						boolean more = pipe.write(b.array(), b.rpos(),
+								b.wpos() - b.rpos());
+						OutputListener l = listener;
+						if (l != null)
+							l.outputAvailable(); // may drain and resume
+						if (more)
+							readNext();
+						// else resumed by the pipe once drained
+					}
+				});
+	}
+
+	private void closed() {
+		pipe.close();
+		OutputListener l = listener;
+		if (l != null)
+			l.closed();
+	}
+
+	@Override
+	public ExecResult execCommand(String command, int timeout,
+			Charset charset) throws Exception {
+		if (session == null)
+			throw new IllegalStateException("Not logged in");
+		ChannelExec exec = session.createExecChannel(command);
+		try {
+			ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+			ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+			exec.setOut(stdout);
+			exec.setErr(stderr);
+			exec.open().verify(CONNECT_TIMEOUT);
+			Set<ClientChannelEvent> events = exec.waitFor(
+					EnumSet.of(ClientChannelEvent.CLOSED),
+					TimeUnit.SECONDS.toMillis(timeout));
+			if (!events.contains(ClientChannelEvent.CLOSED))
+				throw new TimeoutException("Timedout (" + timeout
+						+ " seconds elapsed) running command '" + command + "'.");
+			Integer status = exec.getExitStatus();
+			return new ExecResult(command, new String(stdout.toByteArray(),
+					charset), new String(stderr.toByteArray(), charset),
+					(status == null) ? -1 : status);
+		} finally {
+			exec.close(true);
+		}
+	}
+
+	public InputStream getInputStream() {
+		return pipe;
+	}
+
+	public OutputStream getOutputStream() {
+		return new OutputStream() {
+			private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+			@Override
+			public void write(int b) {
+				pending.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				pending.write(b, off, len);
+			}
+
+			@Override
+			public synchronized void flush() throws IOException {
+				if (pending.size() == 0)
+					return;
+				// one write in flight at a time
+				channel.getAsyncIn()
+						.writeBuffer(new ByteArrayBuffer(pending.toByteArray()))
+						.verify(CONNECT_TIMEOUT);
+				pending.reset();
+			}
+		};
+	}
+
+	public String getProviderName() {
+		return "Apache Mina SSH";
+	}
+
+	public void logout() {
+		try {
+			if (channel != null)
+				channel.close(true);
+		} catch (Exception ignore) {
+		}
+		try {
+			if (session != null)
+				session.close(true);
+		} catch (Exception ignore) {
+		}
+		pipe.close();
+	}
+
+	/**
+	 * Output waiting for a reader of {@link #getInputStream()}. Readers wait
+	 * on a Condition rather than in a synchronized method, so that a virtual
+	 * thread waiting for output unmounts from its carrier.
+	 */
+	private class Pipe extends InputStream {
+		private byte[] data = new byte[READ_SIZE]; // guarded by lock
+		private int start, length; // guarded by lock
+		private boolean eof, paused; // guarded by lock
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition readable = lock.newCondition();
+
+		/**
+		 * @return False if the pipe is full and reading should pause
+		 */
+		boolean write(byte[] b, int off, int len) {
+			lock.lock();
+			try {
+				if (start + length + len > data.length) {
+					System.arraycopy(data, start, data, 0, length);
+					start = 0;
+					if (length + len > data.length) {
+						byte[] bigger = new byte[Math.max(data.length * 2,
+								length + len)];
+						System.arraycopy(data, 0, bigger, 0, length);
+						data = bigger;
+					}
+				}
+				System.arraycopy(b, off, data, start + length, len);
+				length += len;
+				readable.signalAll();
+				paused = length >= MAX_BUFFERED;
+				return !paused;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void close() {
+			lock.lock();
+			try {
+				eof = true;
+				readable.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return (read(one, 0, 1) == -1) ? -1 : one[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			boolean resume;
+			int n;
+			lock.lock();
+			try {
+				while (length == 0) {
+					if (eof)
+						return -1;
+					try {
+						readable.await();
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException();
+					}
+				}
+				n = Math.min(len, length);
+				System.arraycopy(data, start, b, off, n);
+				start += n;
+				length -= n;
+				resume = paused && length < MAX_BUFFERED / 2;
+				if (resume)
+					paused = false;
+			} finally {
+				lock.unlock();
+			}
+			if (resume)
+				readNext();
+			return n;
+		}
+
+		@Override
+		public int available() {
+			lock.lock();
+			try {
+				return length;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
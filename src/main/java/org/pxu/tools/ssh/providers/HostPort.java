@@ -0,0 +1,57 @@
+package org.pxu.tools.ssh.providers;
+
+/**
+ * Splits the host given to a provider into name and port. A host is either
+ * a name or address alone, connected on port 22, or "name:port". IPv6
+ * addresses take a port only in brackets, "[::1]:2222".
+ */
+public final class HostPort {
+
+	public static final int DEFAULT_PORT = 22;
+
+	private final String name;
+	private final int port;
+
+	private HostPort(String name, int port) {
+		this.name = name;
+		this.port = port;
+	}
+
+	public static HostPort parse(String host) {
+		if (host.startsWith("[")) {
+			int end = host.indexOf(']');
+			if (end > 0) {
+				String name = host.substring(1, end);
+				if (host.startsWith(":", end + 1))
+					return new HostPort(name, port(host.substring(end + 2), host));
+				return new HostPort(name, DEFAULT_PORT);
+			}
+		}
+		int colon = host.indexOf(':');
+		if (colon < 0 || colon != host.lastIndexOf(':')) // name or bare IPv6
+			return new HostPort(host, DEFAULT_PORT);
+		return new HostPort(host.substring(0, colon), port(
+				host.substring(colon + 1), host));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	private static int port(String port, String host) {
+		try {
+			return Integer.parseInt(port);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Bad port in host " + host);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return (name.indexOf(':') < 0 ? name : "[" + name + "]") + ":" + port;
+	}
+}
@@ -0,0 +1,204 @@
+package org.pxu.tools.ssh.providers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.pxu.tools.ssh.FileTransfer;
+import org.pxu.tools.ssh.RemoteFile;
+import org.pxu.tools.ssh.TransferListener;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+import com.jcraft.jsch.SftpProgressMonitor;
+
+/**
+ * SFTP transfers on a session shared through {@link JSchSessions}.
+ * 
+ * Downloads are split into ranges fetched over several channels at once, see
+ * {@link #setParallelism(int)}.
+ */
+public class JSchFileTransfer implements FileTransfer {
+
+	private static final long REPORT_INTERVAL = 200; // ms between progress calls
+
+	private final String host, userName, password;
+	private int parallelism = 4;
+	private long chunkSize = 8 * 1024 * 1024;
+
+	private final JSchSessions.Lease lease;
+	protected final ChannelSftp sftp;
+
+	/**
+	 * Opens an sftp channel to host, on an already connected session if there
+	 * is one
+	 * 
+	 * @throws JSchException
+	 *             if no channel could be opened
+	 */
+	public JSchFileTransfer(String host, String userName, String password)
+			throws JSchException {
+		this.host = host;
+		this.userName = userName;
+		this.password = password;
+		lease = JSchSessions.acquire(host, userName, password);
+		try {
+			sftp = (ChannelSftp) lease.openChannel("sftp");
+			sftp.connect(30000);
+		} catch (JSchException e) {
+			lease.close();
+			throw e;
+		}
+	}
+
+	public void upload(InputStream in, long size, String remotePath,
+			TransferListener listener) throws IOException {
+		try {
+			sftp.put(in, remotePath, new Progress(remotePath, size, listener),
+					ChannelSftp.OVERWRITE);
+		} catch (SftpException e) {
+			throw failed("Upload to " + remotePath, e);
+		}
+	}
+
+	/**
+	 * Number of sftp channels a download uses at most. Default 4.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Bytes fetched per request of a download, and the unit in which an
+	 * interrupted download resumes. Default 8 MB.
+	 */
+	public void setChunkSize(long bytes) {
+		this.chunkSize = bytes;
+	}
+
+	/**
+	 * Fetches the file in ranges over up to {@link #setParallelism(int)}
+	 * channels; this transfer's channel is one of them.
+	 */
+	public void download(String remotePath, Path local,
+			TransferListener listener) throws IOException {
+		new ParallelDownload(host, userName, password, remotePath, local,
+				parallelism, chunkSize, listener).run(sftp);
+	}
+
+	public List<RemoteFile> list(String remoteDir) throws IOException {
+		List<RemoteFile> files = new ArrayList<RemoteFile>();
+		try {
+			for (Object o : sftp.ls(remoteDir)) {
+				LsEntry entry = (LsEntry) o;
+				String name = entry.getFilename();
+				if (name.equals(".") || name.equals(".."))
+					continue;
+				SftpATTRS attrs = entry.getAttrs();
+				files.add(new RemoteFile(name, attrs.getSize(),
+						attrs.getMTime() & 0xFFFFFFFFL, attrs.isDir(), attrs
+								.isLink()));
+			}
+		} catch (SftpException e) {
+			throw failed("List " + remoteDir, e);
+		}
+		return files;
+	}
+
+	public boolean exists(String remotePath) throws IOException {
+		try {
+			sftp.stat(remotePath);
+			return true;
+		} catch (SftpException e) {
+			if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE)
+				return false;
+			throw failed("Stat " + remotePath, e);
+		}
+	}
+
+	public void mkdir(String remoteDir) throws IOException {
+		try {
+			sftp.mkdir(remoteDir);
+		} catch (SftpException e) {
+			throw failed("Create " + remoteDir, e);
+		}
+	}
+
+	public void delete(String remotePath) throws IOException {
+		try {
+			sftp.rm(remotePath);
+		} catch (SftpException e) {
+			throw failed("Delete " + remotePath, e);
+		}
+	}
+
+	public void rmdir(String remoteDir) throws IOException {
+		try {
+			sftp.rmdir(remoteDir);
+		} catch (SftpException e) {
+			throw failed("Delete " + remoteDir, e);
+		}
+	}
+
+	public void setModifiedTime(String remotePath, long seconds)
+			throws IOException {
+		try {
+			sftp.setMtime(remotePath, (int) seconds);
+		} catch (SftpException e) {
+			throw failed("Set time of " + remotePath, e);
+		}
+	}
+
+	private static IOException failed(String what, SftpException e) {
+		return new IOException(what + " failed: " + e.getMessage(), e);
+	}
+
+	public void close() {
+		lease.close();
+	}
+
+	/**
+	 * Turns JSch's byte counts into rate reports
+	 */
+	static class Progress implements SftpProgressMonitor {
+		private final String remotePath;
+		private final long size;
+		private final TransferListener listener;
+		private final long start = System.nanoTime();
+		private long bytes, lastReport;
+
+		Progress(String remotePath, long size, TransferListener listener) {
+			this.remotePath = remotePath;
+			this.size = size;
+			this.listener = listener;
+		}
+
+		public void init(int op, String src, String dest, long max) {
+		}
+
+		public boolean count(long count) {
+			bytes += count;
+			long now = System.nanoTime();
+			if (listener != null && now - lastReport > REPORT_INTERVAL * 1000000L) {
+				lastReport = now;
+				report(now);
+			}
+			return true;
+		}
+
+		public void end() {
+			if (listener != null)
+				report(System.nanoTime());
+		}
+
+		private void report(long now) {
+			double seconds = Math.max(now - start, 1) / 1e9;
+			listener.progress(remotePath, bytes, size, bytes / seconds);
+		}
+	}
+}
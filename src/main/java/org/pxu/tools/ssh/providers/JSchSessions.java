@@ -0,0 +1,230 @@
+package org.pxu.tools.ssh.providers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import com.jcraft.jsch.UserInfo;
+
+/**
+ * Shares authenticated JSch sessions between channels.
+ *
+ * Every shell, exec or sftp channel to the same host and user is opened on an
+ * already connected session when one has a free slot, so only the first
+ * conversation with a host pays for the SSH handshake. A session carries at
+ * most {@link #setMaxChannelsPerSession(int)} channels (sshd's MaxSessions
+ * defaults to 10); when all sessions to a host are full, another one is
+ * connected. A session is disconnected when its last channel is released.
+ */
+public final class JSchSessions {
+
+	public static final int PORT = HostPort.DEFAULT_PORT;
+
+	private static final int CONNECT_TIMEOUT = 30000;
+
+	private static int maxChannelsPerSession = 10;
+
+	private static final Map<String, List<Shared>> sessions = new HashMap<String, List<Shared>>();
+
+	private JSchSessions() {
+	}
+
+	/**
+	 * Channels opened on one session before another session is connected.
+	 * Default 10. Use 1 for a dedicated session per channel.
+	 */
+	public static synchronized void setMaxChannelsPerSession(int max) {
+		if (max < 1)
+			throw new IllegalArgumentException("max must be at least 1");
+		maxChannelsPerSession = max;
+	}
+
+	public static synchronized int getMaxChannelsPerSession() {
+		return maxChannelsPerSession;
+	}
+
+	/**
+	 * @return Number of connected sessions to host as userName
+	 */
+	public static synchronized int getSessionCount(String host, String userName) {
+		List<Shared> list = sessions.get(key(host, userName));
+		return (list == null) ? 0 : list.size();
+	}
+
+	/**
+	 * Reserves a channel slot on a session to host, connecting one if none has
+	 * room.
+	 *
+	 * @param host
+	 *            - Name or address, with ":port" if not {@value #PORT}
+	 *
+	 * @return A lease to open the channel on, to be closed after use
+	 * @throws JSchException
+	 *             if a new session could not be connected
+	 */
+	public static Lease acquire(String host, String userName, String password)
+			throws JSchException {
+		String key = key(host, userName);
+		synchronized (JSchSessions.class) {
+			Shared shared = findFree(key, password);
+			if (shared != null)
+				return new Lease(shared);
+		}
+
+		// Handshake outside the lock so that logins to other hosts go on
+		Session session = connect(host, userName, password);
+		synchronized (JSchSessions.class) {
+			Shared shared = new Shared(key, password, session);
+			List<Shared> list = sessions.get(key);
+			if (list == null)
+				sessions.put(key, list = new ArrayList<Shared>());
+			list.add(shared);
+			shared.channels++;
+			return new Lease(shared);
+		}
+	}
+
+	private static Shared findFree(String key, String password) {
+		List<Shared> list = sessions.get(key);
+		if (list == null)
+			return null;
+		for (Iterator<Shared> it = list.iterator(); it.hasNext();) {
+			Shared shared = it.next();
+			if (!shared.session.isConnected()) {
+				it.remove(); // dropped by the server, leases still out will fail
+				continue;
+			}
+			if (shared.channels < maxChannelsPerSession
+					&& Objects.equals(shared.password, password)) {
+				shared.channels++;
+				return shared;
+			}
+		}
+		if (list.isEmpty())
+			sessions.remove(key);
+		return null;
+	}
+
+	private static synchronized void release(Shared shared) {
+		if (--shared.channels > 0)
+			return;
+		List<Shared> list = sessions.get(shared.key);
+		if (list != null) {
+			list.remove(shared);
+			if (list.isEmpty())
+				sessions.remove(shared.key);
+		}
+		try {
+			shared.session.disconnect();
+		} catch (Exception ignore) {
+		}
+	}
+
+	private static Session connect(String host, String userName,
+			final String password) throws JSchException {
+		HostPort address = HostPort.parse(host);
+		Session session = new JSch().getSession(userName, address.getName(),
+				address.getPort());
+		session.setUserInfo(new UserInfo() {
+
+			public String getPassphrase() {
+				return null;
+			}
+
+			public String getPassword() {
+				return password;
+			}
+
+			public boolean promptPassphrase(String arg0) {
+				return true;
+			}
+
+			public boolean promptPassword(String arg0) {
+				return true;
+			}
+
+			public boolean promptYesNo(String arg0) {
+				return true;
+			}
+
+			public void showMessage(String arg0) {
+				System.out.println(arg0);
+			}
+		});
+		session.connect(CONNECT_TIMEOUT);
+		return session;
+	}
+
+	private static String key(String host, String userName) {
+		return userName + "@" + HostPort.parse(host);
+	}
+
+	private static class Shared {
+		final String key, password;
+		final Session session;
+		int channels; // slots taken, guarded by JSchSessions.class
+
+		Shared(String key, String password, Session session) {
+			this.key = key;
+			this.password = password;
+			this.session = session;
+		}
+	}
+
+	/**
+	 * One channel slot on a shared session
+	 */
+	public static final class Lease {
+		private final Shared shared;
+		private Channel channel;
+		private boolean closed;
+
+		private Lease(Shared shared) {
+			this.shared = shared;
+		}
+
+		/**
+		 * Opens the channel of this lease, not yet connected
+		 *
+		 * @param type
+		 *            - "shell", "exec" or "sftp"
+		 */
+		public synchronized Channel openChannel(String type)
+				throws JSchException {
+			if (closed)
+				throw new IllegalStateException("Lease is closed");
+			if (channel != null)
+				throw new IllegalStateException("Channel already opened");
+			channel = shared.session.openChannel(type);
+			return channel;
+		}
+
+		public Session getSession() {
+			return shared.session;
+		}
+
+		/**
+		 * Disconnects the channel and frees its slot
+		 */
+		public void close() {
+			synchronized (this) {
+				if (closed)
+					return;
+				closed = true;
+				try {
+					if (channel != null && channel.isConnected())
+						channel.disconnect();
+				} catch (Exception ignore) {
+				}
+			}
+			release(shared);
+		}
+	}
+}
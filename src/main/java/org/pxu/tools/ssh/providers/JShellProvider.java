@@ -1,96 +1,146 @@
-package org.pxu.tools.ssh.providers;
-
-import java.io.InputStream;
-import java.io.OutputStream;
-
-import org.pxu.tools.ssh.SSHClientLibrary;
-import com.jcraft.jsch.Channel;
-import com.jcraft.jsch.JSch;
-import com.jcraft.jsch.Session;
-import com.jcraft.jsch.UserInfo;
-
-/**
- * JSch Provider
- * 
- * @author Prabhu Periasmy
- *
- * @link http://www.jcraft.com/jsch/
- */
-public class JShellProvider implements SSHClientLibrary {
-	private Session g_session;
-	private Channel g_channel;
-	private InputStream inputStream;
-	private OutputStream outputStream;
-
-	public void login(final String host, final String userName, final String password) throws Exception {
-		JSch jsch = new JSch();
-
-		g_session = jsch.getSession(userName, host, 22);
-
-		g_session.setUserInfo(new UserInfo() {
-
-			public String getPassphrase() {
-				return null;
-			}
-
-			public String getPassword() {
-				return password;
-			}
-
-			public boolean promptPassphrase(String arg0) {
-				return true;
-			}
-
-			public boolean promptPassword(String arg0) {
-				return true;
-			}
-
-			public boolean promptYesNo(String arg0) {
-				return true;
-			}
-
-			public void showMessage(String arg0) {
-				System.out.println(arg0);
-			}
-		});
-
-		// session.setConfig("StrictHostKeyChecking", "no");
-
-		g_session.connect(30000); // making a connection with timeout.
-
-		g_channel = g_session.openChannel("shell");
-
-		inputStream = (g_channel.getInputStream());
-		outputStream = (g_channel.getOutputStream());
-
-		g_channel.connect(3 * 1000);
-
-	}
-
-	public void logout() {
-		try {
-			if (g_channel != null && g_channel.isConnected())
-				g_channel.disconnect();
-		} catch (Exception ignore) {
-		}
-
-		try {
-			if (g_session != null && g_session.isConnected())
-				g_session.disconnect();
-		} catch (Exception ignore) {
-		}
-	}
-
-	public InputStream getInputStream() {
-		return inputStream;
-	}
-
-	public OutputStream getOutputStream() {
-		return outputStream;
-	}
-
-	public String getProviderName() {
-		return "JSch";
-	}
-
-}
+package org.pxu.tools.ssh.providers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.pxu.tools.ssh.ExecResult;
+import org.pxu.tools.ssh.HashedWheelTimer;
+import org.pxu.tools.ssh.SSHClientLibrary;
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.ChannelExec;
+
+/**
+ * JSch Provider
+ * 
+ * The shell channel is opened on a session shared with other channels to the
+ * same host, see {@link JSchSessions}.
+ * 
+ * @author Prabhu Periasmy
+ *
+ * @link http://www.jcraft.com/jsch/
+ */
+public class JShellProvider implements SSHClientLibrary {
+
+	private String host, userName, password;
+	private JSchSessions.Lease g_lease;
+	private Channel g_channel;
+	private InputStream inputStream;
+	private OutputStream outputStream;
+
+	public void login(final String host, final String userName, final String password) throws Exception {
+		this.host = host;
+		this.userName = userName;
+		this.password = password;
+
+		g_lease = JSchSessions.acquire(host, userName, password);
+
+		g_channel = g_lease.openChannel("shell");
+
+		inputStream = (g_channel.getInputStream());
+		outputStream = (g_channel.getOutputStream());
+
+		g_channel.connect(3 * 1000);
+
+	}
+
+	public void logout() {
+		try {
+			if (g_lease != null)
+				g_lease.close(); // disconnects the session with its last channel
+		} catch (Exception ignore) {
+		}
+	}
+
+	/**
+	 * Runs the command on an exec channel of the shared session. Stdout is
+	 * read until the server sends EOF and stderr until the channel closes,
+	 * after which the exit status is known.
+	 */
+	@Override
+	public ExecResult execCommand(String command, int timeout,
+			Charset charset) throws Exception {
+		if (host == null)
+			throw new IllegalStateException("Not logged in");
+
+		JSchSessions.Lease lease = JSchSessions.acquire(host, userName, password);
+		try {
+			final ChannelExec channel = (ChannelExec) lease.openChannel("exec");
+			channel.setCommand(command);
+			channel.setInputStream(null);
+			final InputStream err = channel.getErrStream();
+			InputStream in = channel.getInputStream();
+
+			final AtomicBoolean timedOut = new AtomicBoolean();
+			HashedWheelTimer.Timeout watchdog = HashedWheelTimer.shared()
+					.schedule(new Runnable() {
+						public void run() {
+							timedOut.set(true);
+							channel.disconnect(); // ends the read below
+						}
+					}, timeout, TimeUnit.SECONDS);
+
+			ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+			final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+			// read apart, the server may fill the window of either first;
+			// JSch ends stderr when the channel closes, after exit-status
+			Thread errReader = new Thread(new Runnable() {
+				public void run() {
+					try {
+						copy(err, stderr);
+					} catch (IOException ignore) {
+						// closed on timeout
+					}
+				}
+			}, "JShellProvider-stderr");
+			errReader.setDaemon(true);
+			try {
+				channel.connect(3 * 1000);
+				errReader.start();
+				copy(in, stdout);
+				errReader.join();
+			} catch (IOException e) {
+				if (!timedOut.get())
+					throw e;
+			} finally {
+				watchdog.cancel();
+			}
+
+			if (timedOut.get())
+				throw new TimeoutException("Timedout (" + timeout
+						+ " seconds elapsed) running command '" + command + "'.");
+
+			return new ExecResult(command, new String(stdout.toByteArray(),
+					charset), new String(stderr.toByteArray(), charset),
+					channel.getExitStatus());
+		} finally {
+			lease.close();
+		}
+	}
+
+	private static void copy(InputStream in, OutputStream out)
+			throws IOException {
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) != -1)
+			out.write(buffer, 0, n);
+	}
+
+	public InputStream getInputStream() {
+		return inputStream;
+	}
+
+	public OutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	public String getProviderName() {
+		return "JSch";
+	}
+
+}
@@ -0,0 +1,287 @@
+package org.pxu.tools.ssh.providers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pxu.tools.ssh.TransferListener;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+
+/**
+ * Downloads one remote file as fixed size ranges fetched over several sftp
+ * channels at once. Each range is written at its position in a pre-sized
+ * local file.
+ *
+ * Finished ranges are listed in a <code>.parts</code> file next to the target,
+ * so a download that fails or is killed resumes with the missing ranges only.
+ * The list is discarded if the remote file changed size or mtime meanwhile,
+ * or if the local file is gone or shorter than the remote one.
+ */
+class ParallelDownload {
+
+	private static final String PARTS = ".parts";
+
+	private final String host, userName, password;
+	private final String remotePath;
+	private final Path local;
+	private final int parallelism;
+	private final long chunkSize;
+	private final TransferListener listener;
+
+	private long size;
+	private int mtime;
+	private final AtomicLong transferred = new AtomicLong();
+	private final long start = System.nanoTime();
+	private long lastReport;
+
+	private Writer parts;
+	private BitSet done; // ranges on disk, guarded by this
+	private int ranges;
+
+	ParallelDownload(String host, String userName, String password,
+			String remotePath, Path local, int parallelism, long chunkSize,
+			TransferListener listener) {
+		this.host = host;
+		this.userName = userName;
+		this.password = password;
+		this.remotePath = remotePath;
+		this.local = local;
+		this.parallelism = parallelism;
+		this.chunkSize = chunkSize;
+		this.listener = listener;
+	}
+
+	void run(ChannelSftp sftp) throws IOException {
+		try {
+			SftpATTRS attrs = sftp.stat(remotePath);
+			size = attrs.getSize();
+			mtime = attrs.getMTime();
+		} catch (SftpException e) {
+			throw new IOException("Cannot stat " + remotePath + ": "
+					+ e.getMessage(), e);
+		}
+
+		ranges = (int) ((size + chunkSize - 1) / chunkSize);
+		Path partsFile = local.resolveSibling(local.getFileName() + PARTS);
+		String header = size + " " + mtime + " " + chunkSize;
+		done = readParts(partsFile, header);
+
+		final ConcurrentLinkedQueue<Integer> todo = new ConcurrentLinkedQueue<Integer>();
+		for (int i = 0; i < ranges; i++) {
+			if (done.get(i))
+				transferred.addAndGet(length(i));
+			else
+				todo.add(i);
+		}
+
+		FileChannel target = FileChannel.open(local, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			boolean resuming = !done.isEmpty();
+			if (!resuming)
+				target.truncate(0);
+			if (target.size() < size) // sparse until the ranges arrive
+				target.write(ByteBuffer.wrap(new byte[1]), size - 1);
+
+			parts = Files.newBufferedWriter(partsFile, StandardCharsets.US_ASCII,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			try {
+				if (!resuming) {
+					parts.write(header + "\n");
+					parts.flush();
+				}
+				fetchAll(sftp, target, todo);
+			} finally {
+				parts.close();
+			}
+			target.truncate(size);
+			target.force(false);
+		} finally {
+			target.close();
+		}
+		Files.delete(partsFile);
+		report(true);
+	}
+
+	/**
+	 * Runs one worker on the given channel and the others on channels of
+	 * their own
+	 */
+	private void fetchAll(ChannelSftp sftp, final FileChannel target,
+			final ConcurrentLinkedQueue<Integer> todo) throws IOException {
+		int workers = Math.min(parallelism, todo.size());
+		ExecutorService executor = (workers > 1) ? Executors
+				.newFixedThreadPool(workers - 1) : null;
+		List<Future<Void>> others = new ArrayList<Future<Void>>();
+		try {
+			for (int i = 1; i < workers; i++)
+				others.add(executor.submit(() -> {
+					JSchFileTransfer own = new JSchFileTransfer(host, userName,
+							password);
+					try {
+						fetchRanges(own.sftp, target, todo);
+					} finally {
+						own.close();
+					}
+					return null;
+				}));
+			IOException failure = null;
+			try {
+				fetchRanges(sftp, target, todo);
+			} catch (IOException e) {
+				failure = e;
+			}
+			for (Future<Void> f : others) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					if (failure == null)
+						failure = asIOException(e.getCause());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Download of " + remotePath
+							+ " interrupted", e);
+				}
+			}
+			// A worker that could not open its channel is not fatal as long
+			// as the others got every range
+			if (!isComplete())
+				throw (failure != null) ? failure : new IOException(
+						"Download of " + remotePath + " incomplete");
+		} finally {
+			todo.clear(); // stops workers still running after a failure
+			if (executor != null)
+				executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Takes ranges off the queue until it is empty. On failure the queue is
+	 * cleared so that the other workers stop too.
+	 */
+	private void fetchRanges(ChannelSftp sftp, FileChannel target,
+			ConcurrentLinkedQueue<Integer> todo) throws IOException {
+		byte[] buffer = new byte[64 * 1024];
+		Integer range;
+		while ((range = todo.poll()) != null) {
+			if (Thread.currentThread().isInterrupted())
+				throw new IOException("Download of " + remotePath
+						+ " interrupted");
+			long position = range * chunkSize;
+			long remaining = length(range);
+			try {
+				InputStream in = sftp.get(remotePath, null, position);
+				try {
+					while (remaining > 0) {
+						int n = in.read(buffer, 0,
+								(int) Math.min(buffer.length, remaining));
+						if (n == -1)
+							throw new IOException(remotePath
+									+ " shrank during download");
+						ByteBuffer bb = ByteBuffer.wrap(buffer, 0, n);
+						while (bb.hasRemaining())
+							position += target.write(bb, position);
+						remaining -= n;
+						transferred.addAndGet(n);
+						report(false);
+					}
+				} finally {
+					in.close();
+				}
+			} catch (SftpException e) {
+				todo.clear();
+				throw new IOException("Download of " + remotePath
+						+ " failed: " + e.getMessage(), e);
+			} catch (IOException e) {
+				todo.clear();
+				throw e;
+			}
+			finished(range);
+		}
+	}
+
+	private long length(int range) {
+		return Math.min(chunkSize, size - range * chunkSize);
+	}
+
+	private synchronized void finished(int range) throws IOException {
+		done.set(range);
+		parts.write(range + "\n");
+		parts.flush();
+	}
+
+	private synchronized boolean isComplete() {
+		return done.cardinality() == ranges;
+	}
+
+	private synchronized void report(boolean last) {
+		if (listener == null)
+			return;
+		long now = System.nanoTime();
+		if (!last && now - lastReport < 200 * 1000000L)
+			return;
+		lastReport = now;
+		double seconds = Math.max(now - start, 1) / 1e9;
+		listener.progress(remotePath, transferred.get(), size,
+				transferred.get() / seconds);
+	}
+
+	/**
+	 * @return Ranges finished by an earlier attempt at the same remote file,
+	 *         none if the partial local file was removed or truncated since
+	 */
+	private BitSet readParts(Path partsFile, String header) throws IOException {
+		BitSet done = new BitSet();
+		if (!Files.exists(partsFile))
+			return done;
+		BufferedReader reader = Files.newBufferedReader(partsFile,
+				StandardCharsets.US_ASCII);
+		try {
+			if (!header.equals(reader.readLine()) || !Files.exists(local)
+					|| Files.size(local) < size) {
+				reader.close();
+				Files.delete(partsFile); // the ranges are not there, start over
+				return done;
+			}
+			String line;
+			while ((line = reader.readLine()) != null) {
+				try {
+					done.set(Integer.parseInt(line.trim()));
+				} catch (NumberFormatException e) {
+					// torn last line of a killed download
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return done;
+	}
+
+	private static IOException asIOException(Throwable e) {
+		if (e instanceof IOException)
+			return (IOException) e;
+		if (e instanceof JSchException)
+			return new IOException("Cannot open sftp channel: " + e.getMessage(), e);
+		return new IOException(e);
+	}
+}
@@ -0,0 +1,115 @@
+package org.pxu.tools.ssh.providers;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+import org.pxu.tools.ssh.ExecResult;
+import org.pxu.tools.ssh.OutputListener;
+import org.pxu.tools.ssh.SSHClientLibrary;
+import org.pxu.tools.ssh.transcript.TranscriptWriter;
+
+/**
+ * Records the shell session of another provider into a transcript for
+ * {@link ReplayProvider}.
+ *
+ * Received bytes are stamped when the shell reads them, so record with
+ * {@link org.pxu.tools.ssh.UnixShell.AnalyzerMode#EVENT_DRIVEN} to keep the
+ * timing of the server; polling reads once a second. Exec channels are passed
+ * through unrecorded.
+ *
+ * <pre>
+ * shell.initSSHProvider(new RecordingProvider(new JShellProvider(), path));
+ * </pre>
+ */
+public class RecordingProvider implements SSHClientLibrary {
+
+	private final SSHClientLibrary delegate;
+	private final Path file;
+	private TranscriptWriter transcript;
+	private InputStream in;
+	private OutputStream out;
+
+	/**
+	 * @param file
+	 *            - Transcript to write, replaced on login
+	 */
+	public RecordingProvider(SSHClientLibrary delegate, Path file) {
+		this.delegate = delegate;
+		this.file = file;
+	}
+
+	public void login(String host, String userName, String password)
+			throws Exception {
+		transcript = new TranscriptWriter(file);
+		try {
+			delegate.login(host, userName, password);
+		} catch (Exception e) {
+			transcript.close();
+			throw e;
+		}
+		in = new FilterInputStream(delegate.getInputStream()) {
+			@Override
+			public int read() throws IOException {
+				byte[] one = new byte[1];
+				return (read(one, 0, 1) == -1) ? -1 : one[0] & 0xFF;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = in.read(b, off, len);
+				if (n > 0)
+					transcript.received(b, off, n);
+				return n;
+			}
+		};
+		out = new FilterOutputStream(delegate.getOutputStream()) {
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				transcript.sent(b, off, len);
+			}
+		};
+	}
+
+	public InputStream getInputStream() {
+		return in;
+	}
+
+	public OutputStream getOutputStream() {
+		return out;
+	}
+
+	@Override
+	public ExecResult execCommand(String command, int timeout,
+			Charset charset) throws Exception {
+		return delegate.execCommand(command, timeout, charset);
+	}
+
+	@Override
+	public boolean setOutputListener(OutputListener listener) {
+		return delegate.setOutputListener(listener); // reads are still recorded
+	}
+
+	public String getProviderName() {
+		return delegate.getProviderName() + " (recording)";
+	}
+
+	public void logout() {
+		delegate.logout();
+		try {
+			if (transcript != null)
+				transcript.close();
+		} catch (IOException ignore) {
+		}
+	}
+}
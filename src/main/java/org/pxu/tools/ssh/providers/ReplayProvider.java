@@ -0,0 +1,238 @@
+package org.pxu.tools.ssh.providers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.pxu.tools.ssh.SSHClientLibrary;
+import org.pxu.tools.ssh.transcript.TranscriptReader;
+import org.pxu.tools.ssh.transcript.TranscriptReader.Record;
+
+/**
+ * Plays the server side of a transcript from {@link RecordingProvider}, with
+ * no network and no host.
+ *
+ * Received blocks come out with their recorded delays divided by the speed.
+ * Where the client sent something in the recording, replay waits until the
+ * shell has written as many bytes in total, and times the next block from
+ * then. What the shell sends is not compared with the recording. After the
+ * last block the stream stays open, like an idle server, until logout.
+ *
+ * <pre>
+ * shell.initSSHProvider(new ReplayProvider(path, ReplayProvider.INSTANT));
+ * </pre>
+ */
+public class ReplayProvider implements SSHClientLibrary {
+
+	public static final double REAL_TIME = 1;
+	public static final double INSTANT = 0;
+
+	private static final int PIPE_SIZE = 64 * 1024;
+
+	private final Path file;
+	private final double speed;
+
+	private Pipe in;
+	private Thread player;
+	private final Object sentLock = new Object();
+	private long clientSent; // guarded by sentLock
+	private volatile boolean closed;
+
+	/**
+	 * @param speed
+	 *            - {@link #REAL_TIME}, a factor such as 10 for ten times as
+	 *            fast, or {@link #INSTANT} for no delays
+	 */
+	public ReplayProvider(Path file, double speed) {
+		if (speed < 0)
+			throw new IllegalArgumentException("speed must not be negative");
+		this.file = file;
+		this.speed = speed;
+	}
+
+	public void login(String host, String userName, String password)
+			throws Exception {
+		final TranscriptReader transcript = new TranscriptReader(file);
+		in = new Pipe();
+		closed = false;
+		player = new Thread(new Runnable() {
+			public void run() {
+				try {
+					play(transcript);
+				} catch (InterruptedException e) {
+					// logout
+				} catch (InterruptedIOException e) {
+					// logout
+				} catch (IOException e) {
+					if (!closed)
+						e.printStackTrace();
+				} finally {
+					try {
+						transcript.close();
+					} catch (IOException ignore) {
+					}
+				}
+			}
+		}, "ReplayProvider-" + file.getFileName());
+		player.setDaemon(true);
+		player.start();
+	}
+
+	private void play(TranscriptReader transcript) throws IOException,
+			InterruptedException {
+		long recordedSent = 0;
+		Record r;
+		while ((r = transcript.next()) != null) {
+			if (r.isSent()) {
+				recordedSent += r.getData().length;
+				awaitClient(recordedSent);
+				continue;
+			}
+			if (speed > 0) {
+				long delay = (long) (r.getDelayMicros() / speed);
+				if (delay > 0)
+					TimeUnit.MICROSECONDS.sleep(delay);
+			}
+			in.write(r.getData());
+		}
+		synchronized (sentLock) {
+			while (!closed)
+				sentLock.wait(); // idle server, the pipe stays open
+		}
+	}
+
+	private void awaitClient(long bytes) throws InterruptedException {
+		synchronized (sentLock) {
+			while (clientSent < bytes && !closed)
+				sentLock.wait();
+		}
+	}
+
+	public InputStream getInputStream() {
+		return in;
+	}
+
+	public OutputStream getOutputStream() {
+		return new OutputStream() {
+			@Override
+			public void write(int b) {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				synchronized (sentLock) {
+					clientSent += len;
+					sentLock.notifyAll();
+				}
+			}
+		};
+	}
+
+	public String getProviderName() {
+		return "Replay of " + file.getFileName();
+	}
+
+	public void logout() {
+		closed = true;
+		synchronized (sentLock) {
+			sentLock.notifyAll();
+		}
+		if (player != null)
+			player.interrupt();
+		if (in != null)
+			in.close();
+	}
+
+	/**
+	 * Bounded buffer between the player and the shell. Unlike
+	 * PipedInputStream it does not care which threads read, so analyzers on
+	 * pooled or virtual threads work; waiting on a Condition rather than in
+	 * a synchronized method lets a virtual thread unmount.
+	 */
+	private static class Pipe extends InputStream {
+		private final byte[] data = new byte[PIPE_SIZE];
+		private int start, length; // guarded by lock
+		private boolean eof; // guarded by lock
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition changed = lock.newCondition();
+
+		void write(byte[] b) throws InterruptedException {
+			lock.lock();
+			try {
+				int off = 0;
+				while (off < b.length) {
+					while (length == data.length && !eof)
+						changed.await();
+					if (eof)
+						return;
+					int end = (start + length) % data.length;
+					int n = Math.min(b.length - off, Math.min(data.length
+							- length, data.length - end));
+					System.arraycopy(b, off, data, end, n);
+					length += n;
+					off += n;
+					changed.signalAll();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void close() {
+			lock.lock();
+			try {
+				eof = true;
+				changed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return (read(one, 0, 1) == -1) ? -1 : one[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			lock.lock();
+			try {
+				while (length == 0) {
+					if (eof)
+						return -1;
+					try {
+						changed.await();
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException();
+					}
+				}
+				int n = Math.min(len, Math.min(length, data.length - start));
+				System.arraycopy(data, start, b, off, n);
+				start = (start + n) % data.length;
+				length -= n;
+				changed.signalAll();
+				return n;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public int available() {
+			lock.lock();
+			try {
+				return length;
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
@@ -1,79 +1,167 @@
-package org.pxu.tools.ssh.providers;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-
-import org.pxu.tools.ssh.SSHClientLibrary;
-import com.sshtools.j2ssh.SshClient;
-import com.sshtools.j2ssh.authentication.AuthenticationProtocolState;
-import com.sshtools.j2ssh.authentication.PasswordAuthenticationClient;
-import com.sshtools.j2ssh.session.SessionChannelClient;
-import com.sshtools.j2ssh.transport.IgnoreHostKeyVerification;
-
-/**
- * SSHTools Provider
- * @author Prabhu Periasmy
- *
- *@link http://sourceforge.net/projects/sshtools/
- */
-public class SSHToolsProvider implements SSHClientLibrary {
-	
-	private InputStream inputStream;
-	private OutputStream outputStream;
-	private SessionChannelClient session;
-
-
-	public InputStream getInputStream() {
-		return inputStream;
-	}
-
-
-	public OutputStream getOutputStream() {
-		return outputStream;
-	}
-
-
-	public void login(String host, String userName, String password) throws Exception {
-		
-		SshClient ssh = new SshClient();
-
-		ssh.connect(host, new IgnoreHostKeyVerification());
-		
-		PasswordAuthenticationClient pwd = new PasswordAuthenticationClient();
-		pwd.setUsername(userName);
-		pwd.setPassword(password);
-		// Authenticate the user
-		int result = ssh.authenticate(pwd);
-		if(result==AuthenticationProtocolState.COMPLETE) {
-			System.out.println("Authentication complete");
-		}
-		
-		// Open a session channel
-		session = ssh.openSessionChannel();
-		
-		// Request a pseudo terminal, if you do not you may not see the prompt
-		if(session.requestPseudoTerminal("vt100", 80, 24, 0, 0, "")) {
-			// Start the users shell
-			if(session.startShell()) {
-				
-				 inputStream = session.getInputStream();
-				 outputStream = session.getOutputStream();
-			}
-		} 
-		
-	}
-
-	public void logout() {
-		try {
-			session.close();
-		} catch (IOException ignore) {
-		}
-	}
-
-
-	public String getProviderName() {
-		return "SSHTools";
-	}
-
-}
+package org.pxu.tools.ssh.providers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.pxu.tools.ssh.ExecResult;
+import org.pxu.tools.ssh.HashedWheelTimer;
+import org.pxu.tools.ssh.SSHClientLibrary;
+import com.sshtools.j2ssh.SshClient;
+import com.sshtools.j2ssh.authentication.AuthenticationProtocolState;
+import com.sshtools.j2ssh.authentication.PasswordAuthenticationClient;
+import com.sshtools.j2ssh.connection.ChannelState;
+import com.sshtools.j2ssh.session.SessionChannelClient;
+import com.sshtools.j2ssh.transport.IgnoreHostKeyVerification;
+
+/**
+ * SSHTools Provider
+ * @author Prabhu Periasmy
+ *
+ *@link http://sourceforge.net/projects/sshtools/
+ */
+public class SSHToolsProvider implements SSHClientLibrary {
+	
+	private InputStream inputStream;
+	private OutputStream outputStream;
+	private SessionChannelClient session;
+	private SshClient client;
+
+
+	public InputStream getInputStream() {
+		return inputStream;
+	}
+
+
+	public OutputStream getOutputStream() {
+		return outputStream;
+	}
+
+
+	public void login(String host, String userName, String password) throws Exception {
+		
+		SshClient ssh = new SshClient();
+		client = ssh;
+
+		HostPort address = HostPort.parse(host);
+		ssh.connect(address.getName(), address.getPort(),
+				new IgnoreHostKeyVerification());
+		
+		PasswordAuthenticationClient pwd = new PasswordAuthenticationClient();
+		pwd.setUsername(userName);
+		pwd.setPassword(password);
+		// Authenticate the user
+		int result = ssh.authenticate(pwd);
+		if(result==AuthenticationProtocolState.COMPLETE) {
+			System.out.println("Authentication complete");
+		}
+		
+		// Open a session channel
+		session = ssh.openSessionChannel();
+		
+		// Request a pseudo terminal, if you do not you may not see the prompt
+		if(session.requestPseudoTerminal("vt100", 80, 24, 0, 0, "")) {
+			// Start the users shell
+			if(session.startShell()) {
+				
+				 inputStream = session.getInputStream();
+				 outputStream = session.getOutputStream();
+			}
+		} 
+		
+	}
+
+	/**
+	 * Runs command on a session channel of its own, next to the shell
+	 */
+	@Override
+	public ExecResult execCommand(String command, int timeout,
+			Charset charset) throws Exception {
+		if (client == null)
+			throw new IllegalStateException("Not logged in");
+		final SessionChannelClient exec = client.openSessionChannel();
+		final AtomicBoolean timedOut = new AtomicBoolean();
+		HashedWheelTimer.Timeout watchdog = HashedWheelTimer.shared().schedule(
+				new Runnable() {
+					public void run() {
+						timedOut.set(true);
+						try {
+							exec.close(); // ends the reads below
+						} catch (IOException ignore) {
+						}
+					}
+				}, timeout, TimeUnit.SECONDS);
+		try {
+			if (!exec.executeCommand(command))
+				throw new IOException("Server refused to run '" + command
+						+ "'");
+			// read apart, the server may fill the window of either first
+			final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+			final InputStream err = exec.getStderrInputStream();
+			Thread errReader = new Thread(new Runnable() {
+				public void run() {
+					try {
+						copy(err, stderr);
+					} catch (IOException ignore) {
+						// closed on timeout
+					}
+				}
+			}, "SSHToolsProvider-stderr");
+			errReader.setDaemon(true);
+			errReader.start();
+
+			ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+			try {
+				copy(exec.getInputStream(), stdout);
+				errReader.join();
+				// exit-status arrives between EOF and close; the watchdog
+				// closes the channel too
+				exec.getState().waitForState(ChannelState.CHANNEL_CLOSED);
+			} catch (IOException e) {
+				if (!timedOut.get())
+					throw e;
+			}
+
+			if (timedOut.get())
+				throw new TimeoutException("Timedout (" + timeout
+						+ " seconds elapsed) running command '" + command + "'.");
+
+			Integer status = exec.getExitCode();
+			return new ExecResult(command, new String(stdout.toByteArray(),
+					charset), new String(stderr.toByteArray(), charset),
+					(status == null) ? -1 : status);
+		} finally {
+			watchdog.cancel();
+			if (!exec.isClosed())
+				exec.close();
+		}
+	}
+
+	private static void copy(InputStream in, OutputStream out)
+			throws IOException {
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) != -1)
+			out.write(buffer, 0, n);
+	}
+
+	public void logout() {
+		try {
+			session.close();
+		} catch (IOException ignore) {
+		}
+		if (client != null)
+			client.disconnect();
+	}
+
+
+	public String getProviderName() {
+		return "SSHTools";
+	}
+
+}
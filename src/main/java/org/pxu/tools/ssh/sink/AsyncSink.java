@@ -0,0 +1,232 @@
+package org.pxu.tools.ssh.sink;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.pxu.tools.ssh.OutputSink;
+
+/**
+ * Sink that only queues on the calling thread. One writer thread shared by
+ * all sinks formats the queued entries and writes them out in batches.
+ *
+ * Each sink has its own queue, bounded by maxPending chars. When the writer
+ * falls behind, new entries are dropped and counted rather than blocking the
+ * reading thread; a note in the output tells how much was lost.
+ *
+ * Output is headed by the source it came from whenever the source changes,
+ * so that shells sharing a sink can be told apart.
+ */
+abstract class AsyncSink implements OutputSink {
+
+	static final long FLUSH_INTERVAL = 100; // ms
+
+	/** Immutable, so shared by all sinks unlike SimpleDateFormat */
+	private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern(
+			"HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+	private static final ScheduledExecutorService writerThread = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "OutputSink-writer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+
+	private final int maxPending;
+	private List<Entry> pending = new ArrayList<Entry>(); // guarded by this
+	private int pendingChars, droppedChars; // guarded by this
+	private boolean closed; // guarded by this
+	private boolean failed; // writer thread only
+	private String lastSource; // writer thread only, of the last entry
+	private boolean midLine; // writer thread only, output without line end
+	private final ScheduledFuture<?> flusher;
+
+	/**
+	 * @param maxPending
+	 *            - Chars queued at most between two flushes
+	 */
+	AsyncSink(int maxPending) {
+		this.maxPending = maxPending;
+		this.flusher = writerThread.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	public void log(String source, long timeMillis, String message) {
+		add(new Entry(source, timeMillis, message, null), message.length());
+	}
+
+	public void output(String source, char[] chars, int offset, int length) {
+		if (length > 0)
+			add(new Entry(source, 0, null, Arrays.copyOfRange(chars, offset,
+					offset + length)), length);
+	}
+
+	private synchronized void add(Entry entry, int chars) {
+		if (closed)
+			return;
+		if (pendingChars + chars > maxPending) {
+			droppedChars += chars;
+			return;
+		}
+		pending.add(entry);
+		pendingChars += chars;
+	}
+
+	/**
+	 * Writes out what is queued. Runs on the writer thread only.
+	 */
+	private void drain() {
+		List<Entry> batch;
+		int dropped;
+		synchronized (this) {
+			if (pending.isEmpty() && droppedChars == 0)
+				return;
+			batch = pending;
+			dropped = droppedChars;
+			pending = new ArrayList<Entry>();
+			pendingChars = droppedChars = 0;
+		}
+		if (failed)
+			return;
+		try {
+			for (Entry e : batch) {
+				boolean switched = !e.source.equals(lastSource);
+				if (switched && midLine)
+					write(System.lineSeparator());
+				lastSource = e.source;
+				if (e.message != null) {
+					write("[" + e.source + "]["
+							+ TIME.format(Instant.ofEpochMilli(e.time)) + "]: "
+							+ e.message + System.lineSeparator());
+					midLine = false;
+				} else {
+					if (switched)
+						write("[" + e.source + "]" + System.lineSeparator());
+					write(new String(e.chars));
+					midLine = e.chars[e.chars.length - 1] != '\n';
+				}
+			}
+			if (dropped > 0)
+				write(System.lineSeparator() + "[OutputSink: " + dropped
+						+ " chars dropped, writer behind]"
+						+ System.lineSeparator());
+			flush();
+		} catch (IOException e) {
+			failed = true; // once, not for every batch
+			System.err.println("OutputSink stopped writing: " + e);
+		}
+	}
+
+	/**
+	 * Flushes what is queued and closes the sink, waiting for the writer
+	 */
+	public void close() {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+		}
+		flusher.cancel(false);
+		onWriterThread(new Runnable() {
+			public void run() {
+				drain();
+				try {
+					release();
+				} catch (IOException ignore) {
+				}
+			}
+		});
+	}
+
+	/**
+	 * Writes out what is queued now, waiting for the writer
+	 */
+	void sync() {
+		onWriterThread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		});
+	}
+
+	private static void onWriterThread(Runnable task) {
+		try {
+			writerThread.submit(task).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException ignore) {
+		}
+	}
+
+	/**
+	 * Writes formatted text. Called on the writer thread only.
+	 */
+	abstract void write(String text) throws IOException;
+
+	/**
+	 * Ends a batch. Called on the writer thread only.
+	 */
+	abstract void flush() throws IOException;
+
+	/**
+	 * Closes the destination. Called on the writer thread only.
+	 */
+	abstract void release() throws IOException;
+
+	private static final class Entry {
+		final String source;
+		final long time;
+		final String message; // null for output
+		final char[] chars;
+
+		Entry(String source, long time, String message, char[] chars) {
+			this.source = source;
+			this.time = time;
+			this.message = message;
+			this.chars = chars;
+		}
+	}
+
+	/**
+	 * Writes to a {@link Writer} that stays open, e.g. System.out
+	 */
+	static class WriterSink extends AsyncSink {
+		private final Writer out;
+
+		WriterSink(Writer out, int maxPending) {
+			super(maxPending);
+			this.out = out;
+		}
+
+		@Override
+		void write(String text) throws IOException {
+			out.write(text);
+		}
+
+		@Override
+		void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		void release() throws IOException {
+			out.flush();
+		}
+	}
+}
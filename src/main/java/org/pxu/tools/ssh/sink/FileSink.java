@@ -0,0 +1,81 @@
+package org.pxu.tools.ssh.sink;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends to a UTF-8 file in batches. With a size limit the file is rotated
+ * like logrotate: file.1 is the newest old file, file.N the oldest, and older
+ * ones are deleted.
+ */
+class FileSink extends AsyncSink {
+
+	private final Path file;
+	private final long maxBytes; // 0 for no rotation
+	private final int keep;
+	private Writer out; // writer thread only
+	private long size; // chars written to the current file, about its bytes
+
+	FileSink(Path file, long maxBytes, int keep, int maxPending) {
+		super(maxPending);
+		this.file = file;
+		this.maxBytes = maxBytes;
+		this.keep = keep;
+	}
+
+	@Override
+	void write(String text) throws IOException {
+		if (out == null)
+			open();
+		else if (maxBytes > 0 && size > 0 && size + text.length() > maxBytes) {
+			out.close();
+			rotate();
+			open();
+		}
+		out.write(text);
+		size += text.length();
+	}
+
+	private void open() throws IOException {
+		Path parent = file.toAbsolutePath().getParent();
+		if (parent != null)
+			Files.createDirectories(parent);
+		out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		size = Files.size(file);
+	}
+
+	private void rotate() throws IOException {
+		Files.deleteIfExists(numbered(keep));
+		for (int i = keep - 1; i >= 1; i--)
+			if (Files.exists(numbered(i)))
+				Files.move(numbered(i), numbered(i + 1),
+						StandardCopyOption.REPLACE_EXISTING);
+		if (keep > 0)
+			Files.move(file, numbered(1), StandardCopyOption.REPLACE_EXISTING);
+		else
+			Files.delete(file);
+	}
+
+	private Path numbered(int i) {
+		return file.resolveSibling(file.getFileName() + "." + i);
+	}
+
+	@Override
+	void flush() throws IOException {
+		if (out != null)
+			out.flush();
+	}
+
+	@Override
+	void release() throws IOException {
+		if (out != null)
+			out.close();
+		out = null;
+	}
+}
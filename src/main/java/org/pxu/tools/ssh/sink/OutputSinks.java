@@ -0,0 +1,92 @@
+package org.pxu.tools.ssh.sink;
+
+import java.io.OutputStreamWriter;
+import java.nio.file.Path;
+
+import org.pxu.tools.ssh.OutputSink;
+import org.pxu.tools.ssh.UnixShell;
+
+/**
+ * Ready made {@link OutputSink}s. All but {@link #none()} queue on the
+ * calling thread and write from one background thread every
+ * 100 ms.
+ *
+ * <pre>
+ * // one transcript per session, at most 5 files of 10 MB
+ * shell.setOutputSink(OutputSinks.rotatingFile(
+ * 		Paths.get(&quot;logs&quot;, host + &quot;.log&quot;), 10 * 1024 * 1024, 4));
+ * </pre>
+ */
+public final class OutputSinks {
+
+	/** Chars a sink queues between two flushes before dropping */
+	public static final int DEFAULT_MAX_PENDING = 4 * 1024 * 1024;
+
+	private static final OutputSink NONE = new OutputSink() {
+		public void log(String source, long timeMillis, String message) {
+		}
+
+		public void output(String source, char[] chars, int offset, int length) {
+		}
+
+		public void close() {
+		}
+	};
+
+	private static OutputSink console;
+
+	private OutputSinks() {
+	}
+
+	/**
+	 * @return A sink that drops everything, at no cost
+	 */
+	public static OutputSink none() {
+		return NONE;
+	}
+
+	/**
+	 * @return The sink writing to System.out that shells use by default, see
+	 *         {@link UnixShell#printEnable(boolean)}. Closing it only flushes.
+	 */
+	public static synchronized OutputSink console() {
+		if (console == null) {
+			final AsyncSink sink = new AsyncSink.WriterSink(
+					new OutputStreamWriter(System.out), DEFAULT_MAX_PENDING) {
+				@Override
+				public void close() {
+					sync(); // shared by all shells, stays open
+				}
+			};
+			Runtime.getRuntime().addShutdownHook(
+					new Thread("OutputSink-console-flush") {
+						@Override
+						public void run() {
+							sink.sync(); // the last lines before exit
+						}
+					});
+			console = sink;
+		}
+		return console;
+	}
+
+	/**
+	 * @return A sink appending to file, which several shells may share
+	 */
+	public static OutputSink asyncFile(Path file) {
+		return new FileSink(file, 0, 0, DEFAULT_MAX_PENDING);
+	}
+
+	/**
+	 * @param maxBytes
+	 *            - Size at which file is rotated
+	 * @param keep
+	 *            - Rotated files kept, named file.1 (newest) to file.keep
+	 * @return A sink appending to file, meant for one session
+	 */
+	public static OutputSink rotatingFile(Path file, long maxBytes, int keep) {
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException("maxBytes must be positive");
+		return new FileSink(file, maxBytes, keep, DEFAULT_MAX_PENDING);
+	}
+}
@@ -0,0 +1,382 @@
+package org.pxu.tools.ssh.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pxu.tools.ssh.ExecResult;
+import org.pxu.tools.ssh.FileTransfer;
+import org.pxu.tools.ssh.RemoteFile;
+import org.pxu.tools.ssh.TransferListener;
+import org.pxu.tools.ssh.UnixShell;
+
+/**
+ * Makes a remote directory look like a local one, copying only what changed.
+ * 
+ * A file is copied when it is missing remotely or its size or modification
+ * time differs. Uploaded files get the local modification time, so the next
+ * run finds them unchanged. With {@link #setUseChecksums(boolean)} files of
+ * equal size are compared by md5sum computed on the host instead of by time.
+ * Changed files are uploaded over several sftp channels at once.
+ * 
+ * Remote symbolic links, and remote entries of another type than the local
+ * ones, are left alone with everything under them and reported in
+ * {@link SyncResult#getSkipped()}.
+ * 
+ * <pre>
+ * DirectorySync sync = new DirectorySync(shell);
+ * sync.setDeleteExtras(true);
+ * SyncResult result = sync.sync(Paths.get(&quot;build/conf&quot;), &quot;/opt/app/conf&quot;);
+ * </pre>
+ */
+public class DirectorySync {
+
+	private final UnixShell shell;
+
+	private int parallelism = 4;
+	private boolean useChecksums;
+	private boolean deleteExtras;
+	private int checksumTimeout = 300; // seconds
+	private TransferListener listener;
+
+	/**
+	 * @param shell
+	 *            - Logged in shell to the host to synchronize
+	 */
+	public DirectorySync(UnixShell shell) {
+		this.shell = shell;
+	}
+
+	/**
+	 * Number of files uploaded at the same time. Default 4.
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Compares files of equal size by md5sum instead of modification time.
+	 * Needs md5sum on the host. Default false.
+	 */
+	public void setUseChecksums(boolean useChecksums) {
+		this.useChecksums = useChecksums;
+	}
+
+	/**
+	 * Seconds allowed for the remote checksums. Default 300.
+	 */
+	public void setChecksumTimeout(int seconds) {
+		this.checksumTimeout = seconds;
+	}
+
+	/**
+	 * Removes remote files and directories missing locally. Default false.
+	 * Symbolic links are never removed.
+	 */
+	public void setDeleteExtras(boolean deleteExtras) {
+		this.deleteExtras = deleteExtras;
+	}
+
+	/**
+	 * Told about the progress of every upload
+	 */
+	public void setListener(TransferListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Synchronizes remoteDir with localDir
+	 * 
+	 * @param localDir
+	 *            - Source directory
+	 * @param remoteDir
+	 *            - Target directory; created if missing, its parent must exist
+	 * @return What was changed
+	 * @throws Exception
+	 *             if listing, checksums or a transfer failed
+	 */
+	public SyncResult sync(Path localDir, String remoteDir) throws Exception {
+		long start = System.currentTimeMillis();
+		final String root = remoteDir.endsWith("/") ? remoteDir.substring(0,
+				remoteDir.length() - 1) : remoteDir;
+
+		Map<String, Path> localFiles = new TreeMap<String, Path>();
+		TreeSet<String> localDirs = new TreeSet<String>();
+		scanLocal(localDir, localFiles, localDirs);
+
+		FileTransfer transfer = shell.openFileTransfer();
+		try {
+			Map<String, RemoteFile> remoteFiles = new HashMap<String, RemoteFile>();
+			TreeSet<String> remoteDirs = new TreeSet<String>();
+			TreeSet<String> remoteLinks = new TreeSet<String>();
+			if (transfer.exists(root))
+				scanRemote(transfer, root, "", remoteFiles, remoteDirs,
+						remoteLinks);
+			else
+				transfer.mkdir(root);
+
+			// neither replaced nor removed, nor is anything under them
+			TreeSet<String> skipped = new TreeSet<String>(remoteLinks);
+			for (String file : localFiles.keySet())
+				if (remoteDirs.contains(file))
+					skipped.add(file);
+			for (String dir : localDirs)
+				if (remoteFiles.containsKey(dir))
+					skipped.add(dir);
+
+			Map<String, String> remoteSums = (useChecksums && !remoteFiles
+					.isEmpty()) ? remoteChecksums(root)
+					: Collections.<String, String> emptyMap();
+
+			List<String> changed = new ArrayList<String>();
+			int unchanged = 0;
+			for (Map.Entry<String, Path> e : localFiles.entrySet()) {
+				if (isSkipped(e.getKey(), skipped))
+					continue;
+				if (isChanged(e.getValue(), remoteFiles.get(e.getKey()),
+						remoteSums.get(e.getKey())))
+					changed.add(e.getKey());
+				else
+					unchanged++;
+			}
+
+			// parents sort before their children
+			for (String dir : localDirs)
+				if (!remoteDirs.contains(dir) && !isSkipped(dir, skipped))
+					transfer.mkdir(root + "/" + dir);
+
+			long bytes = upload(transfer, localFiles, changed, root);
+
+			List<String> deleted = new ArrayList<String>();
+			if (deleteExtras) {
+				for (String file : remoteFiles.keySet())
+					if (!localFiles.containsKey(file)
+							&& !isSkipped(file, skipped)) {
+						transfer.delete(root + "/" + file);
+						deleted.add(file);
+					}
+				// children before their parents
+				for (String dir : remoteDirs.descendingSet())
+					if (!localDirs.contains(dir) && !isSkipped(dir, skipped)
+							&& !holdsSkipped(dir, skipped)) {
+						transfer.rmdir(root + "/" + dir);
+						deleted.add(dir + "/");
+					}
+			}
+			List<String> skippedPaths = new ArrayList<String>();
+			for (String path : skipped)
+				skippedPaths.add(remoteDirs.contains(path) ? path + "/" : path);
+			return new SyncResult(changed, deleted, skippedPaths, unchanged,
+					bytes, System.currentTimeMillis() - start);
+		} finally {
+			transfer.close();
+		}
+	}
+
+	/**
+	 * @return True if path or one of its parents is skipped
+	 */
+	private static boolean isSkipped(String path, TreeSet<String> skipped) {
+		for (String p = path;; p = p.substring(0, p.lastIndexOf('/'))) {
+			if (skipped.contains(p))
+				return true;
+			if (p.indexOf('/') == -1)
+				return false;
+		}
+	}
+
+	/**
+	 * @return True if something under dir is skipped, so it cannot be removed
+	 */
+	private static boolean holdsSkipped(String dir, TreeSet<String> skipped) {
+		String next = skipped.ceiling(dir + "/");
+		return next != null && next.startsWith(dir + "/");
+	}
+
+	private boolean isChanged(Path local, RemoteFile remote, String remoteSum)
+			throws IOException {
+		if (remote == null)
+			return true;
+		if (Files.size(local) != remote.getSize())
+			return true;
+		if (useChecksums && remoteSum != null)
+			return !remoteSum.equals(md5(local));
+		return modifiedSeconds(local) != remote.getModifiedTime();
+	}
+
+	/**
+	 * Uploads the changed files, one channel per worker
+	 * 
+	 * @return Bytes uploaded
+	 */
+	private long upload(FileTransfer first, final Map<String, Path> localFiles,
+			List<String> changed, final String root) throws Exception {
+		final ConcurrentLinkedQueue<String> todo = new ConcurrentLinkedQueue<String>(
+				changed);
+		final AtomicLong bytes = new AtomicLong();
+		int workers = Math.min(parallelism, changed.size());
+		ExecutorService executor = (workers > 1) ? Executors
+				.newFixedThreadPool(workers - 1) : null;
+		List<Future<Void>> others = new ArrayList<Future<Void>>();
+		try {
+			for (int i = 1; i < workers; i++)
+				others.add(executor.submit(() -> {
+					FileTransfer own = shell.openFileTransfer();
+					try {
+						upload(own, localFiles, todo, root, bytes);
+					} finally {
+						own.close();
+					}
+					return null;
+				}));
+			Exception failure = null;
+			try {
+				upload(first, localFiles, todo, root, bytes);
+			} catch (IOException e) {
+				failure = e;
+			}
+			for (Future<Void> f : others) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					if (failure == null && e.getCause() instanceof Exception)
+						failure = (Exception) e.getCause();
+				}
+			}
+			if (failure != null)
+				throw failure;
+			return bytes.get();
+		} finally {
+			todo.clear();
+			if (executor != null)
+				executor.shutdownNow();
+		}
+	}
+
+	private void upload(FileTransfer transfer, Map<String, Path> localFiles,
+			ConcurrentLinkedQueue<String> todo, String root, AtomicLong bytes)
+			throws IOException {
+		String file;
+		while ((file = todo.poll()) != null) {
+			Path local = localFiles.get(file);
+			String remote = root + "/" + file;
+			try {
+				transfer.upload(local, remote, listener);
+				transfer.setModifiedTime(remote, modifiedSeconds(local));
+			} catch (IOException e) {
+				todo.clear(); // stop the other workers
+				throw e;
+			}
+			bytes.addAndGet(Files.size(local));
+		}
+	}
+
+	private static void scanLocal(final Path dir, final Map<String, Path> files,
+			final TreeSet<String> dirs) throws IOException {
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path d,
+					BasicFileAttributes attrs) {
+				if (!d.equals(dir))
+					dirs.add(relative(dir, d));
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path f, BasicFileAttributes attrs) {
+				if (attrs.isRegularFile())
+					files.put(relative(dir, f), f);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private static void scanRemote(FileTransfer transfer, String root,
+			String prefix, Map<String, RemoteFile> files, TreeSet<String> dirs,
+			TreeSet<String> links) throws IOException {
+		String dir = prefix.isEmpty() ? root : root + "/" + prefix;
+		for (RemoteFile f : transfer.list(dir)) {
+			String path = prefix.isEmpty() ? f.getName() : prefix + "/"
+					+ f.getName();
+			if (f.isSymlink())
+				links.add(path); // not followed
+			else if (f.isDirectory()) {
+				dirs.add(path);
+				scanRemote(transfer, root, path, files, dirs, links);
+			} else
+				files.put(path, f);
+		}
+	}
+
+	/**
+	 * @return md5 of every file under root by path relative to it
+	 */
+	private Map<String, String> remoteChecksums(String root) throws Exception {
+		ExecResult result = shell.runCommand("cd " + quote(root)
+				+ " && find . -type f -exec md5sum {} +", checksumTimeout);
+		if (!result.isSuccess())
+			throw new IOException("md5sum failed on " + root + ": "
+					+ result.getStderr());
+		Map<String, String> sums = new HashMap<String, String>();
+		for (String line : result.getStdout().split("\n")) {
+			// "<md5>  ./<path>"; names with newlines are escaped and skipped
+			int sep = line.indexOf("  ./");
+			if (sep == 32 && !line.startsWith("\\"))
+				sums.put(line.substring(sep + 4), line.substring(0, sep));
+		}
+		return sums;
+	}
+
+	private static String md5(Path file) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		InputStream in = Files.newInputStream(file);
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				md.update(buffer, 0, n);
+		} finally {
+			in.close();
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : md.digest())
+			hex.append(String.format("%02x", b & 0xFF));
+		return hex.toString();
+	}
+
+	private static long modifiedSeconds(Path file) throws IOException {
+		return Files.getLastModifiedTime(file).toMillis() / 1000;
+	}
+
+	private static String relative(Path root, Path p) {
+		return root.relativize(p).toString().replace('\\', '/');
+	}
+
+	private static String quote(String s) {
+		return "'" + s.replace("'", "'\\''") + "'";
+	}
+}
@@ -0,0 +1,74 @@
+package org.pxu.tools.ssh.sync;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a {@link DirectorySync} run changed on the remote side
+ */
+public class SyncResult {
+
+	private final List<String> uploaded, deleted, skipped;
+	private final int unchanged;
+	private final long bytesUploaded;
+	private final long elapsedMillis;
+
+	SyncResult(List<String> uploaded, List<String> deleted,
+			List<String> skipped, int unchanged, long bytesUploaded,
+			long elapsedMillis) {
+		this.uploaded = Collections.unmodifiableList(uploaded);
+		this.deleted = Collections.unmodifiableList(deleted);
+		this.skipped = Collections.unmodifiableList(skipped);
+		this.unchanged = unchanged;
+		this.bytesUploaded = bytesUploaded;
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	/**
+	 * @return Paths relative to the synchronized directory that were copied
+	 */
+	public List<String> getUploaded() {
+		return uploaded;
+	}
+
+	/**
+	 * @return Remote paths relative to the synchronized directory that were
+	 *         removed
+	 */
+	public List<String> getDeleted() {
+		return deleted;
+	}
+
+	/**
+	 * @return Remote paths relative to the synchronized directory that were
+	 *         left alone: symbolic links, and entries of another type than
+	 *         the local ones, e.g. a directory where a file is local.
+	 *         Directories end with '/'.
+	 */
+	public List<String> getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * @return Number of files that were already up to date
+	 */
+	public int getUnchanged() {
+		return unchanged;
+	}
+
+	public long getBytesUploaded() {
+		return bytesUploaded;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	@Override
+	public String toString() {
+		return uploaded.size() + " uploaded (" + bytesUploaded + " bytes), "
+				+ deleted.size() + " deleted, " + skipped.size() + " skipped, "
+				+ unchanged + " unchanged in "
+				+ elapsedMillis + " ms";
+	}
+}
@@ -0,0 +1,115 @@
+package org.pxu.tools.ssh.transcript;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Reads the records of a transcript written by {@link TranscriptWriter}, in
+ * order. Not thread safe.
+ */
+public class TranscriptReader implements Closeable {
+
+	/**
+	 * One block of bytes sent or received
+	 */
+	public static final class Record {
+		private final boolean sent;
+		private final long delayMicros;
+		private final byte[] data;
+
+		Record(boolean sent, long delayMicros, byte[] data) {
+			this.sent = sent;
+			this.delayMicros = delayMicros;
+			this.data = data;
+		}
+
+		/**
+		 * @return True if the client sent it, false if the server did
+		 */
+		public boolean isSent() {
+			return sent;
+		}
+
+		/**
+		 * @return Time since the previous record
+		 */
+		public long getDelayMicros() {
+			return delayMicros;
+		}
+
+		public byte[] getData() {
+			return data;
+		}
+	}
+
+	private final DataInputStream in;
+	private final long startMillis;
+
+	public TranscriptReader(Path file) throws IOException {
+		this(Files.newInputStream(file));
+	}
+
+	public TranscriptReader(InputStream in) throws IOException {
+		this.in = new DataInputStream(new BufferedInputStream(in));
+		byte[] magic = new byte[TranscriptWriter.MAGIC.length];
+		this.in.readFully(magic);
+		if (!Arrays.equals(magic, TranscriptWriter.MAGIC))
+			throw new IOException("Not a transcript");
+		int version = this.in.readUnsignedByte();
+		if (version != TranscriptWriter.VERSION)
+			throw new IOException("Unsupported transcript version " + version);
+		this.startMillis = this.in.readLong();
+	}
+
+	/**
+	 * @return When recording started, epoch millis
+	 */
+	public long getStartMillis() {
+		return startMillis;
+	}
+
+	/**
+	 * @return The next record, null at the end of the transcript
+	 * @throws IOException
+	 *             if the transcript is corrupt
+	 */
+	public Record next() throws IOException {
+		int kind = in.read();
+		if (kind == -1)
+			return null;
+		if (kind != TranscriptWriter.SENT && kind != TranscriptWriter.RECEIVED)
+			throw new IOException("Corrupt transcript, record kind " + kind);
+		long delay = readVarint();
+		long length = readVarint();
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("Corrupt transcript, record of " + length
+					+ " bytes");
+		byte[] data = new byte[(int) length];
+		in.readFully(data);
+		return new Record(kind == TranscriptWriter.SENT, delay, data);
+	}
+
+	private long readVarint() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.read();
+			if (b == -1)
+				throw new EOFException("Transcript ends inside a record");
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Corrupt transcript, varint too long");
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+}
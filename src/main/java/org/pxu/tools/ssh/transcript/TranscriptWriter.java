@@ -0,0 +1,79 @@
+package org.pxu.tools.ssh.transcript;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes a session transcript: every block of bytes sent to or received from
+ * the server, with the time since the previous block.
+ *
+ * <pre>
+ * header  "SSHT" version(1 byte) start(8 bytes, epoch millis)
+ * record  kind(1 byte, 'S' sent or 'R' received) delay(varint, microseconds)
+ *         length(varint) bytes
+ * </pre>
+ *
+ * Varints are unsigned LEB128 as in protobuf, so a typical prompt costs three
+ * bytes of framing. Thread safe; blocks are written in call order.
+ */
+public class TranscriptWriter implements Closeable {
+
+	static final byte[] MAGIC = { 'S', 'S', 'H', 'T' };
+	static final int VERSION = 1;
+	static final byte SENT = 'S', RECEIVED = 'R';
+
+	private final DataOutputStream out;
+	private long last = System.nanoTime();
+
+	public TranscriptWriter(Path file) throws IOException {
+		this(Files.newOutputStream(file));
+	}
+
+	public TranscriptWriter(OutputStream out) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(out));
+		this.out.write(MAGIC);
+		this.out.writeByte(VERSION);
+		this.out.writeLong(System.currentTimeMillis());
+	}
+
+	public void sent(byte[] b, int off, int len) throws IOException {
+		record(SENT, b, off, len);
+	}
+
+	public void received(byte[] b, int off, int len) throws IOException {
+		record(RECEIVED, b, off, len);
+	}
+
+	private synchronized void record(byte kind, byte[] b, int off, int len)
+			throws IOException {
+		if (len <= 0)
+			return;
+		long now = System.nanoTime();
+		out.writeByte(kind);
+		writeVarint((now - last) / 1000);
+		writeVarint(len);
+		out.write(b, off, len);
+		last = now;
+	}
+
+	private void writeVarint(long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	public synchronized void flush() throws IOException {
+		out.flush();
+	}
+
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+}
@@ -0,0 +1,75 @@
+package org.pxu.tools.ssh;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+import org.pxu.tools.ssh.UnixShell.AnalyzerMode;
+import org.pxu.tools.ssh.providers.ReplayProvider;
+import org.pxu.tools.ssh.sink.OutputSinks;
+import org.pxu.tools.ssh.transcript.TranscriptWriter;
+
+import junit.framework.TestCase;
+
+public class CommandDeadlineTest extends TestCase {
+
+	private Path file;
+	private UnixShell shell;
+
+	/**
+	 * A server that starts the command and then goes quiet
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		file = Files.createTempFile("deadline", ".ssht");
+		TranscriptWriter w = new TranscriptWriter(file);
+		for (String[] block : new String[][] { { "R", "admin:" },
+				{ "S", "hang\r" }, { "R", "hang\r\nstarted\r\n" } }) {
+			byte[] b = block[1].getBytes(StandardCharsets.US_ASCII);
+			if (block[0].equals("S"))
+				w.sent(b, 0, b.length);
+			else
+				w.received(b, 0, b.length);
+		}
+		w.close();
+		shell = new UnixShell("replay", "admin", "");
+		shell.setOutputSink(OutputSinks.none());
+		shell.setAnalyzerMode(AnalyzerMode.EVENT_DRIVEN);
+		shell.initSSHProvider(new ReplayProvider(file, ReplayProvider.INSTANT));
+		shell.login();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		shell.logout();
+		Files.delete(file);
+	}
+
+	private long failsWithin(String reason) throws Exception {
+		long start = System.currentTimeMillis();
+		try {
+			shell.exec("hang", 30);
+			fail();
+		} catch (Exception e) {
+			assertEquals("Timedout (" + reason
+					+ ") after sending command 'hang'.", e.getMessage());
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	@Test
+	public void testIdleTimeout() throws Exception {
+		shell.setIdleTimeout(1);
+		long elapsed = failsWithin("no output for 1 seconds");
+		assertTrue(elapsed + " ms", elapsed >= 900 && elapsed < 5000);
+	}
+
+	@Test
+	public void testTotalTimeout() throws Exception {
+		shell.setTotalTimeout(1);
+		shell.setIdleTimeout(10);
+		long elapsed = failsWithin("1 seconds elapsed in total");
+		assertTrue(elapsed + " ms", elapsed >= 900 && elapsed < 5000);
+	}
+}
@@ -0,0 +1,70 @@
+package org.pxu.tools.ssh;
+
+import java.io.Reader;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class CommandOutputTest extends TestCase {
+
+	private static void append(CommandOutput out, String s) throws Exception {
+		out.append(s.toCharArray(), 0, s.length());
+	}
+
+	@Test
+	public void testSmallOutputStaysInMemory() throws Exception {
+		CommandOutput out = new CommandOutput(1024);
+		append(out, "pwd\r\n/root\r\n");
+		out.skip("pwd".length());
+
+		assertFalse(out.isSpilled());
+		assertEquals("\r\n/root\r\n", out.toString());
+		assertEquals(9, out.length());
+		out.close();
+	}
+
+	@Test
+	public void testLargeOutputSpillsToDisk() throws Exception {
+		CommandOutput out = new CommandOutput(10);
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			String line = "line " + i + " \u00e9\r\n";
+			append(out, line);
+			expected.append(line);
+		}
+
+		assertTrue(out.isSpilled());
+		assertEquals(expected.length(), out.length());
+
+		Reader reader = out.openReader();
+		StringBuilder read = new StringBuilder();
+		char[] buf = new char[7];
+		int n;
+		while ((n = reader.read(buf)) != -1)
+			read.append(buf, 0, n);
+		reader.close();
+		assertEquals(expected.toString(), read.toString());
+		out.close();
+	}
+
+	@Test
+	public void testClosedOutputCannotBeRead() throws Exception {
+		CommandOutput out = new CommandOutput(4);
+		append(out, "more than four chars");
+		assertTrue(out.isSpilled());
+		out.close();
+
+		assertFalse(out.isSpilled());
+		try {
+			out.openReader();
+			fail("Read after close");
+		} catch (IllegalStateException expected) {
+		}
+		try {
+			out.toString();
+			fail("Read after close");
+		} catch (IllegalStateException expected) {
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package org.pxu.tools.ssh;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+import org.pxu.tools.ssh.UnixShell.AnalyzerMode;
+import org.pxu.tools.ssh.providers.ReplayProvider;
+import org.pxu.tools.ssh.sink.OutputSinks;
+import org.pxu.tools.ssh.transcript.TranscriptWriter;
+
+import junit.framework.TestCase;
+
+public class ExpectScriptTest extends TestCase {
+
+	private static final ExpectScript PASSWD = ExpectScript.builder()
+			.expect("Current password:", "old")
+			.expect("New password:", "new", "retype")
+			.state("retype")
+			.expect("Retype new password:", "new")
+			.expectEnd("BAD PASSWORD", false)
+			.build();
+
+	/**
+	 * Writes a transcript alternating server output and client input,
+	 * starting with the server
+	 */
+	private static Path transcript(String... blocks) throws Exception {
+		Path file = Files.createTempFile("expect", ".ssht");
+		TranscriptWriter w = new TranscriptWriter(file);
+		for (int i = 0; i < blocks.length; i++) {
+			byte[] b = blocks[i].getBytes(StandardCharsets.US_ASCII);
+			if (i % 2 == 0)
+				w.received(b, 0, b.length);
+			else
+				w.sent(b, 0, b.length);
+		}
+		w.close();
+		return file;
+	}
+
+	private static UnixShell shell(Path transcript) throws Exception {
+		UnixShell shell = new UnixShell("replay", "admin", "");
+		shell.setOutputSink(OutputSinks.none());
+		shell.setAnalyzerMode(AnalyzerMode.EVENT_DRIVEN);
+		shell.initSSHProvider(new ReplayProvider(transcript,
+				ReplayProvider.INSTANT));
+		shell.login();
+		return shell;
+	}
+
+	@Test
+	public void testShellsShareOneCompiledScript() throws Exception {
+		Path file = transcript("admin:", "passwd\r",
+				"passwd\r\nCurrent password:", "old\r", "New password:",
+				"new\r", "Retype new password:", "new\r",
+				"passwd: all tokens updated\r\nadmin:");
+		UnixShell a = shell(file), b = shell(file);
+		try {
+			CompletableFuture<String> ra = a.execAsync("passwd", PASSWD);
+			CompletableFuture<String> rb = b.execAsync("passwd", PASSWD);
+			assertEquals("admin:", ra.get());
+			assertEquals("admin:", rb.get());
+			assertTrue(a.getLastCommandOutput().contains("tokens updated"));
+		} finally {
+			a.logout();
+			b.logout();
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testStayingInAStateAnswersEveryTime() throws Exception {
+		ExpectScript pager = ExpectScript.builder().expect("--More--", " ")
+				.build();
+		Path file = transcript("admin:", "show log\r", "line 1\r\n--More--",
+				" \r", "line 2\r\n--More--", " \r", "line 3\r\nadmin:");
+		UnixShell shell = shell(file);
+		try {
+			assertEquals("admin:", shell.exec("show log", pager));
+			assertTrue(shell.getLastCommandOutput().contains("line 3"));
+		} finally {
+			shell.logout();
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testMaxStepsAllowsThatManyReplies() throws Exception {
+		ExpectScript pager = ExpectScript.builder().expect("--More--", " ")
+				.maxSteps(2).build();
+		Path file = transcript("admin:", "show log\r", "--More--", " \r",
+				"--More--", " \r", "admin:");
+		UnixShell shell = shell(file);
+		try {
+			assertEquals("admin:", shell.exec("show log", pager));
+		} finally {
+			shell.logout();
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testMaxStepsEndsALoop() throws Exception {
+		ExpectScript pager = ExpectScript.builder().expect("--More--", " ")
+				.maxSteps(2).build();
+		Path file = transcript("admin:", "show log\r", "--More--", " \r",
+				"--More--", " \r", "--More--");
+		UnixShell shell = shell(file);
+		try {
+			shell.exec("show log", pager);
+			fail();
+		} catch (Exception e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("sent 2 replies"));
+		} finally {
+			shell.logout();
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testUnknownStateIsRejected() {
+		try {
+			ExpectScript.builder().expect("a", "b", "nowhere").build();
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package org.pxu.tools.ssh;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class HashedWheelTimerTest extends TestCase {
+
+	@Test
+	public void testFiresInDeadlineOrderWithinATick() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer(10,
+				TimeUnit.MILLISECONDS, 8, "test-timer");
+		final List<Integer> fired = new CopyOnWriteArrayList<Integer>();
+		final CountDownLatch done = new CountDownLatch(3);
+		long start = System.nanoTime();
+		// 8 buckets of 10 ms: 250 ms is three turns of the wheel
+		for (final int delay : new int[] { 250, 30, 120 })
+			timer.schedule(new Runnable() {
+				public void run() {
+					fired.add(delay);
+					done.countDown();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		assertTrue(done.await(2, TimeUnit.SECONDS));
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertEquals("[30, 120, 250]", fired.toString());
+		assertTrue(elapsed + " ms", elapsed >= 250 && elapsed < 1000);
+	}
+
+	@Test
+	public void testCancelledTimeoutDoesNotFire() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer(10,
+				TimeUnit.MILLISECONDS, 8, "test-timer");
+		final CountDownLatch fired = new CountDownLatch(1);
+		HashedWheelTimer.Timeout t = timer.schedule(new Runnable() {
+			public void run() {
+				fired.countDown();
+			}
+		}, 50, TimeUnit.MILLISECONDS);
+		assertTrue(t.cancel());
+		assertFalse(t.cancel());
+		assertFalse(fired.await(200, TimeUnit.MILLISECONDS));
+		assertFalse(t.isExpired());
+
+		HashedWheelTimer.Timeout late = timer.schedule(new Runnable() {
+			public void run() {
+				fired.countDown();
+			}
+		}, 0, TimeUnit.MILLISECONDS);
+		assertTrue(fired.await(1, TimeUnit.SECONDS));
+		assertTrue(late.isExpired());
+		assertFalse(late.cancel());
+	}
+}
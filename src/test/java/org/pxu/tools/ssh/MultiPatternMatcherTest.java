@@ -0,0 +1,127 @@
+package org.pxu.tools.ssh;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class MultiPatternMatcherTest extends TestCase {
+
+	@Test
+	public void testLiteralSplitAcrossChunks() {
+		MultiPatternMatcher<String> m = MultiPatternMatcher.<String> builder()
+				.add("pwd", "Password:", false)
+				.add("yn", "(y/n)", false).build();
+		MultiPatternMatcher<String>.Scanner scanner = m.newScanner(2048);
+
+		assertNull(scanner.feed("Enter Pass"));
+		assertEquals("pwd", scanner.feed("word: "));
+	}
+
+	@Test
+	public void testLiteralIsNotARegularExpression() {
+		MultiPatternMatcher<String> m = MultiPatternMatcher.<String> builder()
+				.add("yn", "(y/n)", false).build();
+		MultiPatternMatcher<String>.Scanner scanner = m.newScanner(2048);
+
+		assertNull(scanner.feed("y"));
+		assertEquals("yn", scanner.feed("Continue (y/n)?"));
+	}
+
+	@Test
+	public void testOverlappingLiterals() {
+		MultiPatternMatcher<String> m = MultiPatternMatcher.<String> builder()
+				.add("long", "abcd", false)
+				.add("short", "bc", false).build();
+
+		// The expectation that completes first in the output wins
+		assertEquals("short", m.newScanner(2048).feed("xabcd"));
+
+		MultiPatternMatcher<String> single = MultiPatternMatcher
+				.<String> builder().add("long", "abcd", false).build();
+		assertEquals("long", single.newScanner(2048).feed("abcabcd"));
+	}
+
+	@Test
+	public void testRegularExpressionsReportTheirOwnKey() {
+		MultiPatternMatcher<String> m = MultiPatternMatcher.<String> builder()
+				.add("prompt", "^admin:", true)
+				.add("error", "(E|e)rror (\\d+)", true)
+				.add("lit", "done", false).build();
+
+		assertEquals("error", m.newScanner(2048).feed("x\nError 42\n"));
+		assertEquals("prompt", m.newScanner(2048).feed("ok\nadmin:"));
+		assertNull(m.newScanner(2048).feed("nothing here"));
+	}
+
+	@Test
+	public void testRegularExpressionAcrossChunks() {
+		MultiPatternMatcher<String> m = MultiPatternMatcher.<String> builder()
+				.add("prompt", "\\[root@\\w+\\]#", true).build();
+		MultiPatternMatcher<String>.Scanner scanner = m.newScanner(2048);
+
+		assertNull(scanner.feed("output\n[root@ho"));
+		assertEquals("prompt", scanner.feed("st]# "));
+	}
+
+	@Test
+	public void testBackReferenceIsScannedSeparately() {
+		MultiPatternMatcher<String> m = MultiPatternMatcher.<String> builder()
+				.add("other", "(zz)", true)
+				.add("twice", "(ab)\\1", true).build();
+
+		assertEquals("twice", m.newScanner(2048).feed("..abab.."));
+	}
+
+	@Test
+	public void testSeparateScanSeesOnlyTheWindow() {
+		MultiPatternMatcher<String> m = MultiPatternMatcher.<String> builder()
+				.add("twice", "(ab)\\1", true).build();
+		MultiPatternMatcher<String>.Scanner scanner = m.newScanner(8);
+
+		assertNull(scanner.feed("xxxxxxab"));
+		assertNull(scanner.feed("0123456789")); // "ab" slides out
+		assertNull(scanner.feed("a"));
+		assertEquals("twice", scanner.feed("bab"));
+	}
+
+	@Test
+	public void testNonAsciiLiteral() {
+		MultiPatternMatcher<String> m = MultiPatternMatcher.<String> builder()
+				.add("euro", "\u20ac100", false).build();
+
+		assertEquals("euro", m.newScanner(2048).feed("cost \u20ac100"));
+	}
+
+	@Test
+	public void testDollarMatchesAtEndOfOutputAndBeforeNewLine() {
+		MultiPatternMatcher<String> m = MultiPatternMatcher.<String> builder()
+				.add("prompt", "[#$] $", true).build();
+
+		MultiPatternMatcher<String>.Scanner scanner = m.newScanner(2048);
+		assertNull(scanner.feed("echo '# '; ls\n# x"));
+		assertEquals("prompt", scanner.feed("\nfile\n[root@host ~]# "));
+		assertEquals("prompt", m.newScanner(2048).feed("# \nmore"));
+	}
+
+	@Test
+	public void testAgreesWithJavaUtilRegex() {
+		String[] regexes = { "^admin:", "admin:$", "a.c", "[^a-c]{2,3}x",
+				"(foo|ba+r)\\d*z", "\\w+@\\w+\\.com", "x?y+$", "\\Q(y/n)\\E",
+				"[\\]\\-]x", "(?:ab)*c", "^$" };
+		String[] inputs = { "admin:", "xx\nadmin: ", "abc", "a\nc",
+				"ddx", "zzzzx", "fooz", "baaar12z", "me@host.com", "yyy\nq",
+				"(y/n)", "]x", "-x", "ababc", "line\n\nnext", "x\r\nadmin:" };
+		for (String re : regexes) {
+			MultiPatternMatcher<String> m = MultiPatternMatcher
+					.<String> builder().add(re, re, true).build();
+			Pattern p = Pattern.compile(re, Pattern.MULTILINE);
+			for (String in : inputs) {
+				boolean expected = p.matcher(in).find();
+				boolean actual = m.newScanner(2048).feed(in) != null;
+				assertEquals("'" + re + "' on '" + in + "'", expected, actual);
+			}
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package org.pxu.tools.ssh;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class OutputDecoderTest extends TestCase {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Hands out one byte per read, like a slow network
+	 */
+	private static class Trickle extends InputStream {
+		private final InputStream in;
+
+		Trickle(byte[] bytes) {
+			in = new ByteArrayInputStream(bytes);
+		}
+
+		@Override
+		public int read() throws IOException {
+			return in.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return in.read(b, off, Math.min(len, 1));
+		}
+
+		@Override
+		public int available() throws IOException {
+			return Math.min(in.available(), 1);
+		}
+	}
+
+	private static String readAll(OutputDecoder decoder, int block)
+			throws IOException {
+		StringBuilder sb = new StringBuilder();
+		char[] buf = new char[block];
+		int n;
+		while ((n = decoder.read(buf, 0, buf.length)) != -1)
+			sb.append(buf, 0, n);
+		return sb.toString();
+	}
+
+	@Test
+	public void testMultiByteCharsSplitAcrossReads() throws Exception {
+		String text = "caf\u00e9 \u20ac5 \ud83d\ude00 done";
+		OutputDecoder decoder = new OutputDecoder(new Trickle(
+				text.getBytes(UTF8)), UTF8, 16);
+
+		assertEquals(text, readAll(decoder, 3));
+	}
+
+	@Test
+	public void testNotReadyInsidePartialChar() throws Exception {
+		byte[] euro = "\u20ac".getBytes(UTF8);
+		OutputDecoder decoder = new OutputDecoder(new ByteArrayInputStream(
+				euro, 0, 2), UTF8, 16);
+
+		assertFalse(decoder.ready());
+	}
+
+	@Test
+	public void testOutputLargerThanBuffers() throws Exception {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 5000; i++)
+			text.append("line \u00e9").append(i).append('\n');
+		OutputDecoder decoder = new OutputDecoder(new ByteArrayInputStream(
+				text.toString().getBytes(UTF8)), UTF8, 64);
+
+		assertEquals(text.toString(), readAll(decoder, 2048));
+	}
+}
@@ -0,0 +1,57 @@
+package org.pxu.tools.ssh;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class ReachabilityProbeTest extends TestCase {
+
+	private static int closedPort() throws Exception {
+		ServerSocket s = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		int port = s.getLocalPort();
+		s.close();
+		return port;
+	}
+
+	@Test
+	public void testProbesManyHostsAtOnce() throws Exception {
+		ServerSocket server = new ServerSocket(0, 50,
+				InetAddress.getLoopbackAddress());
+		try {
+			String open = "127.0.0.1:" + server.getLocalPort();
+			String closed = "127.0.0.1:" + closedPort();
+			String unknown = "no-such-host.invalid";
+			ReachabilityProbe probe = new ReachabilityProbe();
+
+			Map<String, Boolean> result = probe.probe(Arrays.asList(closed,
+					open, unknown, open));
+
+			assertEquals(Arrays.asList(closed, open, unknown), Arrays
+					.asList(result.keySet().toArray()));
+			assertTrue(result.get(open));
+			assertFalse(result.get(closed));
+			assertFalse(result.get(unknown));
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void testResultsAreCachedUntilCleared() throws Exception {
+		ServerSocket server = new ServerSocket(0, 50,
+				InetAddress.getLoopbackAddress());
+		String host = "127.0.0.1:" + server.getLocalPort();
+		ReachabilityProbe probe = new ReachabilityProbe();
+		assertTrue(probe.isReachable(host));
+		server.close();
+
+		assertTrue(probe.isReachable(host)); // from the cache
+		probe.clearCache();
+		assertFalse(probe.isReachable(host));
+	}
+}
@@ -0,0 +1,100 @@
+package org.pxu.tools.ssh;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class SentinelDemultiplexerTest extends TestCase {
+
+	private static final String PROMPT = "admin:";
+
+	/**
+	 * Plays what an interactive shell prints for the script: prompt and echo
+	 * of every typed line, the command output, then the marker.
+	 */
+	private static String shellOutput(String script, String... outputs) {
+		StringBuilder sb = new StringBuilder();
+		String[] typed = script.split("\r");
+		for (int i = 0; i < typed.length; i += 2) {
+			sb.append(PROMPT).append(typed[i]).append("\r\n");
+			sb.append(outputs[i / 2]);
+			sb.append(PROMPT).append(typed[i + 1]).append("\r\n");
+			String[] args = typed[i + 1].split(" ");
+			// printf '\n%s%s:%s:%s\n' PREFIX suffix index $?
+			String exit = outputs[i / 2].contains("denied") ? "1" : "0";
+			sb.append("\r\n").append(args[2]).append(args[3]).append(':')
+					.append(args[4]).append(':').append(exit).append("\r\n");
+		}
+		return sb.append(PROMPT).toString();
+	}
+
+	@Test
+	public void testSplitsOutputPerCommand() {
+		List<String> commands = Arrays.asList("uname", "cat /etc/shadow",
+				"true");
+		SentinelDemultiplexer demux = new SentinelDemultiplexer(commands);
+		String out = shellOutput(demux.script(), "Linux\r\n",
+				"cat: /etc/shadow: Permission denied\r\n", "");
+
+		int end = demux.feed(out.toCharArray(), 0, out.length());
+
+		assertTrue(demux.isComplete());
+		assertEquals(PROMPT, out.substring(end));
+		List<ExecResult> results = demux.getResults();
+		assertEquals(3, results.size());
+		assertEquals("Linux\n", results.get(0).getStdout());
+		assertEquals(0, results.get(0).getExitCode());
+		assertEquals("cat: /etc/shadow: Permission denied\n", results.get(1)
+				.getStdout());
+		assertEquals(1, results.get(1).getExitCode());
+		assertEquals("cat /etc/shadow", results.get(1).getCommand());
+		assertEquals("", results.get(2).getStdout());
+		assertTrue(results.get(2).isSuccess());
+	}
+
+	@Test
+	public void testMarkersSplitAcrossChunks() {
+		List<String> commands = Arrays.asList("ls", "pwd");
+		SentinelDemultiplexer demux = new SentinelDemultiplexer(commands);
+		char[] out = shellOutput(demux.script(), "a\r\nb\r\n", "/root\r\n")
+				.toCharArray();
+
+		for (int off = 0; off < out.length && !demux.isComplete(); off += 3)
+			demux.feed(out, off, Math.min(3, out.length - off));
+
+		assertTrue(demux.isComplete());
+		assertEquals("a\nb\n", demux.getResults().get(0).getStdout());
+		assertEquals("/root\n", demux.getResults().get(1).getStdout());
+	}
+
+	@Test
+	public void testEchoOfMarkerCommandIsNotAMarker() {
+		SentinelDemultiplexer demux = new SentinelDemultiplexer(
+				Arrays.asList("date"));
+		String typed = demux.script().split("\r")[1];
+		String echo = PROMPT + typed + "\r\n";
+
+		demux.feed(echo.toCharArray(), 0, echo.length());
+
+		assertFalse(demux.isComplete());
+	}
+
+	@Test
+	public void testOutputEndingWithTheCommandIsKept() {
+		List<String> commands = Arrays.asList("ls", "tools");
+		SentinelDemultiplexer demux = new SentinelDemultiplexer(commands);
+		String out = shellOutput(demux.script(), "tools\r\nREADME\r\ntools\r\n",
+				"ls: not found\r\ntools\r\n");
+
+		demux.feed(out.toCharArray(), 0, out.length());
+
+		assertTrue(demux.isComplete());
+		assertEquals("tools\nREADME\ntools\n", demux.getResults().get(0)
+				.getStdout());
+		assertEquals("ls: not found\ntools\n", demux.getResults().get(1)
+				.getStdout());
+	}
+}
@@ -0,0 +1,92 @@
+package org.pxu.tools.ssh;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.Test;
+import org.pxu.tools.ssh.UnixShell.AnalyzerMode;
+import org.pxu.tools.ssh.providers.ReplayProvider;
+import org.pxu.tools.ssh.sink.OutputSinks;
+import org.pxu.tools.ssh.transcript.TranscriptWriter;
+
+import junit.framework.TestCase;
+
+public class ShellExecutorsTest extends TestCase {
+
+	private Path transcript;
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		transcript = Files.createTempFile("executors", ".ssht");
+		TranscriptWriter w = new TranscriptWriter(transcript);
+		byte[] banner = bytes("admin:");
+		byte[] command = bytes("uptime\r");
+		byte[] reply = bytes("uptime\r\n 10:00 up 3 days\r\nadmin:");
+		w.received(banner, 0, banner.length);
+		w.sent(command, 0, command.length);
+		w.received(reply, 0, reply.length);
+		w.close();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Files.delete(transcript);
+	}
+
+	private void assertShellRunsOn(ExecutorService executor) throws Exception {
+		UnixShell shell = new UnixShell("replay", "admin", "");
+		shell.setOutputSink(OutputSinks.none());
+		shell.setAnalyzerMode(AnalyzerMode.EVENT_DRIVEN);
+		shell.setExecutor(executor);
+		shell.initSSHProvider(new ReplayProvider(transcript,
+				ReplayProvider.INSTANT));
+		try {
+			shell.login();
+			assertEquals("admin:", shell.exec("uptime", 5));
+			assertTrue(shell.getLastCommandOutput().contains("up 3 days"));
+		} finally {
+			shell.logout();
+		}
+		assertFalse("shut down by logout", executor.isShutdown());
+	}
+
+	@Test
+	public void testShellsShareTheSharedExecutor() throws Exception {
+		assertShellRunsOn(ShellExecutors.shared());
+		assertShellRunsOn(ShellExecutors.shared());
+		String name = ShellExecutors.shared().submit(new Callable<String>() {
+			public String call() {
+				return Thread.currentThread().getName();
+			}
+		}).get();
+		assertTrue(name, name.startsWith("UnixShell-"));
+	}
+
+	@Test
+	public void testVirtualThreadsOrTheSharedExecutor() throws Exception {
+		String spec = System.getProperty("java.specification.version");
+		int feature = Integer.parseInt(spec.startsWith("1.") ? spec
+				.substring(2) : spec);
+		if (feature >= 21) {
+			assertTrue(ShellExecutors.hasVirtualThreads());
+			assertEquals(Boolean.TRUE, ShellExecutors.virtualThreads().submit(
+					new Callable<Object>() {
+						public Object call() throws Exception {
+							return Thread.class.getMethod("isVirtual").invoke(
+									Thread.currentThread());
+						}
+					}).get());
+		} else { // documented fallback
+			assertFalse(ShellExecutors.hasVirtualThreads());
+			assertSame(ShellExecutors.shared(), ShellExecutors.virtualThreads());
+		}
+		assertShellRunsOn(ShellExecutors.virtualThreads());
+	}
+}
@@ -0,0 +1,250 @@
+package org.pxu.tools.ssh;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+import org.pxu.tools.ssh.parse.RecordParser;
+import org.pxu.tools.ssh.providers.ReplayProvider;
+import org.pxu.tools.ssh.sink.OutputSinks;
+import org.pxu.tools.ssh.transcript.TranscriptWriter;
+
+import junit.framework.TestCase;
+
+public class StreamingExecTest extends TestCase {
+
+	/**
+	 * Collects output, requesting the given number of chunks up front
+	 */
+	private static class Collector implements OutputSubscriber {
+		final StringBuilder output = new StringBuilder();
+		final long initialDemand;
+		volatile Subscription subscription;
+		volatile int chunks;
+		volatile boolean completed;
+		volatile Throwable error;
+
+		Collector(long initialDemand) {
+			this.initialDemand = initialDemand;
+		}
+
+		public void onSubscribe(Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(initialDemand);
+		}
+
+		public void onNext(String chunk) {
+			chunks++;
+			output.append(chunk);
+		}
+
+		public void onComplete() {
+			completed = true;
+		}
+
+		public void onError(Throwable error) {
+			this.error = error;
+		}
+	}
+
+	/**
+	 * Writes a transcript alternating server output and client input,
+	 * starting with the server
+	 */
+	private static Path transcript(String... blocks) throws Exception {
+		Path file = Files.createTempFile("stream", ".ssht");
+		TranscriptWriter w = new TranscriptWriter(file);
+		for (int i = 0; i < blocks.length; i++) {
+			byte[] b = blocks[i].getBytes(StandardCharsets.US_ASCII);
+			if (i % 2 == 0)
+				w.received(b, 0, b.length);
+			else
+				w.sent(b, 0, b.length);
+		}
+		w.close();
+		return file;
+	}
+
+	private static UnixShell shell(Path transcript) throws Exception {
+		UnixShell shell = new UnixShell("replay", "admin", "");
+		shell.setOutputSink(OutputSinks.none());
+		shell.initSSHProvider(new ReplayProvider(transcript,
+				ReplayProvider.INSTANT));
+		shell.login();
+		return shell;
+	}
+
+	@Test
+	public void testOutputIsStreamedWithoutTheEcho() throws Exception {
+		Path file = transcript("admin:", "seq 3\r", "seq 3\r\n1\r\n2\r\n3\r\nadmin:");
+		UnixShell shell = shell(file);
+		try {
+			Collector c = new Collector(Long.MAX_VALUE);
+			assertEquals("admin:", shell.execStreaming("seq 3", 5, c).get());
+			assertEquals("1\r\n2\r\n3\r\nadmin:", c.output.toString());
+			assertTrue(c.completed);
+			assertNull(c.error);
+		} finally {
+			shell.logout();
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testNothingIsReadWithoutDemand() throws Exception {
+		StringBuilder big = new StringBuilder("cat big\r\n");
+		for (int i = 0; i < 2000; i++)
+			big.append("line ").append(i).append("\r\n");
+		Path file = transcript("admin:", "cat big\r", big + "admin:");
+		UnixShell shell = shell(file);
+		try {
+			Collector c = new Collector(1);
+			CompletableFuture<String> done = shell.execStreaming("cat big", 5,
+					c);
+			Thread.sleep(300);
+			assertEquals(1, c.chunks);
+			assertFalse(done.isDone());
+
+			c.subscription.request(Long.MAX_VALUE);
+			assertEquals("admin:", done.get(5, TimeUnit.SECONDS));
+			assertTrue(c.output.toString().contains("line 1999\r\n"));
+			assertTrue(c.completed);
+		} finally {
+			shell.logout();
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testCancelSendsCtrlCAndWaitsForThePrompt() throws Exception {
+		Path file = transcript("admin:", "tail -f log\r",
+				"tail -f log\r\nfirst\r\n", "\u0003", "^C\r\nadmin:", "date\r",
+				"date\r\nToday\r\nadmin:");
+		UnixShell shell = shell(file);
+		try {
+			Collector c = new Collector(Long.MAX_VALUE) {
+				@Override
+				public void onNext(String chunk) {
+					super.onNext(chunk);
+					subscription.cancel();
+				}
+			};
+			assertEquals("admin:", shell.execStreaming("tail -f log", 0, c)
+					.get(5, TimeUnit.SECONDS));
+			assertEquals("first\r\n", c.output.toString());
+			assertFalse(c.completed);
+			assertNull(c.error);
+
+			assertEquals("admin:", shell.exec("date", 5));
+			assertTrue(shell.getLastCommandOutput().contains("Today"));
+		} finally {
+			shell.logout();
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testLinesAreParsedWhileStreaming() throws Exception {
+		Path file = transcript("admin:", "df -k\r",
+				"df -k\r\nFilesystem 1K-blocks Used\r\n/dev/sda1 1000 250\r\n"
+						+ "/dev/sdb1 2000 1500\r\nadmin:", "date\r",
+				"date\r\nToday\r\nadmin:");
+		UnixShell shell = shell(file);
+		try {
+			long used;
+			try (Stream<CharSequence> lines = shell.execLines("df -k", 5)) {
+				used = RecordParser.whitespace().withHeader().parse(lines)
+						.mapToLong(r -> r.getLong("Used")).sum();
+			}
+			assertEquals(1750, used);
+
+			assertEquals("admin:", shell.exec("date", 5));
+			assertEquals(Arrays.asList("", "Today"), shell
+					.getLastCommandLines().map(CharSequence::toString)
+					.collect(Collectors.toList()));
+		} finally {
+			shell.logout();
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void testLinesOfAFailedRequestThrow() throws Exception {
+		final UnixShell shell = new UnixShell("replay", "admin", "");
+		shell.setOutputSink(OutputSinks.none());
+		CompletableFuture<Long> count = CompletableFuture.supplyAsync(() -> {
+			try (Stream<CharSequence> lines = shell.execLines("ls", 5)) {
+				return lines.count();
+			}
+		});
+		try {
+			count.get(5, TimeUnit.SECONDS);
+			fail("Lines of a shell that is not logged in");
+		} catch (ExecutionException expected) {
+		}
+	}
+
+	@Test
+	public void testSubscriberIsToldWhenTheCommandIsNotSent()
+			throws Exception {
+		UnixShell shell = new UnixShell("replay", "admin", "");
+		shell.setOutputSink(OutputSinks.none());
+		Collector collector = new Collector(1);
+		try {
+			shell.execStreaming("ls", 5, collector).get(5, TimeUnit.SECONDS);
+			fail("Streamed on a shell that is not logged in");
+		} catch (ExecutionException expected) {
+			assertNotNull(collector.subscription);
+			assertSame(expected.getCause(), collector.error);
+			assertFalse(collector.completed);
+		}
+	}
+
+	@Test
+	public void testCancelAfterTheEndSendsNothing() throws Exception {
+		final int[] interrupts = new int[1];
+		Collector c = new Collector(1);
+		StreamDemand stream = new StreamDemand(c, "ls", new Runnable() {
+			public void run() {
+				interrupts[0]++;
+			}
+		});
+		stream.subscribe();
+		assertEquals("admin:", stream.finish("admin:", null));
+		assertTrue(c.completed);
+
+		c.subscription.cancel();
+		assertEquals(0, interrupts[0]);
+	}
+
+	@Test
+	public void testSlowSubscriberIsNotIdle() throws Exception {
+		StringBuilder big = new StringBuilder("cat big\r\n");
+		for (int i = 0; i < 2000; i++)
+			big.append("line ").append(i).append("\r\n");
+		Path file = transcript("admin:", "cat big\r", big + "admin:");
+		UnixShell shell = shell(file);
+		shell.setIdleTimeout(1);
+		try {
+			Collector c = new Collector(1);
+			CompletableFuture<String> done = shell.execStreaming("cat big", 0,
+					c);
+			Thread.sleep(2000);
+			assertFalse(done.isDone());
+
+			c.subscription.request(Long.MAX_VALUE);
+			assertEquals("admin:", done.get(5, TimeUnit.SECONDS));
+			assertTrue(c.completed);
+		} finally {
+			shell.logout();
+			Files.delete(file);
+		}
+	}
+}
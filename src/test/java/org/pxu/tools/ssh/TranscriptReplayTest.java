@@ -0,0 +1,77 @@
+package org.pxu.tools.ssh;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+import org.pxu.tools.ssh.UnixShell.AnalyzerMode;
+import org.pxu.tools.ssh.providers.ReplayProvider;
+import org.pxu.tools.ssh.sink.OutputSinks;
+import org.pxu.tools.ssh.transcript.TranscriptReader;
+import org.pxu.tools.ssh.transcript.TranscriptWriter;
+
+import junit.framework.TestCase;
+
+public class TranscriptReplayTest extends TestCase {
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	@Test
+	public void testRecordsReadBackInOrder() throws Exception {
+		ByteArrayOutputStream file = new ByteArrayOutputStream();
+		TranscriptWriter writer = new TranscriptWriter(file);
+		byte[] big = new byte[70000]; // length takes a three byte varint
+		writer.received(bytes("admin:"), 0, 6);
+		Thread.sleep(5);
+		writer.sent(bytes("xxls\r"), 2, 3);
+		writer.received(big, 0, big.length);
+		writer.close();
+
+		TranscriptReader reader = new TranscriptReader(
+				new ByteArrayInputStream(file.toByteArray()));
+		TranscriptReader.Record r = reader.next();
+		assertFalse(r.isSent());
+		assertEquals("admin:", new String(r.getData(), "US-ASCII"));
+		r = reader.next();
+		assertTrue(r.isSent());
+		assertEquals("ls\r", new String(r.getData(), "US-ASCII"));
+		assertTrue(r.getDelayMicros() >= 5000);
+		assertEquals(big.length, reader.next().getData().length);
+		assertNull(reader.next());
+	}
+
+	@Test
+	public void testShellRunsAgainstReplay() throws Exception {
+		Path file = Files.createTempFile("session", ".ssht");
+		try {
+			TranscriptWriter writer = new TranscriptWriter(file);
+			byte[] banner = bytes("Last login: today\r\nadmin:");
+			byte[] command = bytes("uptime\r");
+			byte[] reply = bytes("uptime\r\n 10:00 up 3 days\r\nadmin:");
+			writer.received(banner, 0, banner.length);
+			writer.sent(command, 0, command.length);
+			writer.received(reply, 0, reply.length);
+			writer.close();
+
+			UnixShell shell = new UnixShell("replay", "admin", "");
+			shell.setOutputSink(OutputSinks.none());
+			shell.setAnalyzerMode(AnalyzerMode.EVENT_DRIVEN);
+			shell.initSSHProvider(new ReplayProvider(file,
+					ReplayProvider.INSTANT));
+			try {
+				assertTrue(shell.login().contains("Last login"));
+				assertEquals("admin:", shell.exec("uptime", 5));
+				assertTrue(shell.getLastCommandOutput().contains("up 3 days"));
+			} finally {
+				shell.logout();
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package org.pxu.tools.ssh.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class LatencyHistogramTest extends TestCase {
+
+	@Test
+	public void testBucketsCoverEveryValue() {
+		for (long v : new long[] { 0, 1, 15, 16, 17, 31, 32, 1000, 123456789,
+				Long.MAX_VALUE }) {
+			int bucket = LatencyHistogram.bucketOf(v);
+			assertTrue(v + " above its bucket",
+					v <= LatencyHistogram.highestOf(bucket));
+			if (bucket > 0)
+				assertTrue(v + " below its bucket",
+						v > LatencyHistogram.highestOf(bucket - 1));
+		}
+	}
+
+	@Test
+	public void testPercentilesWithinBucketPrecision() {
+		LatencyHistogram h = new LatencyHistogram();
+		for (long ms = 1; ms <= 1000; ms++)
+			h.record(TimeUnit.MILLISECONDS.toNanos(ms));
+
+		assertEquals(1000, h.getCount());
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), h.getMax());
+		assertNear(500, h.getValueAtPercentile(50));
+		assertNear(990, h.getValueAtPercentile(99));
+		assertEquals(h.getMax(), h.getValueAtPercentile(100));
+
+		HistogramSnapshot s = h.snapshot(TimeUnit.MILLISECONDS);
+		assertEquals(500.5, s.getMean(), 0.001);
+		assertEquals(1000.0, s.getMax(), 0.001);
+
+		h.reset();
+		assertEquals(0, h.getValueAtPercentile(50));
+	}
+
+	private static void assertNear(long expectedMillis, long nanos) {
+		double actual = nanos / 1e6;
+		assertTrue("expected about " + expectedMillis + " ms, was " + actual,
+				Math.abs(actual - expectedMillis) <= expectedMillis * 0.07);
+	}
+
+	@Test
+	public void testMetricsAreReadableOverJmx() throws Exception {
+		ShellMetrics m = ShellMetrics.of("jmx-test-host", "JSCH");
+		assertSame(m, ShellMetrics.of("jmx-test-host", "JSCH"));
+		m.recordPromptMatch(TimeUnit.MILLISECONDS.toNanos(40));
+		m.recordPatternScan("admin:", 2000);
+		m.recordTimeout();
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		CompositeData match = (CompositeData) server.getAttribute(
+				m.getObjectName(), "PromptMatchMillis");
+		assertEquals(1L, match.get("count"));
+		assertEquals(1L, server.getAttribute(m.getObjectName(), "Timeouts"));
+		assertTrue(m.getPatternScanMicrosByPattern().containsKey("admin:"));
+	}
+}
@@ -0,0 +1,64 @@
+package org.pxu.tools.ssh.parse;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class RecordParserTest extends TestCase {
+
+	private static List<String> strings(Stream<CharSequence> lines) {
+		return lines.map(CharSequence::toString).collect(Collectors.toList());
+	}
+
+	@Test
+	public void testLinesSpanningBlocksAndPromptDropped() {
+		StringBuilder out = new StringBuilder("\r\n");
+		char[] longLine = new char[20000]; // longer than a read block
+		Arrays.fill(longLine, 'x');
+		out.append(longLine).append("\r\nlast\r\nadmin:");
+		List<String> lines = strings(Lines.of(new StringReader(out.toString()),
+				true));
+		assertEquals(Arrays.asList("", new String(longLine), "last"), lines);
+
+		assertEquals(Arrays.asList("a", "b"),
+				strings(Lines.of(new StringReader("a\nb"), false)));
+	}
+
+	@Test
+	public void testWhitespaceColumnsWithHeader() {
+		String ps = "\r\nUID        PID  PPID  C STIME TTY          TIME CMD\r\n"
+				+ "root         1     0  0 09:00 ?        00:00:02 /sbin/init splash\r\n"
+				+ "admin      812     1  0 09:01 pts/0    00:00:00 -bash\r\n"
+				+ "admin:";
+		List<Record> records = RecordParser.whitespace(8).withHeader()
+				.parse(Lines.of(new StringReader(ps), true))
+				.collect(Collectors.toList());
+		assertEquals(2, records.size());
+		assertEquals(1, records.get(0).getLong("PID"));
+		assertEquals("/sbin/init splash", records.get(0).getString("CMD"));
+		assertEquals("pts/0", records.get(1).getString("TTY"));
+		try {
+			records.get(0).get("NOPE");
+			fail();
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	@Test
+	public void testDelimitedWithQuotes() {
+		Record r = RecordParser.delimited(',').parseLine(
+				"a,\"b,c\",\"say \"\"hi\"\"\",,e");
+		assertEquals(5, r.size());
+		assertEquals("b,c", r.get(1).toString());
+		assertEquals("say \"hi\"", r.get(2).toString());
+		assertEquals("", r.get(3).toString());
+		assertEquals("e", r.get(4).toString());
+		assertNull(r.get(5));
+	}
+}
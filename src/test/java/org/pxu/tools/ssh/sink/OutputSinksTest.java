@@ -0,0 +1,100 @@
+package org.pxu.tools.ssh.sink;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+import org.pxu.tools.ssh.OutputSink;
+
+import junit.framework.TestCase;
+
+public class OutputSinksTest extends TestCase {
+
+	private Path dir;
+
+	@Override
+	protected void setUp() throws Exception {
+		dir = Files.createTempDirectory("sinks");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (File f : dir.toFile().listFiles())
+			f.delete();
+		dir.toFile().delete();
+	}
+
+	private String read(Path file) throws Exception {
+		return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testFileGetsLogLinesAndOutputInOrder() throws Exception {
+		Path file = dir.resolve("session.log");
+		OutputSink sink = OutputSinks.asyncFile(file);
+		char[] chunk = "xxuptime\r\n".toCharArray();
+
+		sink.log("root@h1", 0, "Sending \"uptime\"");
+		sink.output("root@h1", chunk, 2, 8);
+		chunk[2] = '!'; // reused by the caller
+		sink.close();
+
+		String text = read(file);
+		assertTrue(text, text.startsWith("[root@h1]["));
+		assertTrue(text, text.endsWith("]: Sending \"uptime\""
+				+ System.lineSeparator() + "uptime\r\n"));
+	}
+
+	@Test
+	public void testRotatesAtMaxBytes() throws Exception {
+		Path file = dir.resolve("rotating.log");
+		OutputSink sink = OutputSinks.rotatingFile(file, 100, 2);
+		char[] line = "0123456789012345678901234567890123456789\n".toCharArray();
+		for (int i = 0; i < 10; i++) {
+			sink.output("h", line, 0, line.length);
+			((AsyncSink) sink).sync(); // one batch per line
+		}
+		sink.close();
+
+		assertTrue(Files.size(file) <= 100);
+		assertTrue(Files.exists(dir.resolve("rotating.log.1")));
+		assertTrue(Files.exists(dir.resolve("rotating.log.2")));
+		assertFalse(Files.exists(dir.resolve("rotating.log.3")));
+	}
+
+	@Test
+	public void testDropsInsteadOfBlockingWhenWriterIsBehind()
+			throws Exception {
+		Path file = dir.resolve("small.log");
+		OutputSink sink = new FileSink(file, 0, 0, 10);
+		char[] chunk = "12345678".toCharArray();
+
+		for (int i = 0; i < 1000; i++)
+			sink.output("h", chunk, 0, 8); // far over the 10 char queue
+		sink.close();
+
+		String text = read(file);
+		assertTrue(text, text.startsWith("[h]" + System.lineSeparator()
+				+ "12345678"));
+		assertTrue(text, text.contains(" chars dropped, writer behind]"));
+	}
+
+	@Test
+	public void testSharedFileTellsTheShellsApart() throws Exception {
+		Path file = dir.resolve("shared.log");
+		OutputSink sink = OutputSinks.asyncFile(file);
+		char[] a = "a1\na2".toCharArray(), b = "b1\n".toCharArray();
+
+		sink.output("root@h1", a, 0, 3);
+		sink.output("root@h1", a, 3, 2);
+		sink.output("root@h2", b, 0, 3);
+		sink.output("root@h1", a, 0, 3);
+		sink.close();
+
+		String n = System.lineSeparator();
+		assertEquals("[root@h1]" + n + "a1\na2" + n + "[root@h2]" + n + "b1\n"
+				+ "[root@h1]" + n + "a1\n", read(file));
+	}
+}
@@ -0,0 +1,216 @@
+package org.pxu.tools.ssh.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+import org.pxu.tools.ssh.UnixShell;
+import org.pxu.tools.ssh.fleet.FleetExecutor;
+import org.pxu.tools.ssh.fleet.FleetListener;
+import org.pxu.tools.ssh.fleet.FleetResult;
+import org.pxu.tools.ssh.fleet.HostResult;
+import org.pxu.tools.ssh.fleet.HostTask;
+import org.pxu.tools.ssh.metrics.LatencyHistogram;
+
+/**
+ * Runs a JavaScript against many hosts in parallel.
+ *
+ * The script is compiled once and kept until its file changes, so running it
+ * again or on another host does not parse it again. Every host gets its own
+ * bindings, evaluated against the shared compiled script:
+ * <ul>
+ * <li>shell - a logged in {@link UnixShell}, logged out when the script ends</li>
+ * <li>host - the host the script runs on</li>
+ * <li>scriptargs - script name, "host=..." and the extra arguments, as passed
+ * by {@link JavaScriptFileExecutor}</li>
+ * </ul>
+ *
+ * Usage: java -Duser=&lt;login-id&gt; -Dpassword=&lt;password&gt;
+ * org.pxu.tools.ssh.util.JavaScriptRunner &lt;script&gt; &lt;host,host,...&gt;
+ * [name=value ...]
+ */
+public class JavaScriptRunner {
+
+	private static final Map<String, Compiled> cache = new ConcurrentHashMap<String, Compiled>();
+
+	private static ScriptEngine engine;
+
+	private final FleetExecutor fleet;
+
+	public JavaScriptRunner(FleetExecutor fleet) {
+		this.fleet = fleet;
+	}
+
+	public static void main(String... args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("JavaScriptRunner: script and comma separated hosts not passed as command line arguments");
+			return;
+		}
+		FleetExecutor fleet = new FleetExecutor(System.getProperty("user"),
+				System.getProperty("password"));
+		if (System.getProperty("parallelism") != null)
+			fleet.setParallelism(Integer.getInteger("parallelism"));
+		JavaScriptRunner runner = new JavaScriptRunner(fleet);
+		runner.run(args[0], Arrays.asList(args[1].split(",")),
+				Arrays.copyOfRange(args, 2, args.length));
+	}
+
+	/**
+	 * Runs the script on every host and prints the time of each host as it
+	 * finishes and a summary at the end
+	 *
+	 * @param script
+	 *            - File, or resource on the class path
+	 * @param args
+	 *            - Appended to scriptargs of every host
+	 * @return Value of the script per host
+	 */
+	public FleetResult<Object> run(final String script, List<String> hosts,
+			final String... args) throws IOException, ScriptException,
+			InterruptedException {
+		long start = System.nanoTime();
+		final CompiledScript compiled = compile(script);
+		long compileNanos = System.nanoTime() - start;
+
+		final LatencyHistogram scriptTimes = new LatencyHistogram();
+		FleetResult<Object> result = fleet.run(hosts, new HostTask<Object>() {
+			public Object run(UnixShell shell) throws Exception {
+				Bindings bindings = compiled.getEngine().createBindings();
+				bindings.put("shell", shell);
+				bindings.put("host", shell.getHost());
+				List<String> scriptargs = new ArrayList<String>();
+				scriptargs.add(script);
+				scriptargs.add("host=" + shell.getHost());
+				scriptargs.addAll(Arrays.asList(args));
+				bindings.put("scriptargs", scriptargs);
+
+				long started = System.nanoTime();
+				try {
+					return compiled.eval(bindings);
+				} finally {
+					scriptTimes.recordSince(started);
+				}
+			}
+		}, new FleetListener<Object>() {
+			public void hostFinished(HostResult<Object> host) {
+				System.out.println("[JavaScriptRunner] " + host);
+			}
+		});
+
+		System.out.println("[JavaScriptRunner] " + script + " ready in "
+				+ TimeUnit.NANOSECONDS.toMillis(compileNanos)
+				+ " ms (compiled only when new or changed)");
+		System.out.println("[JavaScriptRunner] " + result);
+		System.out.println("[JavaScriptRunner] script time per host (ms): "
+				+ scriptTimes.snapshot(TimeUnit.MILLISECONDS));
+		return result;
+	}
+
+	/**
+	 * @return The compiled script, compiled again only if the file changed
+	 *         since the last call
+	 */
+	public static CompiledScript compile(String script) throws IOException,
+			ScriptException {
+		URL url = locate(script);
+		long modified = lastModified(url);
+		String key = url.toExternalForm();
+		Compiled c = cache.get(key);
+		if (c == null || c.modified != modified) {
+			Reader reader = new BufferedReader(new InputStreamReader(
+					url.openStream(), StandardCharsets.UTF_8));
+			try {
+				c = new Compiled(((Compilable) engine()).compile(reader),
+						modified);
+			} finally {
+				reader.close();
+			}
+			cache.put(key, c);
+		}
+		return c.script;
+	}
+
+	private static URL locate(String script) throws IOException {
+		File file = new File(script);
+		if (file.exists())
+			return file.toURI().toURL();
+		URL url = JavaScriptRunner.class.getResource("/" + script);
+		if (url == null)
+			throw new FileNotFoundException("Java script file " + script
+					+ " not found ");
+		return url;
+	}
+
+	private static long lastModified(URL url) throws IOException {
+		if ("file".equals(url.getProtocol()))
+			try {
+				return Files.getLastModifiedTime(Paths.get(url.toURI()))
+						.toMillis();
+			} catch (java.net.URISyntaxException e) {
+				throw new IOException(e);
+			}
+		URLConnection connection = url.openConnection(); // e.g. inside a jar
+		InputStream in = connection.getInputStream();
+		try {
+			return connection.getLastModified();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * One engine for all scripts. Compiled scripts of the engine can be
+	 * evaluated on several threads at once as long as each has its own
+	 * bindings.
+	 */
+	private static synchronized ScriptEngine engine() {
+		if (engine == null) {
+			engine = new ScriptEngineManager().getEngineByName("nashorn");
+			if (engine == null)
+				throw new IllegalStateException(
+						"No nashorn script engine; on Java 15 and later add org.openjdk.nashorn:nashorn-core to the class path");
+		}
+		return engine;
+	}
+
+	/**
+	 * Replaces the nashorn engine, e.g. by one that needs no nashorn. Scripts
+	 * compiled so far are dropped.
+	 */
+	static synchronized void setEngine(ScriptEngine compilable) {
+		engine = compilable;
+		cache.clear();
+	}
+
+	private static final class Compiled {
+		final CompiledScript script;
+		final long modified;
+
+		Compiled(CompiledScript script, long modified) {
+			this.script = script;
+			this.modified = modified;
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package org.pxu.tools.ssh.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.SimpleBindings;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+public class JavaScriptRunnerTest extends TestCase {
+
+	/**
+	 * Compiles anything, counting the compilations
+	 */
+	private static class CountingEngine extends AbstractScriptEngine implements
+			Compilable {
+		int compiled;
+
+		public CompiledScript compile(String script) {
+			compiled++;
+			return new CompiledScript() {
+				public Object eval(ScriptContext context) {
+					return null;
+				}
+
+				public ScriptEngine getEngine() {
+					return CountingEngine.this;
+				}
+			};
+		}
+
+		public CompiledScript compile(Reader script) {
+			return compile("");
+		}
+
+		public Object eval(String script, ScriptContext context) {
+			return null;
+		}
+
+		public Object eval(Reader reader, ScriptContext context) {
+			return null;
+		}
+
+		public Bindings createBindings() {
+			return new SimpleBindings();
+		}
+
+		public ScriptEngineFactory getFactory() {
+			return null;
+		}
+	}
+
+	private CountingEngine engine;
+	private Path script;
+
+	@Override
+	protected void setUp() throws IOException {
+		engine = new CountingEngine();
+		JavaScriptRunner.setEngine(engine);
+		script = Files.createTempFile("runner", ".js");
+		Files.write(script, "shell.exec('uptime')"
+				.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Override
+	protected void tearDown() throws IOException {
+		JavaScriptRunner.setEngine(null); // nashorn again
+		Files.delete(script);
+	}
+
+	@Test
+	public void testUnchangedScriptIsCompiledOnce() throws Exception {
+		CompiledScript first = JavaScriptRunner.compile(script.toString());
+		assertSame(first, JavaScriptRunner.compile(script.toString()));
+		assertEquals(1, engine.compiled);
+	}
+
+	@Test
+	public void testChangedScriptIsCompiledAgain() throws Exception {
+		CompiledScript first = JavaScriptRunner.compile(script.toString());
+		FileTime modified = Files.getLastModifiedTime(script);
+		Files.setLastModifiedTime(script, FileTime.fromMillis(modified
+				.toMillis() + 2000));
+
+		CompiledScript second = JavaScriptRunner.compile(script.toString());
+		assertNotSame(first, second);
+		assertEquals(2, engine.compiled);
+		assertSame(second, JavaScriptRunner.compile(script.toString()));
+	}
+}
@@ -38,22 +38,33 @@ function findArgValue(arg)
 	throw arg + " not found in command line";
 }
 
- var host = findArgValue("host");
- var user = findArgValue("user");
- var pwd = findArgValue("password");
+// locals of a function, so that they do not hide the bindings of JavaScriptRunner
+function standalone()
+{
+	 var host = findArgValue("host");
+	 var user = findArgValue("user");
+	 var pwd = findArgValue("password");
  
- if (host==null || user==null || pwd==null) {
-	 pr("Incorrect args");
-	 usage();
- } else {
-	 pr ("Credentials> " + host + " " + user + " " + pwd);
+	 if (host==null || user==null || pwd==null) {
+		 pr("Incorrect args");
+		 usage();
+	 } else {
+		 pr ("Credentials> " + host + " " + user + " " + pwd);
 	 
-	 var shell = new UnixShell(host, user, pwd);
-	 var response;
+		 var shell = new UnixShell(host, user, pwd);
+		 var response;
 	 
-	 response = shell.login();
-	 pr("Login->" + response);
-	 response = shell.exec("pwd");
-	 pr("Current Directory->" + response);
-	 response = shell.logout();
- }
\ No newline at end of file
+		 response = shell.login();
+		 pr("Login->" + response);
+		 response = shell.exec("pwd");
+		 pr("Current Directory->" + response);
+		 response = shell.logout();
+	 }
+}
+
+if (typeof shell != "undefined") {
+	// run by JavaScriptRunner, which logs the shell in and out
+	pr("Current Directory on " + host + "->" + shell.exec("pwd"));
+} else {
+	standalone();
+}
\ No newline at end of file